@@ -0,0 +1,928 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Base class for accounts that keep their balance as a fixed-point number of cents.
+ * 
+ * Deposits and withdrawals only touch a primitive long and use overflow-checked
+ * arithmetic, so they do not allocate. Interest postings can produce fractions of a
+ * cent; the fraction is kept exactly as a BigDecimal next to the whole cents so that
+ * rounding behaves exactly like a balance held entirely in BigDecimal.
+ * All balance operations are synchronized on the account.
+ * 
+ * When the account belongs to a journaled Bank, each mutation is appended to the
+ * TransactionJournal while the account lock is held, and the method only returns once
+ * the record is durable. The wait happens after the lock is released, so concurrent
+ * writers on other accounts share one group commit.
+ * 
+ * Operations that span several accounts, such as Bank transfers, lock the accounts in
+ * ascending {@link #getLockOrder() lock order}, so they never deadlock with each other.
+ * 
+ * Operations report what they did as TransactionEvents rather than printing, so they do
+ * no console I/O unless a console sink is installed. When Metrics are enabled, each
+ * operation also records its latency and any rejection reason.
+ * 
+ * Every applied deposit, withdrawal, check, transfer and interest posting is also kept in
+ * a bounded TransactionHistory, which can be read page by page with
+ * {@link #getStatement(long, long, int, long)}.
+ * 
+ * Balance reads do not take the account lock. Writers, which hold the lock, make a
+ * version stamp odd while they change the balance and even again when they are done. A
+ * reader reads the stamp, then the balance, then the stamp again, and only retries if the
+ * stamp changed or was odd, that is if a write actually raced with it. Readers therefore
+ * never wait behind writers or each other, and read throughput scales with the number of
+ * cores even on a hot account. After a few failed attempts, or when daily interest is due,
+ * the reader falls back to the lock. Operations spanning several accounts hold every
+ * account's stamp odd for their whole duration, so {@link #readBalancesCents} sees
+ * either all or none of a transfer.
+ * 
+ * If the bank has a BalanceIndex, the end of every write queues the account for
+ * re-indexing, unless it is already queued.
+ * 
+ * If the bank has DailyInterest enabled, every operation that reads or mutates the
+ * balance first compounds the interest of the days passed since the account last did.
+ */
+public abstract class AbstractAccount implements Account {
+    private static final BigDecimal HALF_CENT = new BigDecimal("0.5");
+    private static final AtomicLong NEXT_LOCK_ORDER = new AtomicLong();
+    private static final long NO_ACCRUAL_DAY = Long.MIN_VALUE;
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 4;
+    private static final VarHandle VERSION;
+
+    static {
+        try {
+            VERSION = MethodHandles.lookup().findVarHandle(AbstractAccount.class, "version", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long lockOrder = NEXT_LOCK_ORDER.getAndIncrement();
+    private AccountId accountId;
+    private TransactionJournal journal;
+    private int journalOrdinal;
+    private long balanceCents;
+    private BigDecimal centFraction;
+    private boolean fractionAtLeastHalf;
+    private boolean fractionAboveHalf;
+    private final TransactionHistory history = new TransactionHistory();
+    private IdempotencyCache requestCache;
+    private DailyInterest dailyInterest;
+    private BigDecimal dailyRate;
+    private long lastAccrualDay = NO_ACCRUAL_DAY;
+    private long version;
+    private int writeDepth;
+    private BalanceIndex balanceIndex;
+    private volatile boolean indexQueued;
+    private BalanceIndex.Entry indexEntry;
+
+    /**
+     * Constructs a new account with zero balance.
+     */
+    protected AbstractAccount() {
+        this.centFraction = BigDecimal.ZERO;
+    }
+
+    /**
+     * Constructs a new account with specified initial balance.
+     * 
+     * @param balance the initial balance
+     */
+    protected AbstractAccount(double balance) {
+        setExactBalanceCents(new BigDecimal(String.valueOf(balance)).movePointRight(Money.SCALE));
+    }
+
+    /**
+     * Constructs a new account with an initial balance in exact cents.
+     * 
+     * @param balanceCents the initial balance in cents
+     */
+    protected AbstractAccount(long balanceCents) {
+        this.balanceCents = balanceCents;
+        this.centFraction = BigDecimal.ZERO;
+    }
+
+    /**
+     * Returns the display name of the account type, used in transaction messages.
+     * 
+     * @return the account type name, e.g. "Checking Account"
+     */
+    protected abstract String getAccountTypeName();
+
+    /**
+     * Returns the interest rate applied by {@link #calculateInterest()}.
+     * 
+     * @return the interest rate as a fraction, e.g. 0.02 for 2%
+     */
+    protected abstract BigDecimal getInterestRate();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deposit(double amount) throws IllegalArgumentException {
+        if (amount < 0) {
+            Metrics.reject(MeteredOperation.DEPOSIT, RejectionReason.NEGATIVE_AMOUNT);
+            throw new IllegalArgumentException("Deposit amount cannot be negative");
+        }
+
+        if (hasMoreThanTwoDecimalPlaces(amount)) {
+            Metrics.reject(MeteredOperation.DEPOSIT, RejectionReason.BAD_SCALE);
+            throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
+        }
+
+        depositCents(Money.toCents(amount));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void depositCents(long cents) throws IllegalArgumentException {
+        if (cents < 0) {
+            Metrics.reject(MeteredOperation.DEPOSIT, RejectionReason.NEGATIVE_AMOUNT);
+            throw new IllegalArgumentException("Deposit amount cannot be negative");
+        }
+
+        long startNanos = Metrics.start();
+        long journalPosition;
+        synchronized (this) {
+            accrueDailyInterest();
+            credit(cents);
+            try {
+                journalPosition = journal(TransactionJournal.DEPOSIT, cents);
+            } catch (RuntimeException e) {
+                debit(cents);
+                throw e;
+            }
+            recordHistory(TransactionEventType.DEPOSITED, cents, 0);
+        }
+        awaitDurable(journalPosition);
+        TransactionEvents.publish(TransactionEventType.DEPOSITED, getAccountTypeName(), cents, 0, null);
+        Metrics.record(MeteredOperation.DEPOSIT, startNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void depositCents(long cents, String requestId) {
+        deduplicate(requestId, "deposit", () -> {
+            depositCents(cents);
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean withdraw(double amount) throws IllegalArgumentException {
+        if (amount < 0) {
+            Metrics.reject(MeteredOperation.WITHDRAW, RejectionReason.NEGATIVE_AMOUNT);
+            throw new IllegalArgumentException("Withdraw amount cannot be negative");
+        }
+
+        if (hasMoreThanTwoDecimalPlaces(amount)) {
+            Metrics.reject(MeteredOperation.WITHDRAW, RejectionReason.BAD_SCALE);
+            throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
+        }
+
+        return withdrawCents(Money.toCents(amount));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean withdrawCents(long cents) throws IllegalArgumentException {
+        if (cents < 0) {
+            Metrics.reject(MeteredOperation.WITHDRAW, RejectionReason.NEGATIVE_AMOUNT);
+            throw new IllegalArgumentException("Withdraw amount cannot be negative");
+        }
+
+        long startNanos = Metrics.start();
+        long journalPosition;
+        synchronized (this) {
+            accrueDailyInterest();
+            if (!hasFunds(cents)) {
+                TransactionEvents.publish(TransactionEventType.INSUFFICIENT_FUNDS, getAccountTypeName(), cents, 0, null);
+                Metrics.reject(MeteredOperation.WITHDRAW, RejectionReason.INSUFFICIENT_FUNDS);
+                Metrics.record(MeteredOperation.WITHDRAW, startNanos);
+                return false;
+            }
+            debit(cents);
+            try {
+                journalPosition = journal(TransactionJournal.WITHDRAW, cents);
+            } catch (RuntimeException e) {
+                credit(cents);
+                throw e;
+            }
+            recordHistory(TransactionEventType.WITHDRAWN, cents, 0);
+        }
+        awaitDurable(journalPosition);
+        TransactionEvents.publish(TransactionEventType.WITHDRAWN, getAccountTypeName(), cents, 0, null);
+        Metrics.record(MeteredOperation.WITHDRAW, startNanos);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean withdrawCents(long cents, String requestId) {
+        return deduplicate(requestId, "withdraw", () -> withdrawCents(cents));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void calculateInterest(String requestId) {
+        deduplicate(requestId, "calculateInterest", () -> {
+            calculateInterest();
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void calculateInterest() {
+        long startNanos = Metrics.start();
+        long roundedInterestCents;
+        long journalPosition = 0;
+        synchronized (this) {
+            accrueDailyInterest();
+            BigDecimal previousCents = BigDecimal.valueOf(balanceCents).add(centFraction);
+            roundedInterestCents = applyInterest().setScale(0, RoundingMode.HALF_UP).longValueExact();
+            journalPosition = journalInterest(previousCents);
+            recordHistory(TransactionEventType.INTEREST_ADDED, roundedInterestCents, 0);
+        }
+        awaitDurable(journalPosition);
+        TransactionEvents.publish(TransactionEventType.INTEREST_ADDED, getAccountTypeName(), roundedInterestCents, 0, getInterestRate());
+        Metrics.record(MeteredOperation.CALCULATE_INTEREST, startNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BigDecimal getBalance() {
+        return Money.toBigDecimal(getBalanceCents());
+    }
+
+    /**
+     * Returns the current balance in cents, rounded half up like {@link #getBalance()}.
+     * Does not take the account lock unless writes keep racing with the read or daily
+     * interest is due.
+     * 
+     * @return the current balance in cents
+     */
+    public long getBalanceCents() {
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long stamp = (long) VERSION.getAcquire(this);
+            if ((stamp & 1) == 0) {
+                long cents = roundedBalanceCents();
+                boolean accrualDue = isDailyInterestDue();
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getAcquire(this) == stamp) {
+                    if (accrualDue) {
+                        break;
+                    }
+                    return cents;
+                }
+            }
+            Thread.onSpinWait();
+        }
+        synchronized (this) {
+            accrueDailyInterest();
+            return roundedBalanceCents();
+        }
+    }
+
+    /**
+     * Reads the balances of several accounts as of one point in time, so that, for example,
+     * money in flight between them is never counted twice or not at all. Like
+     * {@link #getBalanceCents()}, the read is optimistic and only locks the accounts, in
+     * lock order, if writes keep racing with it or daily interest is due.
+     * 
+     * @param accounts the accounts to read, without duplicates
+     * @return the balance of each account in cents, rounded half up
+     */
+    static long[] readBalancesCents(AbstractAccount... accounts) {
+        long[] stamps = new long[accounts.length];
+        long[] balancesCents = new long[accounts.length];
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            boolean stable = true;
+            for (int i = 0; i < accounts.length && stable; i++) {
+                stamps[i] = (long) VERSION.getAcquire(accounts[i]);
+                stable = (stamps[i] & 1) == 0;
+            }
+            boolean accrualDue = false;
+            for (int i = 0; i < accounts.length && stable; i++) {
+                balancesCents[i] = accounts[i].roundedBalanceCents();
+                accrualDue |= accounts[i].isDailyInterestDue();
+            }
+            VarHandle.loadLoadFence();
+            for (int i = 0; i < accounts.length && stable; i++) {
+                stable = (long) VERSION.getAcquire(accounts[i]) == stamps[i];
+            }
+            if (stable) {
+                if (accrualDue) {
+                    break;
+                }
+                return balancesCents;
+            }
+            Thread.onSpinWait();
+        }
+
+        AbstractAccount[] locked = accounts.clone();
+        Arrays.sort(locked, Comparator.comparingLong(AbstractAccount::getLockOrder));
+        lockAndRead(locked, 0, accounts, balancesCents);
+        return balancesCents;
+    }
+
+    /**
+     * Locks the remaining accounts in lock order, then reads every balance.
+     * 
+     * @param locked the accounts to lock, in lock order
+     * @param index the index of the next account to lock
+     * @param accounts the accounts to read
+     * @param balancesCents receives the balance of each account in cents
+     */
+    private static void lockAndRead(AbstractAccount[] locked, int index, AbstractAccount[] accounts, long[] balancesCents) {
+        if (index < locked.length) {
+            synchronized (locked[index]) {
+                lockAndRead(locked, index + 1, accounts, balancesCents);
+            }
+            return;
+        }
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i].accrueDailyInterest();
+            balancesCents[i] = accounts[i].roundedBalanceCents();
+        }
+    }
+
+    /**
+     * Starts a write of the balance, making the version stamp odd. Writes may nest; only the
+     * outermost one changes the stamp. Must be called while holding the account lock.
+     */
+    final void beginWrite() {
+        if (writeDepth++ == 0) {
+            VERSION.setOpaque(this, version + 1);
+            VarHandle.storeStoreFence();
+        }
+    }
+
+    /**
+     * Ends a write started by {@link #beginWrite()}, making the version stamp even again once
+     * the outermost write ends. Must be called while holding the account lock.
+     */
+    final void endWrite() {
+        if (--writeDepth == 0) {
+            VERSION.setRelease(this, version + 1);
+            if (balanceIndex != null && !indexQueued) {
+                indexQueued = true;
+                balanceIndex.enqueue(this);
+            }
+        }
+    }
+
+    /**
+     * Returns the balance as of the last write, without accruing daily interest that is due,
+     * so that reading it never writes. Does not take the account lock unless writes keep
+     * racing with the read.
+     * 
+     * @return the balance in cents, rounded half up
+     */
+    final long getRecordedBalanceCents() {
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            long stamp = (long) VERSION.getAcquire(this);
+            if ((stamp & 1) == 0) {
+                long cents = roundedBalanceCents();
+                VarHandle.loadLoadFence();
+                if ((long) VERSION.getAcquire(this) == stamp) {
+                    return cents;
+                }
+            }
+            Thread.onSpinWait();
+        }
+        synchronized (this) {
+            return roundedBalanceCents();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasMoreThanTwoDecimalPlaces(double amount) {
+        return Money.hasMoreThanTwoDecimalPlaces(amount);
+    }
+
+    /**
+     * Returns the first page of the account's transactions in a time range.
+     * 
+     * @param fromMillis the start of the range in milliseconds since the epoch, inclusive
+     * @param toMillis the end of the range in milliseconds since the epoch, inclusive
+     * @param pageSize the maximum number of entries to return
+     * @return the page, oldest entry first
+     * @throws IllegalArgumentException if pageSize is not positive
+     */
+    public StatementPage getStatement(long fromMillis, long toMillis, int pageSize) {
+        return getStatement(fromMillis, toMillis, pageSize, 0);
+    }
+
+    /**
+     * Returns a page of the account's transactions in a time range, starting at a sequence
+     * number returned by {@link StatementPage#getNextSequence()}. Entries that were dropped
+     * from the history, because the account does not belong to a Bank or they aged out of
+     * the bank's bounded spill file, are skipped.
+     * 
+     * @param fromMillis the start of the range in milliseconds since the epoch, inclusive
+     * @param toMillis the end of the range in milliseconds since the epoch, inclusive
+     * @param pageSize the maximum number of entries to return
+     * @param fromSequence the sequence number to continue from, 0 for the first page
+     * @return the page, oldest entry first
+     * @throws IllegalArgumentException if pageSize is not positive
+     */
+    public synchronized StatementPage getStatement(long fromMillis, long toMillis, int pageSize, long fromSequence) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        accrueDailyInterest();
+        return history.query(fromMillis, toMillis, fromSequence, pageSize);
+    }
+
+    /**
+     * Adds whole cents to the balance. Must be called while holding the account lock.
+     * 
+     * @param cents the amount to add in cents
+     * @throws ArithmeticException if the balance would overflow
+     */
+    protected final void credit(long cents) {
+        long updated = Math.addExact(balanceCents, cents);
+        beginWrite();
+        this.balanceCents = updated;
+        endWrite();
+    }
+
+    /**
+     * Subtracts whole cents from the balance. Must be called while holding the account lock.
+     * 
+     * @param cents the amount to subtract in cents
+     * @throws ArithmeticException if the balance would overflow
+     */
+    protected final void debit(long cents) {
+        long updated = Math.subtractExact(balanceCents, cents);
+        beginWrite();
+        this.balanceCents = updated;
+        endWrite();
+    }
+
+    /**
+     * Checks if the exact balance covers an amount. Must be called while holding the account lock.
+     * Since the cent fraction is always in [0, 1), comparing whole cents gives the same
+     * answer as comparing against the exact balance.
+     * 
+     * @param cents the amount in cents
+     * @return true if the amount does not exceed the balance, false otherwise
+     */
+    protected final boolean hasFunds(long cents) {
+        return cents <= balanceCents;
+    }
+
+    /**
+     * Appends a balance mutation to the journal, if any. Must be called while holding the account lock.
+     * 
+     * @param type the journal record type
+     * @param cents the amount in cents
+     * @return the journal position to wait for, or 0 if the account is not journaled
+     */
+    protected final long journal(byte type, long cents) {
+        return journal == null ? 0 : journal.append(type, journalOrdinal, cents);
+    }
+
+    /**
+     * Appends a check operation to the journal, if any. Must be called while holding the account lock.
+     * 
+     * @param type the journal record type
+     * @param cents the amount on the check in cents
+     * @param checkNumber the check number
+     * @return the journal position to wait for, or 0 if the account is not journaled
+     */
+    protected final long journalCheck(byte type, long cents, int checkNumber) {
+        return journal == null ? 0 : journal.appendCheck(type, journalOrdinal, cents, checkNumber);
+    }
+
+    /**
+     * Adds an applied transaction to the account's history. Must be called while holding the account lock.
+     * 
+     * @param type what happened
+     * @param cents the amount in cents
+     * @param checkNumber the check number, or 0 if the transaction did not involve a check
+     */
+    final void recordHistory(TransactionEventType type, long cents, int checkNumber) {
+        history.record(type, cents, checkNumber);
+    }
+
+    /**
+     * Compounds daily interest up to the current day, if the bank has DailyInterest enabled.
+     * The journal record, if any, is not waited for: accrual is deterministic, so interest
+     * lost in a crash is accrued again, with the same result, when the account is next used.
+     * Must be called while holding the account lock, before the operation reads the balance.
+     * 
+     * @throws ArithmeticException if the balance would overflow
+     */
+    final void accrueDailyInterest() {
+        if (dailyInterest == null) {
+            return;
+        }
+        long today = dailyInterest.today();
+        if (today <= lastAccrualDay) {
+            return;
+        }
+        long roundedInterestCents = compoundDays(today);
+        if (journal != null) {
+            journal.appendDailyInterest(journalOrdinal, dailyRate.unscaledValue().longValueExact(), today);
+        }
+        if (roundedInterestCents != 0) {
+            recordHistory(TransactionEventType.INTEREST_ADDED, roundedInterestCents, 0);
+        }
+    }
+
+    /**
+     * Runs a mutation of this account at most once per request ID, using the bank's IdempotencyCache.
+     * 
+     * @param <T> the type of the result
+     * @param requestId the client's request ID, or null to run the mutation unconditionally
+     * @param operationName the name of the mutation
+     * @param mutation the mutation
+     * @return the result of the mutation, or of the original request for a retry
+     * @throws IllegalStateException if a request ID is given but the account does not belong to a bank
+     * @throws IllegalArgumentException if the request ID was used for another account or operation
+     */
+    final <T> T deduplicate(String requestId, String operationName, Supplier<T> mutation) {
+        if (requestId == null) {
+            return mutation.get();
+        }
+        if (requestCache == null) {
+            throw new IllegalStateException("Request IDs are only tracked for accounts that belong to a bank");
+        }
+        return requestCache.execute(requestId, this, operationName, mutation);
+    }
+
+    /**
+     * Waits until a journaled mutation is durable, or on a ShardedEngine shard thread, leaves
+     * the wait to the end of the shard's batch. Must be called without holding the account lock.
+     * 
+     * @param journalPosition the position returned when the mutation was journaled
+     */
+    protected final void awaitDurable(long journalPosition) {
+        if (journalPosition != 0) {
+            journal.awaitDurableOrDefer(journalPosition);
+        }
+    }
+
+    /**
+     * Returns the position of the account in the global lock order. Code that locks several
+     * accounts at once must lock them in ascending order of this value.
+     * 
+     * @return the lock order, unique to this account
+     */
+    final long getLockOrder() {
+        return lockOrder;
+    }
+
+    /**
+     * Returns the ID the bank assigned to the account when it was registered.
+     * 
+     * @return the account ID, or null if the account does not belong to a bank
+     */
+    final AccountId getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * Records the ID the bank assigned to the account. Called once, before the account is
+     * visible to other threads.
+     * 
+     * @param accountId the account ID
+     */
+    final void bindAccountId(AccountId accountId) {
+        this.accountId = accountId;
+    }
+
+    /**
+     * Returns the ordinal identifying the account in its journal. Must be called while holding the account lock.
+     * 
+     * @return the journal ordinal, meaningless if the account is not journaled
+     */
+    final int getJournalOrdinal() {
+        return journalOrdinal;
+    }
+
+    /**
+     * Sets the file that history entries evicted from memory are spilled to.
+     * 
+     * @param spill the bank's spill file
+     */
+    final synchronized void bindHistorySpill(HistorySpillFile spill) {
+        history.bindSpill(spill);
+    }
+
+    /**
+     * Sets the cache that deduplicates requests carrying a request ID. Called once, before
+     * the account is visible to other threads.
+     * 
+     * @param requestCache the bank's request cache
+     */
+    final void bindRequestCache(IdempotencyCache requestCache) {
+        this.requestCache = requestCache;
+    }
+
+    /**
+     * Starts daily interest at a rate. Accrual starts today, unless the account already
+     * accrued before, as recorded in its snapshot or journal, in which case it continues
+     * from that day.
+     * 
+     * @param dailyInterest the bank's daily interest
+     * @param rate the daily rate of the account type, positive
+     */
+    final synchronized void bindDailyInterest(DailyInterest dailyInterest, BigDecimal rate) {
+        beginWrite();
+        this.dailyInterest = dailyInterest;
+        this.dailyRate = rate;
+        boolean starting = lastAccrualDay == NO_ACCRUAL_DAY;
+        if (starting) {
+            lastAccrualDay = dailyInterest.today();
+        }
+        endWrite();
+        if (starting && journal != null) {
+            journal.appendDailyInterest(journalOrdinal, rate.unscaledValue().longValueExact(), lastAccrualDay);
+        }
+    }
+
+    /**
+     * Adds the account to the bank's balance index, and keeps it there as its balance changes.
+     * 
+     * @param balanceIndex the bank's balance index
+     */
+    final synchronized void bindBalanceIndex(BalanceIndex balanceIndex) {
+        this.balanceIndex = balanceIndex;
+        indexQueued = true;
+        balanceIndex.enqueue(this);
+    }
+
+    /**
+     * Allows the next write to queue the account for re-indexing again. Called by the
+     * indexer thread when it takes the account off its queue.
+     */
+    final void clearIndexQueued() {
+        indexQueued = false;
+    }
+
+    /**
+     * Returns the account's entry in the balance index. Only used by the indexer thread.
+     * 
+     * @return the entry, or null if the account is not indexed yet
+     */
+    final BalanceIndex.Entry getIndexEntry() {
+        return indexEntry;
+    }
+
+    /**
+     * Records the account's entry in the balance index. Only used by the indexer thread.
+     * 
+     * @param indexEntry the entry
+     */
+    final void setIndexEntry(BalanceIndex.Entry indexEntry) {
+        this.indexEntry = indexEntry;
+    }
+
+    /**
+     * Binds the account to the journal that records its mutations.
+     * 
+     * @param journal the journal
+     * @param ordinal the ordinal identifying the account in the journal
+     */
+    final synchronized void bindJournal(TransactionJournal journal, int ordinal) {
+        this.journal = journal;
+        this.journalOrdinal = ordinal;
+    }
+
+    /**
+     * Re-applies a journaled deposit.
+     * 
+     * @param cents the amount in cents
+     */
+    final synchronized void replayCredit(long cents) {
+        credit(cents);
+    }
+
+    /**
+     * Re-applies a journaled withdrawal.
+     * 
+     * @param cents the amount in cents
+     */
+    final synchronized void replayDebit(long cents) {
+        debit(cents);
+    }
+
+    /**
+     * Adds interest for a bank-wide interest run. Nothing is printed, and the journal record,
+     * if any, is appended but not waited for; the caller makes the whole run durable at once.
+     * 
+     * @return the interest added, in cents
+     */
+    final synchronized BigDecimal accrueInterest() {
+        accrueDailyInterest();
+        BigDecimal previousCents = BigDecimal.valueOf(balanceCents).add(centFraction);
+        BigDecimal interestCents = applyInterest();
+        journalInterest(previousCents);
+        recordHistory(TransactionEventType.INTEREST_ADDED, interestCents.setScale(0, RoundingMode.HALF_UP).longValueExact(), 0);
+        return interestCents;
+    }
+
+    /**
+     * Re-applies a journaled interest posting.
+     */
+    final synchronized void replayInterest() {
+        applyInterest();
+    }
+
+    /**
+     * Re-applies a journaled daily interest accrual, or the start of daily interest if the
+     * account had not accrued before.
+     * 
+     * @param rate the daily rate the accrual used
+     * @param day the day the account accrued up to
+     */
+    final synchronized void replayDailyInterest(BigDecimal rate, long day) {
+        beginWrite();
+        if (lastAccrualDay != NO_ACCRUAL_DAY && day > lastAccrualDay) {
+            setExactBalanceCents(DailyInterest.compound(BigDecimal.valueOf(balanceCents).add(centFraction), rate,
+                    day - lastAccrualDay));
+        }
+        lastAccrualDay = Math.max(day, lastAccrualDay);
+        endWrite();
+    }
+
+    /**
+     * Writes the account state to a snapshot, together with the journal position it reflects.
+     * Every journal record of this account up to that position is already included in the state.
+     * 
+     * @param out the snapshot output
+     * @throws IOException if writing fails
+     */
+    final synchronized void writeSnapshot(DataOutput out) throws IOException {
+        out.writeLong(journal == null ? 0 : journal.getAppendedPosition());
+        out.writeLong(balanceCents);
+        byte[] fraction = centFraction.unscaledValue().toByteArray();
+        out.writeInt(centFraction.scale());
+        out.writeInt(fraction.length);
+        out.write(fraction);
+        out.writeLong(lastAccrualDay);
+        writeSnapshotState(out);
+    }
+
+    /**
+     * Restores the account state written by {@link #writeSnapshot(DataOutput)}, after the
+     * journal position has been read.
+     * 
+     * @param in the snapshot input, positioned after the journal position
+     */
+    final synchronized void readSnapshot(ByteBuffer in) {
+        long wholeCents = in.getLong();
+        int scale = in.getInt();
+        byte[] fraction = new byte[in.getInt()];
+        in.get(fraction);
+        setExactBalanceCents(BigDecimal.valueOf(wholeCents).add(new BigDecimal(new BigInteger(fraction), scale)));
+        beginWrite();
+        lastAccrualDay = in.getLong();
+        endWrite();
+        readSnapshotState(in);
+    }
+
+    /**
+     * Writes state specific to the account type to a snapshot. Called while holding the account lock.
+     * 
+     * @param out the snapshot output
+     * @throws IOException if writing fails
+     */
+    void writeSnapshotState(DataOutput out) throws IOException {
+    }
+
+    /**
+     * Restores state written by {@link #writeSnapshotState(DataOutput)}. Called while holding the account lock.
+     * 
+     * @param in the snapshot input
+     */
+    void readSnapshotState(ByteBuffer in) {
+    }
+
+    /**
+     * Adds interest at the account's rate to the exact balance. Must be called while holding the account lock.
+     * 
+     * @return the interest added, in cents
+     */
+    private BigDecimal applyInterest() {
+        BigDecimal exactCents = BigDecimal.valueOf(balanceCents).add(centFraction);
+        BigDecimal interestCents = exactCents.multiply(getInterestRate());
+        setExactBalanceCents(exactCents.add(interestCents));
+        return interestCents;
+    }
+
+    /**
+     * Appends an interest posting to the journal, if any, restoring the balance from before
+     * the posting if the append fails. Must be called while holding the account lock, right
+     * after {@link #applyInterest()}.
+     * 
+     * @param previousCents the exact balance in cents before the posting
+     * @return the journal position to wait for, or 0 if the account is not journaled
+     */
+    private long journalInterest(BigDecimal previousCents) {
+        if (journal == null) {
+            return 0;
+        }
+        try {
+            return journal.appendInterest(journalOrdinal);
+        } catch (RuntimeException e) {
+            setExactBalanceCents(previousCents);
+            throw e;
+        }
+    }
+
+    /**
+     * Compounds daily interest from the last accrual day up to a later day. Must be called
+     * while holding the account lock.
+     * 
+     * @param day the day to accrue up to
+     * @return the interest added, rounded to whole cents
+     */
+    private long compoundDays(long day) {
+        BigDecimal exactCents = BigDecimal.valueOf(balanceCents).add(centFraction);
+        BigDecimal compounded = DailyInterest.compound(exactCents, dailyRate, day - lastAccrualDay);
+        beginWrite();
+        setExactBalanceCents(compounded);
+        lastAccrualDay = day;
+        endWrite();
+        return compounded.subtract(exactCents).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /**
+     * Replaces the balance with an exact amount of cents, splitting it into whole cents
+     * and a fraction in [0, 1).
+     * 
+     * @param exactCents the exact balance in cents
+     * @throws ArithmeticException if the balance does not fit into a long
+     */
+    private void setExactBalanceCents(BigDecimal exactCents) {
+        BigDecimal wholeCents = exactCents.setScale(0, RoundingMode.FLOOR);
+        long updatedCents = wholeCents.longValueExact();
+        BigDecimal fraction = exactCents.subtract(wholeCents);
+        int comparedToHalf = fraction.compareTo(HALF_CENT);
+        beginWrite();
+        this.balanceCents = updatedCents;
+        this.centFraction = fraction;
+        this.fractionAtLeastHalf = comparedToHalf >= 0;
+        this.fractionAboveHalf = comparedToHalf > 0;
+        endWrite();
+    }
+
+    /**
+     * Rounds the balance to whole cents. Either called while holding the account lock, or
+     * as part of an optimistic read that validates the version stamp afterwards.
+     * 
+     * @return the balance in cents, rounded half up
+     */
+    private long roundedBalanceCents() {
+        long cents = balanceCents;
+        boolean roundUp = cents < 0 ? fractionAboveHalf : fractionAtLeastHalf;
+        return roundUp ? cents + 1 : cents;
+    }
+
+    /**
+     * Checks if daily interest is due that a read must accrue first. Either called while
+     * holding the account lock, or as part of an optimistic read that validates the version
+     * stamp afterwards.
+     * 
+     * @return true if days have passed since the last accrual
+     */
+    private boolean isDailyInterestDue() {
+        DailyInterest interest = dailyInterest;
+        return interest != null && interest.today() > lastAccrualDay;
+    }
+}
@@ -3,6 +3,9 @@ import java.math.BigDecimal;
 /**
  * Interface representing a bank account.
  * Defines methods for basic banking operations.
+ * 
+ * Mutations can carry a client request ID. A request ID is applied at most once within its
+ * bank's IdempotencyCache window; a retry returns the original result without being applied again.
  */
 public interface Account {
     /**
@@ -22,11 +25,60 @@ public interface Account {
      */
     boolean withdraw(double amount);
 
+    /**
+     * Deposits an exact amount of cents into the account.
+     * 
+     * @param cents the amount to deposit in cents
+     * @throws IllegalArgumentException if amount is negative
+     */
+    void depositCents(long cents);
+
+    /**
+     * Withdraws an exact amount of cents from the account.
+     * 
+     * @param cents the amount to withdraw in cents
+     * @return true if withdrawal was successful, false otherwise
+     * @throws IllegalArgumentException if amount is negative
+     */
+    boolean withdrawCents(long cents);
+
+    /**
+     * Deposits an exact amount of cents into the account, at most once per request ID.
+     * 
+     * @param cents the amount to deposit in cents
+     * @param requestId the client's request ID, unique within the bank, or null to deposit unconditionally
+     * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if a request ID is given for an account that does not belong to a bank
+     * @throws IllegalArgumentException if the request ID was used for another account or operation
+     */
+    void depositCents(long cents, String requestId);
+
+    /**
+     * Withdraws an exact amount of cents from the account, at most once per request ID.
+     * 
+     * @param cents the amount to withdraw in cents
+     * @param requestId the client's request ID, unique within the bank, or null to withdraw unconditionally
+     * @return true if withdrawal was successful, false otherwise; a retry returns the original result
+     * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if a request ID is given for an account that does not belong to a bank
+     * @throws IllegalArgumentException if the request ID was used for another account or operation
+     */
+    boolean withdrawCents(long cents, String requestId);
+
     /**
      * Calculates and adds interest to the account based on its current balance.
      */
     void calculateInterest();
 
+    /**
+     * Calculates and adds interest to the account, at most once per request ID.
+     * 
+     * @param requestId the client's request ID, unique within the bank, or null to add interest unconditionally
+     * @throws IllegalStateException if a request ID is given for an account that does not belong to a bank
+     * @throws IllegalArgumentException if the request ID was used for another account or operation
+     */
+    void calculateInterest(String requestId);
+
     /**
      * Returns the current account balance.
      * 
@@ -0,0 +1,67 @@
+import java.math.BigDecimal;
+
+/**
+ * One account and its balance, as returned by the balance reporting queries of a Bank.
+ */
+public final class AccountBalance {
+    private final String userName;
+    private final boolean isChecking;
+    private final long balanceCents;
+
+    /**
+     * Constructs an account balance.
+     * 
+     * @param userName the username the account is registered under
+     * @param isChecking true for a checking account, false for a savings account
+     * @param balanceCents the balance in cents
+     */
+    AccountBalance(String userName, boolean isChecking, long balanceCents) {
+        this.userName = userName;
+        this.isChecking = isChecking;
+        this.balanceCents = balanceCents;
+    }
+
+    /**
+     * Returns the username the account is registered under.
+     * 
+     * @return the username
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Checks the account type.
+     * 
+     * @return true for a checking account, false for a savings account
+     */
+    public boolean isChecking() {
+        return isChecking;
+    }
+
+    /**
+     * Returns the balance.
+     * 
+     * @return the balance
+     */
+    public BigDecimal getBalance() {
+        return Money.toBigDecimal(balanceCents);
+    }
+
+    /**
+     * Returns the balance in cents.
+     * 
+     * @return the balance in cents
+     */
+    public long getBalanceCents() {
+        return balanceCents;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return userName + " " + getBalance();
+    }
+}
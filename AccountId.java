@@ -0,0 +1,66 @@
+/**
+ * Typed identity of an account in a Bank.
+ * 
+ * An account ID is resolved once from the username with {@link Bank#getAccountId(String)}
+ * and can then be used for any number of lookups with {@link Bank#getAccount(AccountId)},
+ * which index an array instead of building and hashing a key.
+ * IDs are dense integers assigned in creation order and are only meaningful for the bank
+ * that issued them.
+ */
+public final class AccountId {
+    private final int value;
+    private final String userName;
+
+    /**
+     * Constructs an account ID.
+     * 
+     * @param value the dense integer ID
+     * @param userName the username the account is registered under
+     */
+    AccountId(int value, String userName) {
+        this.value = value;
+        this.userName = userName;
+    }
+
+    /**
+     * Returns the dense integer ID.
+     * 
+     * @return the ID, starting at zero for the first account of the bank
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the username the account is registered under.
+     * 
+     * @return the username
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof AccountId && ((AccountId) other).value == value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "AccountId[" + value + ", " + userName + "]";
+    }
+}
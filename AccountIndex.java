@@ -0,0 +1,52 @@
+import java.util.Arrays;
+
+/**
+ * Array-backed index of accounts by dense integer ID.
+ * 
+ * IDs are handed out in registration order starting at zero, so a lookup is a single array
+ * read with no hashing. Registration is serialized; lookups take no lock and read the array
+ * through a volatile reference. An ID is only ever handed to callers after its slot has
+ * been written, so a lookup of a valid ID always sees the account.
+ */
+final class AccountIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile AbstractAccount[] accounts;
+    private int size;
+
+    /**
+     * Constructs an empty index.
+     * 
+     * @param expectedAccounts the number of accounts to size the index for
+     */
+    AccountIndex(int expectedAccounts) {
+        this.accounts = new AbstractAccount[Math.max(expectedAccounts, INITIAL_CAPACITY)];
+    }
+
+    /**
+     * Adds an account and assigns it the next ID.
+     * 
+     * @param account the account to add
+     * @return the ID of the account
+     */
+    synchronized int add(AbstractAccount account) {
+        AbstractAccount[] current = accounts;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = account;
+        accounts = current;
+        return size++;
+    }
+
+    /**
+     * Returns the account with an ID.
+     * 
+     * @param id the account ID
+     * @return the account, or null if no account has that ID
+     */
+    AbstractAccount get(int id) {
+        AbstractAccount[] current = accounts;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+}
@@ -0,0 +1,157 @@
+import java.math.BigDecimal;
+
+/**
+ * Description of one account to create in bulk with {@link Bank#createAccounts}: its
+ * type, registry key and opening balance.
+ */
+public final class AccountSpec {
+    private final boolean isChecking;
+    private final String userName;
+    private final long openingCents;
+
+    /**
+     * Constructs the description of an empty account.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username to associate with the account
+     * @throws IllegalArgumentException if userName is null
+     */
+    public AccountSpec(boolean isChecking, String userName) {
+        this(isChecking, userName, 0L);
+    }
+
+    /**
+     * Constructs the description of an account with an opening balance.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username to associate with the account
+     * @param openingBalance the initial balance
+     * @throws IllegalArgumentException if userName is null, or the balance is negative, not
+     *         finite or has more than two decimal places
+     */
+    public AccountSpec(boolean isChecking, String userName, double openingBalance) {
+        this(isChecking, userName, toOpeningCents(openingBalance));
+    }
+
+    /**
+     * Constructs the description of an account with an opening balance in exact cents.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username to associate with the account
+     * @param openingCents the initial balance in cents
+     * @throws IllegalArgumentException if userName is null or the balance is negative
+     */
+    private AccountSpec(boolean isChecking, String userName, long openingCents) {
+        if (userName == null) {
+            throw new IllegalArgumentException("Username cannot be null");
+        }
+        if (openingCents < 0) {
+            throw new IllegalArgumentException("Opening balance must be a non-negative amount");
+        }
+        this.isChecking = isChecking;
+        this.userName = userName;
+        this.openingCents = openingCents;
+    }
+
+    /**
+     * Validates an opening balance and converts it to cents.
+     * 
+     * @param openingBalance the initial balance
+     * @return the initial balance in cents
+     * @throws IllegalArgumentException if the balance is negative, not finite or has more
+     *         than two decimal places
+     */
+    private static long toOpeningCents(double openingBalance) {
+        if (!(openingBalance >= 0) || Double.isInfinite(openingBalance)) {
+            throw new IllegalArgumentException("Opening balance must be a non-negative amount");
+        }
+        if (Money.hasMoreThanTwoDecimalPlaces(openingBalance)) {
+            throw new IllegalArgumentException("Opening balance cannot have more than two decimal places");
+        }
+        return Money.toCents(openingBalance);
+    }
+
+    /**
+     * Parses an import line of the form "CHECKING,alice,100.00". The account is keyed by
+     * the user and the type, as in the interactive menus; the balance may be omitted and
+     * is kept in exact cents.
+     * 
+     * @param line the line
+     * @return the account description
+     * @throws IllegalArgumentException if the line is not a valid account line or the user is empty
+     */
+    static AccountSpec parse(String line) {
+        int typeEnd = line.indexOf(',');
+        if (typeEnd < 0) {
+            throw new IllegalArgumentException("Invalid account line: " + line);
+        }
+        int userEnd = line.indexOf(',', typeEnd + 1);
+        String type = line.substring(0, typeEnd).trim();
+        if (!type.equals(Bank.CHECKING) && !type.equals(Bank.SAVING)) {
+            throw new IllegalArgumentException("Invalid account type in line: " + line);
+        }
+        String user = (userEnd < 0 ? line.substring(typeEnd + 1) : line.substring(typeEnd + 1, userEnd)).trim();
+        if (user.isEmpty()) {
+            throw new IllegalArgumentException("Username cannot be empty in line: " + line);
+        }
+        long openingCents = userEnd < 0 ? 0 : Money.parseCents(line.substring(userEnd + 1));
+        return new AccountSpec(type.equals(Bank.CHECKING), user + type, openingCents);
+    }
+
+    /**
+     * Checks the account type.
+     * 
+     * @return true for a checking account, false for a savings account
+     */
+    public boolean isChecking() {
+        return isChecking;
+    }
+
+    /**
+     * Returns the username the account is registered under.
+     * 
+     * @return the username
+     */
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Returns the opening balance.
+     * 
+     * @return the initial balance
+     */
+    public double getOpeningBalance() {
+        return Money.toBigDecimal(openingCents).doubleValue();
+    }
+
+    /**
+     * Creates the described account with its exact opening balance in cents.
+     * 
+     * @return the new account
+     */
+    AbstractAccount newAccount() {
+        if (openingCents == 0) {
+            return Bank.newAccount(isChecking);
+        }
+        return isChecking ? CheckingAccount.withBalanceCents(openingCents) : SavingsAccount.withBalanceCents(openingCents);
+    }
+
+    /**
+     * Returns the opening balance in cents.
+     * 
+     * @return the initial balance in cents
+     */
+    long getOpeningCents() {
+        return openingCents;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return (isChecking ? Bank.CHECKING : Bank.SAVING) + "," + userName + ","
+                + BigDecimal.valueOf(openingCents, Money.SCALE).toPlainString();
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous API of a Bank: every operation returns at once with a CompletableFuture of
+ * a structured result, so callers can keep many requests in flight and chain dependent
+ * ones instead of waiting for each.
+ * 
+ * Operations run on a ShardedEngine owned by this object. Operations on different
+ * accounts run concurrently on different shards, while operations on the same account
+ * run in the order they were submitted, so a deposit followed by a withdrawal can be
+ * pipelined without waiting for the deposit first. On a journaled bank a future
+ * completes once its mutation is durable, and a shard waits for the journal once per
+ * batch rather than once per operation.
+ * 
+ * Outcomes that are part of normal banking, such as insufficient funds, a duplicate check
+ * or a missing account, complete the future with a rejected OperationResult carrying the
+ * RejectionReason, instead of publishing a message for a console. Invalid arguments, such
+ * as a negative amount or a check operation on a savings account, complete it
+ * exceptionally with IllegalArgumentException.
+ * 
+ * Futures are completed on a shard thread. Dependent operations submitted from a
+ * completion stage through this API, e.g. with thenCompose, are queued rather than
+ * awaited, so such chains never block a shard. A stage must not itself wait on another
+ * future with join or get. A synchronous Bank or Account call made from a stage runs
+ * outside any shard command, so on a journaled bank it blocks the shard until its own
+ * record is durable; stages making such calls, or doing more than a little work, should
+ * use the *Async variants.
+ */
+public class AsyncBank implements Closeable {
+    private final Bank bank;
+    private final ShardedEngine engine;
+
+    /**
+     * Starts an asynchronous API with one shard per available processor.
+     * 
+     * @param bank the bank to operate on
+     */
+    public AsyncBank(Bank bank) {
+        this(bank, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Starts an asynchronous API.
+     * 
+     * @param bank the bank to operate on
+     * @param shardCount the number of shards, each owned by one thread
+     * @throws IllegalArgumentException if shardCount is not positive
+     */
+    public AsyncBank(Bank bank, int shardCount) {
+        this.bank = bank;
+        this.engine = new ShardedEngine(bank, shardCount);
+    }
+
+    /**
+     * Creates a new account.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username to associate with the account
+     * @return a future completed with the result: applied with a zero balance, or rejected
+     *         with ACCOUNT_EXISTS and the balance of the existing account
+     */
+    public CompletableFuture<OperationResult> createAccount(boolean isChecking, String userName) {
+        return engine.submit(userName, () -> {
+            if (bank.createAccount(isChecking, userName)) {
+                return OperationResult.applied(0);
+            }
+            AbstractAccount existing = (AbstractAccount) bank.getAccount(userName);
+            return OperationResult.rejected(RejectionReason.ACCOUNT_EXISTS, existing.getBalanceCents());
+        });
+    }
+
+    /**
+     * Deposits an amount of cents into an account.
+     * 
+     * @param userName the username associated with the account
+     * @param cents the amount to deposit, in cents
+     * @return a future completed with the result: applied, or rejected with ACCOUNT_NOT_FOUND;
+     *         completed exceptionally with IllegalArgumentException if the amount is negative
+     */
+    public CompletableFuture<OperationResult> deposit(String userName, long cents) {
+        return engine.submit(userName, () -> {
+            AbstractAccount account = (AbstractAccount) bank.getAccount(userName);
+            if (account == null) {
+                return accountNotFound();
+            }
+            account.depositCents(cents);
+            return OperationResult.applied(account.getBalanceCents());
+        });
+    }
+
+    /**
+     * Withdraws an amount of cents from an account.
+     * 
+     * @param userName the username associated with the account
+     * @param cents the amount to withdraw, in cents
+     * @return a future completed with the result: applied, or rejected with INSUFFICIENT_FUNDS
+     *         or ACCOUNT_NOT_FOUND; completed exceptionally with IllegalArgumentException if the
+     *         amount is negative
+     */
+    public CompletableFuture<OperationResult> withdraw(String userName, long cents) {
+        return engine.submit(userName, () -> {
+            AbstractAccount account = (AbstractAccount) bank.getAccount(userName);
+            if (account == null) {
+                return accountNotFound();
+            }
+            boolean withdrawn = account.withdrawCents(cents);
+            return result(withdrawn ? null : RejectionReason.INSUFFICIENT_FUNDS, account);
+        });
+    }
+
+    /**
+     * Deposits a check into a checking account.
+     * 
+     * @param userName the username associated with the checking account
+     * @param cents the amount of the check, in cents
+     * @param checkNumber the check number
+     * @return a future completed with the result: applied, or rejected with DUPLICATE_CHECK or
+     *         ACCOUNT_NOT_FOUND; completed exceptionally with IllegalArgumentException if the
+     *         amount is negative or the account is not a checking account
+     */
+    public CompletableFuture<OperationResult> depositCheck(String userName, long cents, int checkNumber) {
+        return engine.submit(userName, () -> {
+            AbstractAccount account = (AbstractAccount) bank.getAccount(userName);
+            if (account == null) {
+                return accountNotFound();
+            }
+            boolean deposited = requireChecking(account, userName).depositCheckCents(cents, checkNumber);
+            return result(deposited ? null : RejectionReason.DUPLICATE_CHECK, account);
+        });
+    }
+
+    /**
+     * Cashes a check from a checking account.
+     * 
+     * @param userName the username associated with the checking account
+     * @param cents the amount of the check, in cents
+     * @param checkNumber the check number
+     * @return a future completed with the result: applied, or rejected with DUPLICATE_CHECK,
+     *         INSUFFICIENT_FUNDS or ACCOUNT_NOT_FOUND; completed exceptionally with
+     *         IllegalArgumentException if the amount is negative or the account is not a
+     *         checking account
+     */
+    public CompletableFuture<OperationResult> cashCheck(String userName, long cents, int checkNumber) {
+        return engine.submit(userName, () -> {
+            AbstractAccount account = (AbstractAccount) bank.getAccount(userName);
+            if (account == null) {
+                return accountNotFound();
+            }
+            return result(requireChecking(account, userName).tryCashCheckCents(cents, checkNumber), account);
+        });
+    }
+
+    /**
+     * Adds one period of interest to an account.
+     * 
+     * @param userName the username associated with the account
+     * @return a future completed with the result: applied, or rejected with ACCOUNT_NOT_FOUND
+     */
+    public CompletableFuture<OperationResult> calculateInterest(String userName) {
+        return engine.submit(userName, () -> {
+            AbstractAccount account = (AbstractAccount) bank.getAccount(userName);
+            if (account == null) {
+                return accountNotFound();
+            }
+            account.calculateInterest();
+            return OperationResult.applied(account.getBalanceCents());
+        });
+    }
+
+    /**
+     * Moves an exact amount of cents from one account to another atomically. The transfer
+     * runs in order with the other operations on the source account.
+     * 
+     * @param fromUserName the username of the account to debit
+     * @param toUserName the username of the account to credit
+     * @param cents the amount to move, in cents
+     * @return a future completed with the result and the balance of the source account: applied,
+     *         or rejected with INSUFFICIENT_FUNDS or ACCOUNT_NOT_FOUND; completed exceptionally
+     *         with IllegalArgumentException if the amount is negative
+     */
+    public CompletableFuture<OperationResult> transfer(String fromUserName, String toUserName, long cents) {
+        return engine.submit(fromUserName, () -> {
+            AbstractAccount source = (AbstractAccount) bank.getAccount(fromUserName);
+            if (source == null || bank.getAccount(toUserName) == null) {
+                return OperationResult.rejected(RejectionReason.ACCOUNT_NOT_FOUND,
+                        source == null ? 0 : source.getBalanceCents());
+            }
+            boolean transferred = bank.transferCents(fromUserName, toUserName, cents);
+            return result(transferred ? null : RejectionReason.INSUFFICIENT_FUNDS, source);
+        });
+    }
+
+    /**
+     * Looks up the balance of an account, in order with the operations submitted before it.
+     * 
+     * @param userName the username associated with the account
+     * @return a future completed with the result: applied with the balance, or rejected with
+     *         ACCOUNT_NOT_FOUND
+     */
+    public CompletableFuture<OperationResult> getBalance(String userName) {
+        return engine.submit(userName, () -> {
+            AbstractAccount account = (AbstractAccount) bank.getAccount(userName);
+            return account == null ? accountNotFound() : OperationResult.applied(account.getBalanceCents());
+        });
+    }
+
+    /**
+     * Reads the balances of a user's checking and savings accounts as of one point in time,
+     * like {@link Bank#getUserBalances(String)}.
+     * 
+     * @param userName the user owning the accounts
+     * @return a future completed with the balances; the balance of an account the user does
+     *         not have is null
+     */
+    public CompletableFuture<UserBalances> getUserBalances(String userName) {
+        return engine.submit(userName, () -> bank.getUserBalances(userName));
+    }
+
+    /**
+     * Returns the bank this API operates on.
+     * 
+     * @return the bank
+     */
+    public Bank getBank() {
+        return bank;
+    }
+
+    /**
+     * Stops accepting operations, lets the operations already submitted complete, and stops
+     * the shard threads. Does not close the bank.
+     */
+    @Override
+    public void close() {
+        engine.close();
+    }
+
+    /**
+     * Returns the result of an operation on a missing account.
+     * 
+     * @return a result rejected with ACCOUNT_NOT_FOUND
+     */
+    private static OperationResult accountNotFound() {
+        return OperationResult.rejected(RejectionReason.ACCOUNT_NOT_FOUND, 0);
+    }
+
+    /**
+     * Builds the result of an operation that ran on an account.
+     * 
+     * @param reason why the operation was rejected, or null if it was applied
+     * @param account the account the operation ran on
+     * @return the result, with the balance of the account after the operation
+     */
+    private static OperationResult result(RejectionReason reason, AbstractAccount account) {
+        long balanceCents = account.getBalanceCents();
+        return reason == null ? OperationResult.applied(balanceCents) : OperationResult.rejected(reason, balanceCents);
+    }
+
+    /**
+     * Narrows an account to a checking account.
+     * 
+     * @param account the account
+     * @param userName the username associated with the account
+     * @return the checking account
+     * @throws IllegalArgumentException if the account is not a checking account
+     */
+    private static CheckingAccount requireChecking(AbstractAccount account, String userName) {
+        if (!(account instanceof CheckingAccount)) {
+            throw new IllegalArgumentException("Not a checking account: " + userName);
+        }
+        return (CheckingAccount) account;
+    }
+}
@@ -0,0 +1,155 @@
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sink that hands events to another sink on a dedicated consumer thread.
+ * 
+ * Events are copied into a preallocated ring buffer, so publishing neither allocates nor
+ * takes a lock: a producer claims a sequence number with a compare-and-set, fills the slot
+ * and marks it published. The consumer thread delivers published slots in sequence order
+ * to the downstream sink, so slow I/O there never delays an account operation.
+ * When the buffer is full, new events are dropped and counted instead of blocking producers.
+ * Events published while the sink is being closed may be lost.
+ */
+public class AsyncEventSink implements EventSink, Closeable {
+    /** Default number of slots in the ring buffer. */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int SPINS_BEFORE_PARKING = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final EventSink downstream;
+    private final int capacity;
+    private final int mask;
+    private final TransactionEventType[] types;
+    private final String[] subjects;
+    private final long[] amounts;
+    private final int[] checkNumbers;
+    private final BigDecimal[] details;
+    private final AtomicLongArray publishedSequences;
+    private final AtomicLong claimedSequence = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final Thread consumer;
+
+    private volatile long consumedSequence;
+    private volatile boolean running = true;
+
+    /**
+     * Constructs an asynchronous sink with the default capacity.
+     * 
+     * @param downstream the sink that receives events on the consumer thread
+     */
+    public AsyncEventSink(EventSink downstream) {
+        this(downstream, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an asynchronous sink and starts its consumer thread.
+     * 
+     * @param downstream the sink that receives events on the consumer thread
+     * @param capacity the number of slots in the ring buffer, a power of two
+     * @throws IllegalArgumentException if capacity is not a positive power of two
+     */
+    public AsyncEventSink(EventSink downstream, int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a positive power of two");
+        }
+        this.downstream = downstream;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.types = new TransactionEventType[capacity];
+        this.subjects = new String[capacity];
+        this.amounts = new long[capacity];
+        this.checkNumbers = new int[capacity];
+        this.details = new BigDecimal[capacity];
+        this.publishedSequences = new AtomicLongArray(capacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            publishedSequences.set(slot, -1);
+        }
+
+        this.consumer = new Thread(this::consume, "event-sink");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEvent(TransactionEventType type, String subject, long amountCents, int checkNumber, BigDecimal detail) {
+        long sequence;
+        do {
+            sequence = claimedSequence.get();
+            if (!running || sequence - consumedSequence >= capacity) {
+                droppedEvents.incrementAndGet();
+                return;
+            }
+        } while (!claimedSequence.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        types[slot] = type;
+        subjects[slot] = subject;
+        amounts[slot] = amountCents;
+        checkNumbers[slot] = checkNumber;
+        details[slot] = detail;
+        publishedSequences.lazySet(slot, sequence);
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer was full or the sink was closed.
+     * 
+     * @return the number of dropped events
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Stops accepting events, waits until every event already published has been delivered,
+     * and stops the consumer thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Consumer loop: delivers events in sequence order, backing off from spinning to
+     * short parks while the buffer is empty. Exits once closed and drained.
+     */
+    private void consume() {
+        long next = 0;
+        int idleSpins = 0;
+        while (true) {
+            int slot = (int) next & mask;
+            if (publishedSequences.get(slot) == next) {
+                try {
+                    downstream.onEvent(types[slot], subjects[slot], amounts[slot], checkNumbers[slot], details[slot]);
+                } catch (RuntimeException e) {
+                    droppedEvents.incrementAndGet();
+                }
+                details[slot] = null;
+                next++;
+                consumedSequence = next;
+                idleSpins = 0;
+            } else if (!running && claimedSequence.get() == next) {
+                return;
+            } else if (idleSpins < SPINS_BEFORE_PARKING) {
+                idleSpins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Secondary index of account balances, one sorted set per account type, for reporting
+ * queries such as the accounts within a balance range or the highest balances.
+ * 
+ * The index is maintained asynchronously so that it costs the write path almost nothing:
+ * when a write to an account ends, the account is queued for re-indexing unless it is
+ * already queued. A single indexer thread wakes up every {@link #PASS_INTERVAL_MILLIS}
+ * milliseconds, takes every queued account off the queue, reads its balance without
+ * locking and moves its entry in the sorted set. A hot account is therefore re-indexed
+ * once per pass however often it is written, and writers never wake the indexer.
+ * 
+ * The sets are concurrent skip lists ordered by balance, so a range or top-N query takes
+ * logarithmic time to find its first entry and then walks only the entries it returns.
+ * Queries never block writers or the indexer, and see every balance as of at most one
+ * indexer pass ago. Daily interest is only reflected once an account has accrued it.
+ */
+final class BalanceIndex implements Closeable {
+    /** Time between indexer passes, which bounds how stale query results can be. */
+    static final long PASS_INTERVAL_MILLIS = 10;
+
+    private final NavigableSet<Entry> checking = new ConcurrentSkipListSet<>();
+    private final NavigableSet<Entry> savings = new ConcurrentSkipListSet<>();
+    private final ConcurrentLinkedQueue<AbstractAccount> queue = new ConcurrentLinkedQueue<>();
+    private final Thread indexer;
+    private volatile boolean closed;
+
+    /**
+     * Constructs an empty index and starts its indexer thread.
+     */
+    BalanceIndex() {
+        indexer = new Thread(this::run, "bank-balance-index");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Queues an account for re-indexing. Called by the account at most once until the
+     * indexer takes it off the queue.
+     * 
+     * @param account the account whose balance changed
+     */
+    void enqueue(AbstractAccount account) {
+        queue.offer(account);
+    }
+
+    /**
+     * Returns the accounts of a type with the highest balances.
+     * 
+     * @param isChecking true for checking accounts, false for savings accounts
+     * @param count the maximum number of accounts to return
+     * @return the accounts, highest balance first
+     */
+    List<AccountBalance> top(boolean isChecking, int count) {
+        return collect(entries(isChecking).descendingIterator(), isChecking, count);
+    }
+
+    /**
+     * Returns the accounts of a type whose balance lies in a range.
+     * 
+     * @param isChecking true for checking accounts, false for savings accounts
+     * @param fromCents the lowest balance in cents, inclusive
+     * @param toCents the highest balance in cents, inclusive
+     * @param limit the maximum number of accounts to return
+     * @return the accounts, lowest balance first
+     */
+    List<AccountBalance> range(boolean isChecking, long fromCents, long toCents, int limit) {
+        if (fromCents > toCents) {
+            return new ArrayList<>();
+        }
+        NavigableSet<Entry> range = entries(isChecking).subSet(
+                new Entry(fromCents, Long.MIN_VALUE, null), true, new Entry(toCents, Long.MAX_VALUE, null), true);
+        return collect(range.iterator(), isChecking, limit);
+    }
+
+    /**
+     * Stops the indexer thread after a final pass over its queue.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(indexer);
+        boolean interrupted = false;
+        while (indexer.isAlive()) {
+            try {
+                indexer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the sorted set of an account type.
+     * 
+     * @param isChecking true for checking accounts, false for savings accounts
+     * @return the entries of that type
+     */
+    private NavigableSet<Entry> entries(boolean isChecking) {
+        return isChecking ? checking : savings;
+    }
+
+    /**
+     * Copies entries into results.
+     * 
+     * @param entries the entries, in the order to return them
+     * @param isChecking the account type of the entries
+     * @param limit the maximum number of results
+     * @return the results
+     */
+    private static List<AccountBalance> collect(Iterator<Entry> entries, boolean isChecking, int limit) {
+        List<AccountBalance> results = new ArrayList<>(Math.min(limit, 1024));
+        while (results.size() < limit && entries.hasNext()) {
+            Entry entry = entries.next();
+            results.add(new AccountBalance(entry.account.getAccountId().getUserName(), isChecking, entry.balanceCents));
+        }
+        return results;
+    }
+
+    /**
+     * Body of the indexer thread: re-indexes the queued accounts once per pass interval.
+     */
+    private void run() {
+        while (true) {
+            boolean closing = closed;
+            AbstractAccount account;
+            while ((account = queue.poll()) != null) {
+                // Cleared before the balance is read, so a write after the read queues the account again.
+                account.clearIndexQueued();
+                reindex(account);
+            }
+            if (closing) {
+                return;
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(PASS_INTERVAL_MILLIS));
+        }
+    }
+
+    /**
+     * Moves an account's entry to its current balance.
+     * 
+     * @param account the account
+     */
+    private void reindex(AbstractAccount account) {
+        long balanceCents = account.getRecordedBalanceCents();
+        Entry previous = account.getIndexEntry();
+        if (previous != null && previous.balanceCents == balanceCents) {
+            return;
+        }
+        NavigableSet<Entry> entries = entries(account instanceof CheckingAccount);
+        if (previous != null) {
+            entries.remove(previous);
+        }
+        Entry entry = new Entry(balanceCents, account.getLockOrder(), account);
+        entries.add(entry);
+        account.setIndexEntry(entry);
+    }
+
+    /**
+     * The indexed balance of one account, ordered by balance and then by the account's
+     * unique lock order.
+     */
+    static final class Entry implements Comparable<Entry> {
+        private final long balanceCents;
+        private final long order;
+        private final AbstractAccount account;
+
+        /**
+         * Constructs an entry.
+         * 
+         * @param balanceCents the indexed balance in cents
+         * @param order the account's lock order, or an extreme value for a range bound
+         * @param account the account, or null for a range bound
+         */
+        Entry(long balanceCents, long order, AbstractAccount account) {
+            this.balanceCents = balanceCents;
+            this.order = order;
+            this.account = account;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(Entry other) {
+            int byBalance = Long.compare(balanceCents, other.balanceCents);
+            return byBalance != 0 ? byBalance : Long.compare(order, other.order);
+        }
+    }
+}
@@ -1,51 +1,417 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Class representing a bank that manages multiple accounts.
+ * The account registry is safe to share between threads: lookups never block
+ * and account creation is an atomic create-if-absent operation.
+ * 
+ * Every account is also given a dense integer AccountId when it is registered. Callers that
+ * operate on the same account repeatedly resolve the ID once and then look the account up
+ * by ID, which indexes an array instead of hashing a username.
+ * 
+ * A bank can optionally be backed by a TransactionJournal. It is then rebuilt from the
+ * journal when constructed, and every account creation and account mutation is durable
+ * in the journal before it returns. Snapshots of a journaled bank are written next to the
+ * journal, and startup loads the latest snapshot and only replays the journal after it.
+ * 
+ * Transfers move money between accounts atomically: every account involved is locked,
+ * in the global account lock order so that concurrent transfers cannot deadlock, and
+ * either all legs of the transfer are applied or none are.
+ * 
+ * Reporting queries over balances are answered from a BalanceIndex, once enabled with
+ * {@link #enableBalanceIndex()}.
+ * 
+ * Daily compounding interest can be enabled with {@link #enableDailyInterest(DailyInterest)};
+ * each account then accrues it lazily, the next time it is read or mutated.
+ * 
+ * Checks can also be deposited through a CheckClearing pipeline, once enabled with
+ * {@link #enableCheckClearing}, which holds them as pending balance and settles the holds
+ * in batches.
  */
-public class Bank {
-    private Map<String, Account> accounts;
+public class Bank implements Closeable {
+    /** Suffix of the key of a user's checking account. */
+    public static final String CHECKING = "CHECKING";
+    /** Suffix of the key of a user's savings account. */
+    public static final String SAVING = "SAVING";
+    /**
+     * Largest number of legs of one transfer, on every bank. Each distinct account of a
+     * transfer adds a nested lock, so the limit also bounds the stack depth of locking, and
+     * it fits into one journal record.
+     */
+    public static final int MAX_TRANSFER_LEGS = Math.min(256, TransactionJournal.MAX_TRANSFER_LEGS);
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final ConcurrentMap<String, Account> accounts;
+    private final AccountIndex accountsById;
+    private final HistorySpillFile historySpill = new HistorySpillFile();
+    private final IdempotencyCache requestCache = new IdempotencyCache();
+    private final TransactionJournal journal;
+    private final Path snapshotPath;
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotScheduler;
+    private volatile DailyInterest dailyInterest;
+    private volatile BalanceIndex balanceIndex;
+    private volatile CheckClearing checkClearing;
 
     /**
      * Constructs a new bank with an empty account list.
      */
     public Bank() {
-        this.accounts = new HashMap<>();
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructs a new bank with an empty account list, with storage sized for a number of
+     * accounts so that bulk imports do not resize it.
+     * 
+     * @param expectedAccounts the number of accounts the bank is expected to hold
+     * @throws IllegalArgumentException if expectedAccounts is negative
+     */
+    public Bank(int expectedAccounts) {
+        if (expectedAccounts < 0) {
+            throw new IllegalArgumentException("Expected number of accounts cannot be negative");
+        }
+        this.accounts = newAccountMap(expectedAccounts);
+        this.accountsById = new AccountIndex(expectedAccounts);
+        this.journal = null;
+        this.snapshotPath = null;
+    }
+
+    /**
+     * Constructs a bank backed by a journal file, restoring the accounts from the latest
+     * snapshot, if any, and the journal records after it. The journal is created if it does
+     * not exist, and snapshots are kept in the same directory with a ".snapshot" suffix.
+     * 
+     * @param journalPath the journal file
+     * @throws IOException if the journal or snapshot cannot be read, or the journal cannot be opened
+     */
+    public Bank(Path journalPath) throws IOException {
+        this.accounts = newAccountMap(INITIAL_CAPACITY);
+        this.accountsById = new AccountIndex(INITIAL_CAPACITY);
+        this.snapshotPath = journalPath.resolveSibling(journalPath.getFileName() + ".snapshot");
+        this.journal = TransactionJournal.open(journalPath, this, BankSnapshot.read(snapshotPath), true);
+    }
+
+    /**
+     * Creates the account registry.
+     * 
+     * @param expectedAccounts the number of accounts to size the map for
+     * @return an empty concurrent map sized for the expected accounts and the available cores
+     */
+    private static ConcurrentMap<String, Account> newAccountMap(int expectedAccounts) {
+        return new ConcurrentHashMap<>(Math.max(expectedAccounts, INITIAL_CAPACITY), LOAD_FACTOR,
+                Runtime.getRuntime().availableProcessors());
     }
 
     /**
      * Creates a new account and adds it to the bank.
+     * If several threads race to create the same username, exactly one of them succeeds.
      * 
      * @param isChecking true for checking account, false for savings account
      * @param userName the username to associate with the account
      * @return true if account was created successfully, false if username already exists
      */
     public boolean createAccount(boolean isChecking, String userName) {
+        long startNanos = Metrics.start();
+        boolean created = addAccount(isChecking, userName);
+        if (!created) {
+            Metrics.reject(MeteredOperation.CREATE_ACCOUNT, RejectionReason.ACCOUNT_EXISTS);
+        }
+        Metrics.record(MeteredOperation.CREATE_ACCOUNT, startNanos);
+        return created;
+    }
+
+    /**
+     * Creates a new account, at most once per request ID.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username to associate with the account
+     * @param requestId the client's request ID, unique within the bank, or null to create unconditionally
+     * @return true if account was created successfully, false if username already exists;
+     *         a retry returns the original result
+     * @throws IllegalArgumentException if the request ID was used for another username or operation
+     */
+    public boolean createAccount(boolean isChecking, String userName, String requestId) {
+        return requestCache.execute(requestId, userName, "createAccount", () -> createAccount(isChecking, userName));
+    }
+
+    /**
+     * Returns the cache that deduplicates mutations carrying a request ID. Request IDs are
+     * shared by all accounts of the bank.
+     * 
+     * @return the request cache
+     */
+    public IdempotencyCache getIdempotencyCache() {
+        return requestCache;
+    }
+
+    /**
+     * Creates a new account and adds it to the registry and, if enabled, the journal.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username to associate with the account
+     * @return true if account was created successfully, false if username already exists
+     */
+    private boolean addAccount(boolean isChecking, String userName) {
         if (accounts.containsKey(userName)) {
             return false;
         }
 
-        Account account;
+        if (!insertAccount(isChecking, userName, newAccount(isChecking), 0)) {
+            return false;
+        }
+        if (journal != null) {
+            journal.awaitDurableOrDefer(journal.getAppendedPosition());
+        }
+        return true;
+    }
 
-        if (isChecking) {
-            account = new CheckingAccount();
+    /**
+     * Adds an account to the registry unless the username is taken, checking and inserting
+     * with a single hash lookup, and journals its creation and opening balance, if any.
+     * Does not wait for the journal.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username to associate with the account
+     * @param account the new account
+     * @param openingCents the balance the account was constructed with, in cents
+     * @return true if the account was added, false if the username already exists
+     */
+    private boolean insertAccount(boolean isChecking, String userName, AbstractAccount account, long openingCents) {
+        Account added;
+        if (journal == null) {
+            added = accounts.computeIfAbsent(userName, key -> register(key, account));
         } else {
-            account = new SavingsAccount();
+            // The creation record is appended before the account becomes visible, so no
+            // mutation of the account can reach the journal ahead of it. The opening balance
+            // is journaled as a deposit under the account lock: appendCreate already exposes
+            // the account to snapshots, which capture it under the same lock, so a snapshot
+            // sees the opening balance only together with a position past its deposit record.
+            added = accounts.computeIfAbsent(userName, key -> {
+                synchronized (account) {
+                    journal.appendCreate(account, isChecking, key);
+                    if (openingCents != 0) {
+                        account.journal(TransactionJournal.DEPOSIT, openingCents);
+                    }
+                }
+                return register(key, account);
+            });
+        }
+        if (added != account) {
+            return false;
+        }
+        bindDailyInterest(account);
+        BalanceIndex index = balanceIndex;
+        if (index != null) {
+            account.bindBalanceIndex(index);
         }
-
-        addAccount(userName, account);
         return true;
     }
 
     /**
-     * Adds an account to the bank.
+     * Creates accounts in bulk, in parallel. Each account is created like
+     * {@link #createAccount(boolean, String)}, except that accounts start with their exact
+     * opening balance in cents, and a journaled bank waits for the journal once, at the end,
+     * instead of once per account.
+     * 
+     * A username that already exists, in the bank or earlier in the specs, is detected by
+     * the same hash lookup that inserts new accounts and reported as a duplicate. For large
+     * imports, construct the bank with {@link #Bank(int)} so that storage is sized up front.
+     * 
+     * @param specs the accounts to create
+     * @return the number of accounts created and the duplicate usernames
+     */
+    public ImportSummary createAccounts(Stream<AccountSpec> specs) {
+        long startNanos = System.nanoTime();
+        LongAdder created = new LongAdder();
+        Queue<String> duplicates = new ConcurrentLinkedQueue<>();
+        specs.parallel().forEach(spec -> {
+            if (insertAccount(spec.isChecking(), spec.getUserName(), spec.newAccount(), spec.getOpeningCents())) {
+                created.increment();
+            } else {
+                duplicates.add(spec.getUserName());
+            }
+        });
+        if (journal != null) {
+            journal.awaitDurable(journal.getAppendedPosition());
+        }
+        return new ImportSummary(created.sum(), new ArrayList<>(duplicates), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Imports accounts from a UTF-8 text file with one account per line, in the form
+     * "CHECKING,alice,100.00" or "SAVING,bob". As in the interactive menus, each account is
+     * registered under the user followed by its type, and the opening balance defaults to
+     * zero. Blank lines and lines starting with '#' are ignored. The file is split and
+     * parsed in parallel and the accounts are created with {@link #createAccounts(Stream)}.
+     * 
+     * A line that is not a valid account line does not stop the import: it is skipped and
+     * reported in the summary with its line number, and every valid line is still imported.
+     * 
+     * @param file the account file
+     * @return the number of accounts created, the duplicate usernames and the invalid lines
+     * @throws IOException if the file cannot be read
+     */
+    public ImportSummary importAccounts(Path file) throws IOException {
+        Queue<String> invalidLines = new ConcurrentLinkedQueue<>();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            Stream<AccountSpec> specs = StreamSupport.stream(new NumberedLines(reader), false)
+                    .filter(line -> !line.text.isBlank() && line.text.charAt(0) != '#')
+                    .map(line -> {
+                        try {
+                            return AccountSpec.parse(line.text);
+                        } catch (IllegalArgumentException e) {
+                            invalidLines.add("line " + line.number + ": " + e.getMessage());
+                            return null;
+                        }
+                    })
+                    .filter(Objects::nonNull);
+            ImportSummary summary = createAccounts(specs);
+            return new ImportSummary(summary.getCreatedCount(), summary.getDuplicateUserNames(),
+                    new ArrayList<>(invalidLines), summary.getElapsedNanos());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * One line of an imported file with its line number.
+     */
+    private static final class NumberedLine {
+        private final long number;
+        private final String text;
+
+        /**
+         * Constructs a numbered line.
+         * 
+         * @param number the line number, starting at 1
+         * @param text the content of the line
+         */
+        NumberedLine(long number, String text) {
+            this.number = number;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Reads the lines of a file and numbers them. Parallel streams split it by reading
+     * batches of lines on one thread at a time, so lines are numbered in file order while
+     * the rest of the pipeline runs in parallel.
+     */
+    private static final class NumberedLines extends Spliterators.AbstractSpliterator<NumberedLine> {
+        private final BufferedReader reader;
+        private long lineNumber;
+
+        /**
+         * Constructs a spliterator over the lines of a reader.
+         * 
+         * @param reader the reader
+         */
+        NumberedLines(BufferedReader reader) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.reader = reader;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean tryAdvance(Consumer<? super NumberedLine> action) {
+            String line;
+            try {
+                line = reader.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (line == null) {
+                return false;
+            }
+            action.accept(new NumberedLine(++lineNumber, line));
+            return true;
+        }
+    }
+
+    /**
+     * Creates an empty account of the requested type.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @return the new account
+     */
+    static AbstractAccount newAccount(boolean isChecking) {
+        if (isChecking) {
+            return new CheckingAccount();
+        } else {
+            return new SavingsAccount();
+        }
+    }
+
+    /**
+     * Assigns the next account ID to an account that is about to be added to the registry.
      * 
      * @param userName the username to associate with the account
      * @param account the account to add
+     * @return the account
+     */
+    private AbstractAccount register(String userName, AbstractAccount account) {
+        account.bindAccountId(new AccountId(accountsById.add(account), userName));
+        account.bindHistorySpill(historySpill);
+        account.bindRequestCache(requestCache);
+        return account;
+    }
+
+    /**
+     * Starts daily interest on an account if the bank has it enabled. Called after the
+     * account is added to the registry, so that an account created while daily interest is
+     * being enabled is bound by at least one of the two.
+     * 
+     * @param account the account
      */
-    private void addAccount(String userName, Account account) {
-        accounts.put(userName, account);
+    private void bindDailyInterest(AbstractAccount account) {
+        DailyInterest interest = dailyInterest;
+        if (interest != null) {
+            BigDecimal rate = interest.getDailyRate(account instanceof CheckingAccount);
+            if (rate.signum() > 0) {
+                account.bindDailyInterest(interest, rate);
+            }
+        }
+    }
+
+    /**
+     * Registers an account restored from a snapshot or the journal.
+     * 
+     * @param userName the username associated with the account
+     * @param account the restored account
+     */
+    void restoreAccount(String userName, AbstractAccount account) {
+        accounts.put(userName, register(userName, account));
     }
 
     /**
@@ -55,12 +421,639 @@ public class Bank {
      * @return the account if found, null otherwise
      */
     public Account getAccount(String userName) {
-        if (!accounts.containsKey(userName)) {
-            System.out.println("Account not found");
-            return null;
+        long startNanos = Metrics.start();
+        Account account = accounts.get(userName);
+        if (account == null) {
+            TransactionEvents.publish(TransactionEventType.ACCOUNT_NOT_FOUND, userName, 0, 0, null);
+            Metrics.reject(MeteredOperation.GET_ACCOUNT, RejectionReason.ACCOUNT_NOT_FOUND);
         }
-        return accounts.get(userName);
+        Metrics.record(MeteredOperation.GET_ACCOUNT, startNanos);
+        return account;
     }
 
-    
+    /**
+     * Resolves the ID of an account, for repeated lookups with {@link #getAccount(AccountId)}.
+     * 
+     * @param userName the username associated with the account
+     * @return the account ID if found, null otherwise
+     */
+    public AccountId getAccountId(String userName) {
+        AbstractAccount account = (AbstractAccount) getAccount(userName);
+        return account == null ? null : account.getAccountId();
+    }
+
+    /**
+     * Retrieves an account by its ID without building or hashing a key.
+     * 
+     * @param accountId an ID previously resolved from this bank
+     * @return the account
+     * @throws IllegalArgumentException if the ID was not issued by this bank
+     */
+    public Account getAccount(AccountId accountId) {
+        long startNanos = Metrics.start();
+        AbstractAccount account = accountsById.get(accountId.getValue());
+        if (account == null || account.getAccountId() != accountId) {
+            Metrics.reject(MeteredOperation.GET_ACCOUNT, RejectionReason.ACCOUNT_NOT_FOUND);
+            throw new IllegalArgumentException("Unknown account ID " + accountId);
+        }
+        Metrics.record(MeteredOperation.GET_ACCOUNT, startNanos);
+        return account;
+    }
+
+    /**
+     * Moves money from one account to another atomically.
+     * 
+     * @param fromUserName the username of the account to debit
+     * @param toUserName the username of the account to credit
+     * @param amount the amount to move
+     * @return true if the transfer was applied, false if the source account has insufficient funds
+     * @throws IllegalArgumentException if the amount is invalid or an account does not exist
+     */
+    public boolean transfer(String fromUserName, String toUserName, double amount) {
+        return transfer(new TransferLeg(fromUserName, toUserName, amount));
+    }
+
+    /**
+     * Moves an exact amount of cents from one account to another atomically.
+     * 
+     * @param fromUserName the username of the account to debit
+     * @param toUserName the username of the account to credit
+     * @param amountCents the amount to move in cents
+     * @return true if the transfer was applied, false if the source account has insufficient funds
+     * @throws IllegalArgumentException if the amount is negative or an account does not exist
+     */
+    public boolean transferCents(String fromUserName, String toUserName, long amountCents) {
+        return transfer(TransferLeg.ofCents(fromUserName, toUserName, amountCents));
+    }
+
+    /**
+     * Moves an exact amount of cents from one account to another atomically, at most once per request ID.
+     * 
+     * @param fromUserName the username of the account to debit
+     * @param toUserName the username of the account to credit
+     * @param amountCents the amount to move in cents
+     * @param requestId the client's request ID, unique within the bank, or null to transfer unconditionally
+     * @return true if the transfer was applied, false if the source account has insufficient funds;
+     *         a retry returns the original result
+     * @throws IllegalArgumentException if the amount is negative, an account does not exist, or
+     *         the request ID was used for another source account or operation
+     */
+    public boolean transferCents(String fromUserName, String toUserName, long amountCents, String requestId) {
+        return transfer(requestId, TransferLeg.ofCents(fromUserName, toUserName, amountCents));
+    }
+
+    /**
+     * Reads the balances of a user's checking and savings accounts as of one point in time,
+     * without waiting for writers unless they keep racing with the read. A concurrent
+     * transfer between the two accounts is seen either completely or not at all.
+     * 
+     * @param userName the user owning the accounts
+     * @return the balances; the balance of an account the user does not have is null
+     */
+    public UserBalances getUserBalances(String userName) {
+        AbstractAccount checking = (AbstractAccount) accounts.get(userName + CHECKING);
+        AbstractAccount savings = (AbstractAccount) accounts.get(userName + SAVING);
+        if (checking != null && savings != null) {
+            long[] balancesCents = AbstractAccount.readBalancesCents(checking, savings);
+            return new UserBalances(Money.toBigDecimal(balancesCents[0]), Money.toBigDecimal(balancesCents[1]));
+        }
+        return new UserBalances(checking == null ? null : checking.getBalance(),
+                savings == null ? null : savings.getBalance());
+    }
+
+    /**
+     * Moves money between a user's own checking and savings accounts atomically.
+     * 
+     * @param userName the user owning both accounts
+     * @param fromChecking true to move from checking to savings, false to move from savings to checking
+     * @param amount the amount to move
+     * @return true if the transfer was applied, false if the source account has insufficient funds
+     * @throws IllegalArgumentException if the amount is invalid or the user does not have both accounts
+     */
+    public boolean transferBetweenOwnAccounts(String userName, boolean fromChecking, double amount) {
+        String checkingKey = userName + CHECKING;
+        String savingsKey = userName + SAVING;
+        return fromChecking
+                ? transfer(checkingKey, savingsKey, amount)
+                : transfer(savingsKey, checkingKey, amount);
+    }
+
+    /**
+     * Moves an exact amount of cents between a user's own checking and savings accounts atomically.
+     * 
+     * @param userName the user owning both accounts
+     * @param fromChecking true to move from checking to savings, false to move from savings to checking
+     * @param amountCents the amount to move in cents
+     * @return true if the transfer was applied, false if the source account has insufficient funds
+     * @throws IllegalArgumentException if the amount is negative or the user does not have both accounts
+     */
+    public boolean transferBetweenOwnAccountsCents(String userName, boolean fromChecking, long amountCents) {
+        String checkingKey = userName + CHECKING;
+        String savingsKey = userName + SAVING;
+        return fromChecking
+                ? transferCents(checkingKey, savingsKey, amountCents)
+                : transferCents(savingsKey, checkingKey, amountCents);
+    }
+
+    /**
+     * Applies several transfer legs as one atomic transfer. The locks of all accounts involved
+     * are taken once, legs are applied in order, so a leg may spend money credited by an
+     * earlier one, and if any leg lacks funds every leg already applied is undone.
+     * On a journaled bank the whole transfer is a single journal record.
+     * 
+     * @param legs the legs of the transfer
+     * @return true if every leg was applied, false if none was because a source account has insufficient funds
+     * @throws IllegalArgumentException if there are no legs, more than {@link #MAX_TRANSFER_LEGS}
+     *         legs, or an account does not exist
+     * @throws ArithmeticException if a balance would overflow, in which case no leg is applied
+     */
+    public boolean transfer(TransferLeg... legs) {
+        return transfer(null, legs);
+    }
+
+    /**
+     * Applies several transfer legs as one atomic transfer, at most once per request ID.
+     * 
+     * @param requestId the client's request ID, unique within the bank, or null to transfer unconditionally
+     * @param legs the legs of the transfer
+     * @return true if every leg was applied, false if none was because a source account has insufficient funds;
+     *         a retry returns the original result
+     * @throws IllegalArgumentException if there are no legs, more than {@link #MAX_TRANSFER_LEGS}
+     *         legs, an account does not exist, or the request ID was used for another source account
+     *         or operation
+     * @throws ArithmeticException if a balance would overflow, in which case no leg is applied
+     * @see #transfer(TransferLeg...)
+     */
+    public boolean transfer(String requestId, TransferLeg... legs) {
+        String source = legs.length == 0 ? null : legs[0].getFromUserName();
+        return requestCache.execute(requestId, source, "transfer", () -> applyTransfer(legs));
+    }
+
+    /**
+     * Applies the legs of a transfer atomically.
+     * 
+     * @param legs the legs of the transfer
+     * @return true if every leg was applied, false if none was
+     */
+    private boolean applyTransfer(TransferLeg[] legs) {
+        if (legs.length == 0) {
+            throw new IllegalArgumentException("Transfer must have at least one leg");
+        }
+        if (legs.length > MAX_TRANSFER_LEGS) {
+            throw new IllegalArgumentException("Transfer cannot have more than " + MAX_TRANSFER_LEGS + " legs");
+        }
+
+        AbstractAccount[] sources = new AbstractAccount[legs.length];
+        AbstractAccount[] targets = new AbstractAccount[legs.length];
+        long[] cents = new long[legs.length];
+        for (int leg = 0; leg < legs.length; leg++) {
+            sources[leg] = requireAccount(legs[leg].getFromUserName());
+            targets[leg] = requireAccount(legs[leg].getToUserName());
+            cents[leg] = legs[leg].getAmountCents();
+        }
+
+        long[] journalPosition = new long[1];
+        int failedLeg = lockAndApply(lockOrdered(sources, targets), 0, sources, targets, cents, journalPosition);
+        if (failedLeg >= 0) {
+            TransactionEvents.publish(TransactionEventType.INSUFFICIENT_FUNDS,
+                    sources[failedLeg].getAccountTypeName(), cents[failedLeg], 0, null);
+            return false;
+        }
+
+        if (journalPosition[0] != 0) {
+            journal.awaitDurableOrDefer(journalPosition[0]);
+        }
+        for (int leg = 0; leg < legs.length; leg++) {
+            TransactionEvents.publish(TransactionEventType.TRANSFERRED_OUT, sources[leg].getAccountTypeName(), cents[leg], 0, null);
+            TransactionEvents.publish(TransactionEventType.TRANSFERRED_IN, targets[leg].getAccountTypeName(), cents[leg], 0, null);
+        }
+        return true;
+    }
+
+    /**
+     * Looks up an account that a transfer requires.
+     * 
+     * @param userName the username associated with the account
+     * @return the account
+     * @throws IllegalArgumentException if there is no such account
+     */
+    AbstractAccount requireAccount(String userName) {
+        AbstractAccount account = (AbstractAccount) getAccount(userName);
+        if (account == null) {
+            throw new IllegalArgumentException("Account not found: " + userName);
+        }
+        return account;
+    }
+
+    /**
+     * Collects the distinct accounts of a transfer in ascending lock order.
+     * 
+     * @param sources the source account of each leg
+     * @param targets the target account of each leg
+     * @return every account involved, each once, sorted by lock order
+     */
+    private static AbstractAccount[] lockOrdered(AbstractAccount[] sources, AbstractAccount[] targets) {
+        AbstractAccount[] involved = Arrays.copyOf(sources, sources.length + targets.length);
+        System.arraycopy(targets, 0, involved, sources.length, targets.length);
+        Arrays.sort(involved, Comparator.comparingLong(AbstractAccount::getLockOrder));
+
+        int distinct = 0;
+        for (AbstractAccount account : involved) {
+            if (distinct == 0 || involved[distinct - 1] != account) {
+                involved[distinct++] = account;
+            }
+        }
+        return Arrays.copyOf(involved, distinct);
+    }
+
+    /**
+     * Locks the accounts from the given index on, in order, then applies the transfer.
+     * 
+     * @param locked the accounts to lock, in lock order
+     * @param index the index of the next account to lock
+     * @param sources the source account of each leg
+     * @param targets the target account of each leg
+     * @param cents the amount of each leg in cents
+     * @param journalPosition receives the journal position to wait for, or 0 if nothing was journaled
+     * @return the index of the leg that lacked funds, or -1 if the transfer was applied
+     */
+    private int lockAndApply(AbstractAccount[] locked, int index, AbstractAccount[] sources,
+            AbstractAccount[] targets, long[] cents, long[] journalPosition) {
+        if (index < locked.length) {
+            synchronized (locked[index]) {
+                return lockAndApply(locked, index + 1, sources, targets, cents, journalPosition);
+            }
+        }
+
+        for (AbstractAccount account : locked) {
+            account.accrueDailyInterest();
+        }
+
+        // Optimistic balance readers see either all legs or none, including legs that are undone.
+        for (AbstractAccount account : locked) {
+            account.beginWrite();
+        }
+        try {
+            int failedLeg = applyLegs(sources, targets, cents);
+            if (failedLeg >= 0) {
+                return failedLeg;
+            }
+            journalPosition[0] = journalTransfer(sources, targets, cents);
+        } finally {
+            for (AbstractAccount account : locked) {
+                account.endWrite();
+            }
+        }
+
+        for (int leg = 0; leg < cents.length; leg++) {
+            sources[leg].recordHistory(TransactionEventType.TRANSFERRED_OUT, cents[leg], 0);
+            targets[leg].recordHistory(TransactionEventType.TRANSFERRED_IN, cents[leg], 0);
+        }
+        return -1;
+    }
+
+    /**
+     * Appends an applied transfer to the journal, if any, reverting every leg if the append
+     * fails. Must be called while holding the locks of all accounts involved.
+     * 
+     * @param sources the source account of each leg
+     * @param targets the target account of each leg
+     * @param cents the amount of each leg in cents
+     * @return the journal position to wait for, or 0 if the bank is not journaled
+     */
+    private long journalTransfer(AbstractAccount[] sources, AbstractAccount[] targets, long[] cents) {
+        if (journal == null) {
+            return 0;
+        }
+        int[] fromOrdinals = new int[cents.length];
+        int[] toOrdinals = new int[cents.length];
+        for (int leg = 0; leg < cents.length; leg++) {
+            fromOrdinals[leg] = sources[leg].getJournalOrdinal();
+            toOrdinals[leg] = targets[leg].getJournalOrdinal();
+        }
+        try {
+            return journal.appendTransfer(fromOrdinals, toOrdinals, cents);
+        } catch (RuntimeException e) {
+            undo(sources, targets, cents, cents.length);
+            throw e;
+        }
+    }
+
+    /**
+     * Applies the legs of a transfer in order, reverting them all if one lacks funds or
+     * overflows. Must be called while holding the locks of all accounts involved.
+     * 
+     * @param sources the source account of each leg
+     * @param targets the target account of each leg
+     * @param cents the amount of each leg in cents
+     * @return the index of the leg that lacked funds, or -1 if every leg was applied
+     * @throws ArithmeticException if a balance would overflow
+     */
+    private static int applyLegs(AbstractAccount[] sources, AbstractAccount[] targets, long[] cents) {
+        int leg = 0;
+        try {
+            for (; leg < cents.length; leg++) {
+                if (!sources[leg].hasFunds(cents[leg])) {
+                    undo(sources, targets, cents, leg);
+                    return leg;
+                }
+                sources[leg].debit(cents[leg]);
+                try {
+                    targets[leg].credit(cents[leg]);
+                } catch (ArithmeticException e) {
+                    sources[leg].credit(cents[leg]);
+                    throw e;
+                }
+            }
+        } catch (ArithmeticException e) {
+            undo(sources, targets, cents, leg);
+            throw e;
+        }
+        return -1;
+    }
+
+    /**
+     * Reverts the first legs of a transfer, last leg first. Must be called while holding the locks of all accounts involved.
+     * 
+     * @param sources the source account of each leg
+     * @param targets the target account of each leg
+     * @param cents the amount of each leg in cents
+     * @param appliedLegs the number of legs that were applied
+     */
+    private static void undo(AbstractAccount[] sources, AbstractAccount[] targets, long[] cents, int appliedLegs) {
+        for (int leg = appliedLegs - 1; leg >= 0; leg--) {
+            targets[leg].debit(cents[leg]);
+            sources[leg].credit(cents[leg]);
+        }
+    }
+
+    /**
+     * Adds interest to every account in the bank, spreading the work across cores with fork-join.
+     * The run works on the set of accounts that exist when it starts: each of them is credited
+     * exactly once, atomically with respect to its other operations, while normal transactions
+     * continue. Accounts created during the run are not included. Nothing is printed per account.
+     * 
+     * @return the number of accounts credited and the total interest per account type
+     */
+    public InterestSummary accrueInterest() {
+        long startNanos = System.nanoTime();
+        AbstractAccount[] view = accounts.values().toArray(new AbstractAccount[0]);
+        InterestAccrualTask task = new InterestAccrualTask(view, 0, view.length);
+        ForkJoinPool.commonPool().invoke(task);
+        if (journal != null) {
+            journal.awaitDurable(journal.getAppendedPosition());
+        }
+        return new InterestSummary(task.checkingAccounts, task.savingsAccounts,
+                task.checkingInterestCents.movePointLeft(Money.SCALE),
+                task.savingsInterestCents.movePointLeft(Money.SCALE),
+                System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Enables daily compounding interest for every existing and future account. Accounts
+     * start accruing today, or, on a journaled bank that had daily interest enabled before
+     * a restart, continue from the day they last accrued, at the rates given here. Account
+     * types whose rate is zero do not accrue. Can only be called once.
+     * 
+     * @param dailyInterest the rates per account type and the clock
+     * @throws IllegalStateException if daily interest is already enabled
+     */
+    public void enableDailyInterest(DailyInterest dailyInterest) {
+        synchronized (this) {
+            if (this.dailyInterest != null) {
+                throw new IllegalStateException("Daily interest is already enabled");
+            }
+            this.dailyInterest = dailyInterest;
+        }
+        for (Account account : accounts.values()) {
+            bindDailyInterest((AbstractAccount) account);
+        }
+        if (journal != null) {
+            journal.awaitDurable(journal.getAppendedPosition());
+        }
+    }
+
+    /**
+     * Starts maintaining a balance index over every existing and future account, which
+     * answers {@link #findTopBalances} and {@link #findBalancesInRange} without walking
+     * all accounts. The index is updated asynchronously by a background thread, so the
+     * queries see balances as of a few milliseconds before they run. Calling it again has no effect.
+     */
+    public void enableBalanceIndex() {
+        BalanceIndex index;
+        synchronized (this) {
+            if (balanceIndex != null) {
+                return;
+            }
+            index = new BalanceIndex();
+            balanceIndex = index;
+        }
+        for (Account account : accounts.values()) {
+            ((AbstractAccount) account).bindBalanceIndex(index);
+        }
+    }
+
+    /**
+     * Returns the accounts of a type with the highest balances, e.g. the top 100 savings balances.
+     * 
+     * @param isChecking true for checking accounts, false for savings accounts
+     * @param count the maximum number of accounts to return
+     * @return the accounts, highest balance first
+     * @throws IllegalStateException if the balance index is not enabled
+     * @throws IllegalArgumentException if count is negative
+     */
+    public List<AccountBalance> findTopBalances(boolean isChecking, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count cannot be negative");
+        }
+        return requireBalanceIndex().top(isChecking, count);
+    }
+
+    /**
+     * Returns the accounts of a type whose balance lies in a range, e.g. all accounts under
+     * a given amount.
+     * 
+     * @param isChecking true for checking accounts, false for savings accounts
+     * @param fromCents the lowest balance in cents, inclusive
+     * @param toCents the highest balance in cents, inclusive
+     * @param limit the maximum number of accounts to return
+     * @return the accounts, lowest balance first
+     * @throws IllegalStateException if the balance index is not enabled
+     * @throws IllegalArgumentException if limit is negative
+     */
+    public List<AccountBalance> findBalancesInRange(boolean isChecking, long fromCents, long toCents, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit cannot be negative");
+        }
+        return requireBalanceIndex().range(isChecking, fromCents, toCents, limit);
+    }
+
+    /**
+     * Returns the balance index.
+     * 
+     * @return the balance index
+     * @throws IllegalStateException if the balance index is not enabled
+     */
+    private BalanceIndex requireBalanceIndex() {
+        BalanceIndex index = balanceIndex;
+        if (index == null) {
+            throw new IllegalStateException("Balance index is not enabled");
+        }
+        return index;
+    }
+
+    /**
+     * Starts clearing checks deposited with {@link #depositCheckForClearing}. Each check is
+     * held as pending balance of its account for at least the hold time, and a settlement
+     * every settlement interval makes all due holds available at once. Pending balances
+     * recovered from the journal or a snapshot are held again for one hold time. Can only
+     * be called once.
+     * 
+     * @param holdTime how long a check is held before it can be settled
+     * @param settlementInterval time between settlements
+     * @param unit the unit of both times
+     * @throws IllegalArgumentException if a time is negative or the interval is not positive
+     * @throws IllegalStateException if check clearing is already enabled
+     */
+    public synchronized void enableCheckClearing(long holdTime, long settlementInterval, TimeUnit unit) {
+        if (holdTime < 0) {
+            throw new IllegalArgumentException("Hold time cannot be negative");
+        }
+        if (settlementInterval <= 0) {
+            throw new IllegalArgumentException("Settlement interval must be positive");
+        }
+        if (checkClearing != null) {
+            throw new IllegalStateException("Check clearing is already enabled");
+        }
+        List<CheckingAccount> recovered = new ArrayList<>();
+        for (Account account : accounts.values()) {
+            if (account instanceof CheckingAccount && ((CheckingAccount) account).getPendingCents() != 0) {
+                recovered.add((CheckingAccount) account);
+            }
+        }
+        checkClearing = new CheckClearing(unit.toNanos(holdTime), unit.toNanos(settlementInterval), journal, recovered);
+    }
+
+    /**
+     * Deposits a check through check clearing. The check is screened for a duplicate check
+     * number and held asynchronously; the amount becomes part of the account's pending
+     * balance, and of its available balance only when the hold is settled.
+     * 
+     * @param userName the username associated with the checking account
+     * @param cents the amount of the check, in cents
+     * @param checkNumber the check number
+     * @return a future completed with the result once the check is screened and, on a
+     *         journaled bank, durable: applied if the check is held, or rejected with
+     *         DUPLICATE_CHECK or ACCOUNT_NOT_FOUND, each with the available balance
+     * @throws IllegalArgumentException if the amount is negative or the account is not a checking account
+     * @throws IllegalStateException if check clearing is not enabled or the bank is closed
+     */
+    public CompletableFuture<OperationResult> depositCheckForClearing(String userName, long cents, int checkNumber) {
+        if (cents < 0) {
+            Metrics.reject(MeteredOperation.DEPOSIT_CHECK, RejectionReason.NEGATIVE_AMOUNT);
+            throw new IllegalArgumentException("Deposit amount cannot be negative");
+        }
+        CheckClearing clearing = checkClearing;
+        if (clearing == null) {
+            throw new IllegalStateException("Check clearing is not enabled");
+        }
+        Account account = getAccount(userName);
+        if (account == null) {
+            return CompletableFuture.completedFuture(OperationResult.rejected(RejectionReason.ACCOUNT_NOT_FOUND, 0));
+        }
+        if (!(account instanceof CheckingAccount)) {
+            throw new IllegalArgumentException("Not a checking account: " + userName);
+        }
+        return clearing.submit((CheckingAccount) account, cents, checkNumber);
+    }
+
+    /**
+     * Writes a snapshot of all accounts while other threads keep operating on them.
+     * Snapshots are written one at a time, so a manual snapshot that overlaps a periodic one
+     * waits for it instead of writing the same temporary file.
+     * 
+     * @return the number of accounts in the snapshot
+     * @throws IOException if the snapshot cannot be written
+     * @throws IllegalStateException if the bank has no journal
+     */
+    public int snapshot() throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("Snapshots require a journaled bank");
+        }
+        // A lock of its own rather than the bank's monitor, which close holds while it waits
+        // for the periodic snapshot task to finish.
+        synchronized (snapshotLock) {
+            return BankSnapshot.write(journal, snapshotPath);
+        }
+    }
+
+    /**
+     * Starts writing a snapshot at a fixed interval on a background thread.
+     * A failed snapshot is reported and retried at the next interval.
+     * 
+     * @param interval the time between snapshots
+     * @param unit the unit of the interval
+     * @throws IllegalStateException if the bank has no journal or snapshots are already scheduled
+     */
+    public synchronized void startPeriodicSnapshots(long interval, TimeUnit unit) {
+        if (journal == null) {
+            throw new IllegalStateException("Snapshots require a journaled bank");
+        }
+        if (snapshotScheduler != null) {
+            throw new IllegalStateException("Periodic snapshots are already running");
+        }
+
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bank-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                // Also catches failures of a closed or failed journal: an exception escaping
+                // the task would silently cancel every later snapshot.
+                System.err.println("Snapshot failed: " + e);
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Stops periodic snapshots and check clearing, then flushes and closes the journal, if the bank has one,
+     * deletes the spilled transaction history and stops the balance index, if enabled.
+     * 
+     * @throws IOException if the journal cannot be flushed or closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (snapshotScheduler != null) {
+                snapshotScheduler.shutdown();
+                try {
+                    snapshotScheduler.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                snapshotScheduler = null;
+            }
+        }
+        // Clearing appends to the journal, so it stops first.
+        if (checkClearing != null) {
+            checkClearing.close();
+        }
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } finally {
+            try {
+                historySpill.close();
+            } finally {
+                if (balanceIndex != null) {
+                    balanceIndex.close();
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,349 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Microbenchmark harness for Account and Bank operations.
+ * 
+ * Each benchmark is run for every combination of thread count, account count and check
+ * history size: a number of warmup iterations, then measured iterations of a fixed duration.
+ * With more than one thread, all threads work on the same account, so account operations
+ * are measured under contention. For every benchmark the harness reports throughput,
+ * average time per operation and, like a GC profiler, bytes allocated per operation and
+ * the garbage collections that ran during measurement.
+ * 
+ * Usage: java BankBenchmark [--threads 1,4] [--accounts 1000,1000000] [--checks 0,100000]
+ *        [--warmup 3] [--iterations 5] [--time 1000] [--filter name] [--metrics false]
+ * 
+ * With "--metrics true" the operations record Metrics while they run, which measures the
+ * per-call overhead of the instrumentation.
+ */
+public class BankBenchmark {
+    private static final double AMOUNT = 0.01;
+    private static final String AMOUNT_TEXT = "1234.56";
+
+    private static volatile long sink;
+
+    private int[] threadCounts = {1, Runtime.getRuntime().availableProcessors()};
+    private int[] accountCounts = {1000, 100000};
+    private int[] checkHistorySizes = {0, 100000};
+    private int warmupIterations = 3;
+    private int measuredIterations = 5;
+    private long iterationMillis = 1000;
+    private String filter = "";
+
+    /**
+     * A single benchmarked operation.
+     */
+    private interface Operation {
+        /**
+         * Performs the operation once.
+         * 
+         * @param random the calling thread's random source
+         * @param sequence a number unique to this invocation
+         * @return a value derived from the result, so the operation cannot be optimized away
+         */
+        long run(ThreadLocalRandom random, long sequence);
+    }
+
+    /**
+     * The state a benchmark operates on, built once per parameter combination.
+     */
+    private static final class Fixture {
+        private final Bank bank;
+        private final String[] keys;
+        private final AccountId[] ids;
+        private final CheckingAccount checkingAccount;
+        private final SavingsAccount savingsAccount;
+        private final AtomicLong sequence = new AtomicLong();
+
+        /**
+         * Builds a bank with the given number of accounts and a checking account with the
+         * given number of processed checks.
+         * 
+         * @param accountCount the number of accounts in the bank
+         * @param checkHistorySize the number of checks already processed by the checking account
+         */
+        Fixture(int accountCount, int checkHistorySize) {
+            bank = new Bank();
+            keys = new String[accountCount];
+            ids = new AccountId[accountCount];
+            for (int i = 0; i < accountCount; i++) {
+                keys[i] = "user" + i + (i % 2 == 0 ? BankingSystem.CHECKING : BankingSystem.SAVING);
+                bank.createAccount(i % 2 == 0, keys[i]);
+                ids[i] = bank.getAccountId(keys[i]);
+            }
+            checkingAccount = new CheckingAccount(1_000_000_000.00);
+            savingsAccount = new SavingsAccount(1_000_000_000.00);
+            for (int check = 0; check < checkHistorySize; check++) {
+                checkingAccount.depositCheck(AMOUNT, check);
+            }
+            sequence.set(checkHistorySize);
+        }
+    }
+
+    /**
+     * Runs the benchmarks.
+     * 
+     * @param args benchmark options, see the class documentation
+     * @throws InterruptedException if interrupted while waiting for benchmark threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        BankBenchmark benchmark = new BankBenchmark();
+        benchmark.parseOptions(args);
+        benchmark.runAll();
+    }
+
+    /**
+     * Parses command line options.
+     * 
+     * @param args the command line arguments
+     * @throws IllegalArgumentException if an option is unknown or has no value
+     */
+    private void parseOptions(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--threads":
+                    threadCounts = parseList(value);
+                    break;
+                case "--accounts":
+                    accountCounts = parseList(value);
+                    break;
+                case "--checks":
+                    checkHistorySizes = parseList(value);
+                    break;
+                case "--warmup":
+                    warmupIterations = Integer.parseInt(value);
+                    break;
+                case "--iterations":
+                    measuredIterations = Integer.parseInt(value);
+                    break;
+                case "--time":
+                    iterationMillis = Long.parseLong(value);
+                    break;
+                case "--filter":
+                    filter = value;
+                    break;
+                case "--metrics":
+                    Metrics.setEnabled(Boolean.parseBoolean(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of integers.
+     * 
+     * @param value the list
+     * @return the parsed integers
+     */
+    private static int[] parseList(String value) {
+        String[] parts = value.split(",");
+        int[] numbers = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            numbers[i] = Integer.parseInt(parts[i].trim());
+        }
+        return numbers;
+    }
+
+    /**
+     * Runs every benchmark for every parameter combination and prints the results.
+     * 
+     * @throws InterruptedException if interrupted while waiting for benchmark threads
+     */
+    private void runAll() throws InterruptedException {
+        System.out.printf("%-36s %8s %9s %8s %14s %10s %10s %8s%n",
+                "Benchmark", "Threads", "Accounts", "Checks", "ops/s", "ns/op", "B/op", "GCs");
+        for (int accountCount : accountCounts) {
+            for (int checkHistorySize : checkHistorySizes) {
+                Fixture fixture = new Fixture(accountCount, checkHistorySize);
+                for (int threads : threadCounts) {
+                    for (String name : benchmarkNames()) {
+                        if (name.contains(filter)) {
+                            Result result = measure(operation(name, fixture), threads);
+                            System.out.printf("%-36s %8d %9d %8d %14.0f %10.1f %10.1f %8d%n",
+                                    name, threads, accountCount, checkHistorySize, result.opsPerSecond,
+                                    result.nanosPerOp, result.bytesPerOp, result.gcCount);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the names of all benchmarks.
+     * 
+     * @return the benchmark names
+     */
+    private static List<String> benchmarkNames() {
+        List<String> names = new ArrayList<>();
+        names.add("Bank.getAccount");
+        names.add("Bank.getAccountById");
+        names.add("Bank.createAccount");
+        names.add("Account.deposit");
+        names.add("Account.withdraw");
+        names.add("Account.getBalance");
+        names.add("Account.hasMoreThanTwoDecimalPlaces");
+        names.add("Money.parseCents");
+        names.add("CheckingAccount.depositCheck");
+        return names;
+    }
+
+    /**
+     * Returns the operation measured by a benchmark.
+     * 
+     * @param name the benchmark name
+     * @param fixture the state to operate on
+     * @return the operation
+     */
+    private static Operation operation(String name, Fixture fixture) {
+        switch (name) {
+            case "Bank.getAccount":
+                return (random, sequence) -> fixture.bank.getAccount(fixture.keys[random.nextInt(fixture.keys.length)]).hashCode();
+            case "Bank.getAccountById":
+                return (random, sequence) -> fixture.bank.getAccount(fixture.ids[random.nextInt(fixture.ids.length)]).hashCode();
+            case "Bank.createAccount":
+                return (random, sequence) -> fixture.bank.createAccount(sequence % 2 == 0, "new" + sequence) ? 1 : 0;
+            case "Account.deposit":
+                return (random, sequence) -> {
+                    fixture.savingsAccount.deposit(AMOUNT);
+                    return 1;
+                };
+            case "Account.withdraw":
+                return (random, sequence) -> fixture.savingsAccount.withdraw(AMOUNT) ? 1 : 0;
+            case "Account.getBalance":
+                return (random, sequence) -> fixture.savingsAccount.getBalance().scale();
+            case "Account.hasMoreThanTwoDecimalPlaces":
+                return (random, sequence) -> fixture.savingsAccount.hasMoreThanTwoDecimalPlaces(sequence / 1000.0) ? 1 : 0;
+            case "Money.parseCents":
+                return (random, sequence) -> Money.parseCents(AMOUNT_TEXT);
+            case "CheckingAccount.depositCheck":
+                return (random, sequence) -> fixture.checkingAccount.depositCheck(AMOUNT, (int) fixture.sequence.getAndIncrement()) ? 1 : 0;
+            default:
+                throw new IllegalArgumentException("Unknown benchmark " + name);
+        }
+    }
+
+    /**
+     * Measured figures of one benchmark run.
+     */
+    private static final class Result {
+        private double opsPerSecond;
+        private double nanosPerOp;
+        private double bytesPerOp;
+        private long gcCount;
+    }
+
+    /**
+     * Runs the warmup and measured iterations of an operation.
+     * 
+     * @param operation the operation to measure
+     * @param threads the number of threads invoking it concurrently
+     * @return the averages over the measured iterations
+     * @throws InterruptedException if interrupted while waiting for benchmark threads
+     */
+    private Result measure(Operation operation, int threads) throws InterruptedException {
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(operation, threads, new long[2]);
+        }
+
+        long operations = 0;
+        long allocatedBytes = 0;
+        long elapsedNanos = 0;
+        long gcBefore = totalCollections();
+        for (int i = 0; i < measuredIterations; i++) {
+            long[] totals = new long[2];
+            elapsedNanos += runIteration(operation, threads, totals);
+            operations += totals[0];
+            allocatedBytes += totals[1];
+        }
+
+        Result result = new Result();
+        long safeOperations = Math.max(operations, 1);
+        result.opsPerSecond = operations / (Math.max(elapsedNanos, 1) / 1e9);
+        result.nanosPerOp = (double) elapsedNanos * threads / safeOperations;
+        result.bytesPerOp = (double) allocatedBytes / safeOperations;
+        result.gcCount = totalCollections() - gcBefore;
+        return result;
+    }
+
+    /**
+     * Runs one timed iteration on the given number of threads.
+     * 
+     * @param operation the operation to measure
+     * @param threads the number of threads
+     * @param totals receives the number of operations and bytes allocated by the threads
+     * @return the wall-clock duration of the iteration in nanoseconds
+     * @throws InterruptedException if interrupted while waiting for benchmark threads
+     */
+    private long runIteration(Operation operation, int threads, long[] totals) throws InterruptedException {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong operations = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long threadId = Thread.currentThread().getId();
+                long local = 0;
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+                long stopAt = deadline[0];
+                long sequenceBase = threadId << 40;
+                do {
+                    for (int batch = 0; batch < 64; batch++) {
+                        local += operation.run(random, sequenceBase + count++);
+                    }
+                } while (System.nanoTime() < stopAt);
+                allocated.addAndGet(threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+                operations.addAndGet(count);
+                sink += local;
+            });
+            workers[t].start();
+        }
+
+        long startNanos = System.nanoTime();
+        deadline[0] = startNanos + iterationMillis * 1_000_000L;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        totals[0] = operations.get();
+        totals[1] = allocated.get();
+        return elapsed;
+    }
+
+    /**
+     * Returns the number of garbage collections so far, over all collectors.
+     * 
+     * @return the total collection count
+     */
+    private static long totalCollections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for BankServer.
+ * 
+ * Opens a number of concurrent client sessions, each of which creates its own checking
+ * account and then sends a fixed number of requests, cycling through deposit, withdraw,
+ * deposit check and balance. Every session waits for each response before sending the
+ * next request. When all sessions are done the client reports throughput and the request
+ * latency distribution.
+ * 
+ * Without "--port" the client starts a BankServer on a free local port in the same process.
+ * 
+ * Usage: java BankLoadClient [--host localhost] [--port 0] [--clients 1000] [--requests 100]
+ */
+public class BankLoadClient {
+    private String host = "localhost";
+    private int port;
+    private int clientCount = 1000;
+    private int requestsPerClient = 100;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failedSessions = new AtomicLong();
+
+    /**
+     * Runs the load client.
+     * 
+     * @param args client options, see the class documentation
+     * @throws Exception if the embedded server cannot be started or the run is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        BankLoadClient client = new BankLoadClient();
+        client.parseOptions(args);
+        if (client.port != 0) {
+            client.run();
+            return;
+        }
+
+        try (Bank bank = new Bank(); BankServer server = new BankServer(bank, 0)) {
+            server.start();
+            client.port = server.getPort();
+            System.err.println("Started server on port " + client.port);
+            client.run();
+        }
+    }
+
+    /**
+     * Parses command line options.
+     * 
+     * @param args the command line arguments
+     * @throws IllegalArgumentException if an option is unknown or has no value
+     */
+    private void parseOptions(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host":
+                    host = value;
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--clients":
+                    clientCount = Integer.parseInt(value);
+                    break;
+                case "--requests":
+                    requestsPerClient = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * Runs all sessions to completion and prints the results.
+     * 
+     * @throws InterruptedException if interrupted while waiting for the sessions
+     */
+    private void run() throws InterruptedException {
+        ExecutorService executor = BankServer.newSessionExecutor("bank-load-");
+        CountDownLatch connected = new CountDownLatch(clientCount);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            for (int client = 0; client < clientCount; client++) {
+                int clientNumber = client;
+                executor.execute(() -> runSession(clientNumber, connected, go));
+            }
+            connected.await();
+            long startNanos = System.nanoTime();
+            go.countDown();
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.HOURS);
+            long elapsedNanos = System.nanoTime() - startNanos;
+            printResults(elapsedNanos);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs one client session: connects, waits for all sessions to connect, then sends its requests.
+     * 
+     * @param clientNumber the number of this client, used in its username
+     * @param connected counted down once this session is connected or has failed to connect
+     * @param go released when all sessions are connected
+     */
+    private void runSession(int clientNumber, CountDownLatch connected, CountDownLatch go) {
+        Socket socket = new Socket();
+        boolean counted = false;
+        try {
+            socket.connect(new InetSocketAddress(host, port));
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            connected.countDown();
+            counted = true;
+            go.await();
+
+            String userName = "load" + clientNumber;
+            send(in, out, "create,CHECKING," + userName);
+            for (int request = 0; request < requestsPerClient; request++) {
+                send(in, out, request(userName, request));
+            }
+            out.write("quit\n");
+            out.flush();
+            in.readLine();
+        } catch (IOException e) {
+            failedSessions.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!counted) {
+                failedSessions.incrementAndGet();
+                connected.countDown();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // The session is over either way.
+            }
+        }
+    }
+
+    /**
+     * Builds the request a client sends at a given step.
+     * 
+     * @param userName the client's username
+     * @param request the step number
+     * @return the request line
+     */
+    private static String request(String userName, int request) {
+        switch (request % 4) {
+            case 0:
+                return "deposit,CHECKING," + userName + ",100.00";
+            case 1:
+                return "withdraw,CHECKING," + userName + ",25.50";
+            case 2:
+                return "depositCheck,CHECKING," + userName + ",10.00," + request;
+            default:
+                return "balance,CHECKING," + userName;
+        }
+    }
+
+    /**
+     * Sends one request, waits for its response and records the round-trip latency.
+     * 
+     * @param in the session input
+     * @param out the session output
+     * @param request the request line
+     * @throws IOException if the connection fails or is closed by the server
+     */
+    private void send(BufferedReader in, Writer out, String request) throws IOException {
+        long startNanos = System.nanoTime();
+        out.write(request);
+        out.write('\n');
+        out.flush();
+        String response = in.readLine();
+        latencies.record(System.nanoTime() - startNanos);
+        if (response == null) {
+            throw new IOException("Server closed the connection");
+        }
+        completed.incrementAndGet();
+        if (!response.startsWith("OK")) {
+            rejected.incrementAndGet();
+        }
+    }
+
+    /**
+     * Prints throughput and latency percentiles of the run.
+     * 
+     * @param elapsedNanos the wall-clock duration of the run in nanoseconds
+     */
+    private void printResults(long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        System.out.printf("%d clients, %d requests (%d rejected, %d failed sessions) in %.3f s, %.0f requests/s%n",
+                clientCount, completed.get(), rejected.get(), failedSessions.get(), seconds, completed.get() / seconds);
+        System.out.printf("Latency us: p50 %.1f, p99 %.1f, p99.9 %.1f%n",
+                latencies.percentile(50) / 1e3, latencies.percentile(99) / 1e3, latencies.percentile(99.9) / 1e3);
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TCP front end that lets many clients operate on one shared Bank at the same time.
+ * 
+ * Clients send one request per line and receive one response line per request. Requests
+ * use the BatchProcessor transaction format, plus a balance query and a way to end the session:
+ * <pre>
+ * create,CHECKING,alice           OK
+ * deposit,CHECKING,alice,100.00   OK
+ * cashCheck,CHECKING,alice,5,1001 OK
+ * withdraw,CHECKING,alice,500     REJECTED insufficient funds
+ * balance,CHECKING,alice          OK 95.00
+ * quit                            BYE
+ * </pre>
+ * Blank lines and lines starting with '#' get no response. A mutation can carry a request ID,
+ * as in "@r-17,deposit,CHECKING,alice,100.00"; a client that resends it after a lost
+ * response gets the original response and the deposit is applied only once.
+ * 
+ * Every session runs on its own thread and blocks on socket I/O. When the runtime has
+ * virtual threads they are used, so thousands of idle or slow sessions cost little memory.
+ * Otherwise sessions run on platform threads with a small stack. Responses are flushed
+ * only when no further request is already buffered, so clients that pipeline requests
+ * get their responses in one write.
+ */
+public class BankServer implements Closeable {
+    /** Stack size of platform session threads; sessions only need a shallow stack. */
+    private static final long SESSION_STACK_SIZE = 256 * 1024;
+    private static final int ACCEPT_BACKLOG = 4096;
+    /** Shortest and longest pause after a failed accept; the pause doubles while accepts keep failing. */
+    private static final long MIN_ACCEPT_BACKOFF_MILLIS = 10;
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    private final Bank bank;
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions = newSessionExecutor("bank-session-");
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private Thread acceptThread;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a server listening on the loopback interface.
+     * 
+     * @param bank the bank shared by all sessions
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public BankServer(Bank bank, int port) throws IOException {
+        this(bank, port, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Constructs a server.
+     * 
+     * @param bank the bank shared by all sessions
+     * @param port the port to listen on, or 0 for any free port
+     * @param address the local address to listen on, or null for all interfaces
+     * @throws IOException if the port cannot be bound
+     */
+    public BankServer(Bank bank, int port, InetAddress address) throws IOException {
+        this.bank = bank;
+        this.serverSocket = new ServerSocket(port, ACCEPT_BACKLOG, address);
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     * 
+     * @return the local port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of sessions currently open.
+     * 
+     * @return the number of connected clients
+     */
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Starts accepting clients on a background thread.
+     * 
+     * @throws IllegalStateException if the server was already started
+     */
+    public synchronized void start() {
+        if (acceptThread != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        acceptThread = new Thread(this::acceptClients, "bank-server-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Stops accepting clients and closes all open sessions.
+     * 
+     * @throws IOException if the listening socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : openSockets) {
+            closeQuietly(socket);
+        }
+        sessions.shutdown();
+        try {
+            sessions.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Accepts clients until the server is closed and hands each one to a session thread.
+     */
+    private void acceptClients() {
+        long backoffMillis = 0;
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (closed) {
+                    break;
+                }
+                // Failures such as running out of file descriptors persist for a while, so
+                // back off instead of spinning until sessions end and free resources.
+                backoffMillis = Math.min(MAX_ACCEPT_BACKOFF_MILLIS, Math.max(MIN_ACCEPT_BACKOFF_MILLIS, 2 * backoffMillis));
+                System.err.println("Accept failed, retrying in " + backoffMillis + " ms: " + e.getMessage());
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            backoffMillis = 0;
+
+            openSockets.add(socket);
+            if (closed) {
+                closeQuietly(socket);
+                break;
+            }
+            sessions.execute(() -> runSession(socket));
+        }
+    }
+
+    /**
+     * Serves one client until it quits or disconnects.
+     * 
+     * @param socket the client connection
+     */
+    private void runSession(Socket socket) {
+        sessionCount.incrementAndGet();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            BatchProcessor processor = new BatchProcessor(bank);
+            String line;
+            while ((line = in.readLine()) != null) {
+                String request = line.trim();
+                if (request.isEmpty() || request.startsWith("#")) {
+                    continue;
+                }
+                if (request.equals("quit")) {
+                    out.write("BYE\n");
+                    break;
+                }
+
+                out.write(respond(processor, request));
+                out.write('\n');
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            // The client disconnected or the server is closing.
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Session failed: " + e.getMessage());
+            }
+        } finally {
+            openSockets.remove(socket);
+            closeQuietly(socket);
+            sessionCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Executes one request and builds its response line.
+     * 
+     * @param processor the session's transaction processor
+     * @param request the request line, trimmed and non-empty
+     * @return "OK", "OK &lt;balance&gt;" or "REJECTED &lt;reason&gt;"
+     */
+    private String respond(BatchProcessor processor, String request) {
+        if (request.startsWith("balance,")) {
+            return balance(request);
+        }
+        String rejection = processor.apply(request);
+        return rejection == null ? "OK" : "REJECTED " + rejection;
+    }
+
+    /**
+     * Answers a balance query of the form "balance,TYPE,username".
+     * 
+     * @param request the request line
+     * @return "OK &lt;balance&gt;" or "REJECTED &lt;reason&gt;"
+     */
+    private String balance(String request) {
+        String[] fields = request.split(",");
+        if (fields.length != 3) {
+            return "REJECTED expected 3 fields but found " + fields.length;
+        }
+
+        String accountType = fields[1].trim();
+        if (!BankingSystem.CHECKING.equals(accountType) && !BankingSystem.SAVING.equals(accountType)) {
+            return "REJECTED unknown account type " + accountType;
+        }
+        Account account = bank.getAccount(fields[2].trim() + accountType);
+        if (account == null) {
+            return "REJECTED account not found";
+        }
+        return "OK " + account.getBalance().toPlainString();
+    }
+
+    /**
+     * Creates an executor that runs every task on a new thread, using virtual threads
+     * when the runtime provides them.
+     * 
+     * @param threadNamePrefix the name prefix of platform threads
+     * @return the executor
+     */
+    static ExecutorService newSessionExecutor(String threadNamePrefix) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(null, runnable, threadNamePrefix + threadNumber.incrementAndGet(), SESSION_STACK_SIZE);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Closes a socket, ignoring errors.
+     * 
+     * @param socket the socket to close
+     */
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing useful can be done about a socket that fails to close.
+        }
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point-in-time binary snapshot of a journaled bank.
+ * 
+ * A snapshot holds every account that existed when it was cut, in journal ordinal order:
+ * username, account type, exact balance, last daily interest accrual day, and the pending
+ * check balance and processed check numbers. Writers are never
+ * stopped while a snapshot is taken. Instead each account is captured under its own lock
+ * together with the journal position it reflects, and replay skips the records of that
+ * account up to that position.
+ * 
+ * File layout: [magic:int][version:int][journalPosition:long][accountCount:int], then per
+ * account [userNameLength:short][userName][type:byte][capturedPosition:long][state], and a
+ * trailing CRC32 of everything before it. Snapshots are written to a temporary file and
+ * atomically renamed, and are read back through a memory-mapped buffer.
+ */
+public class BankSnapshot {
+    private static final int MAGIC = 0x42534E50;
+    private static final int VERSION = 3;
+    private static final int OUTPUT_BUFFER_BYTES = 1 << 16;
+
+    private final long journalPosition;
+    private final List<AbstractAccount> accounts;
+    private final List<String> userNames;
+    private final long[] capturedPositions;
+
+    /**
+     * Constructs a loaded snapshot.
+     * 
+     * @param journalPosition the journal position the snapshot was cut at
+     * @param accounts the restored accounts, indexed by ordinal
+     * @param userNames the usernames of the accounts, indexed by ordinal
+     * @param capturedPositions the journal position each account's state reflects, indexed by ordinal
+     */
+    private BankSnapshot(long journalPosition, List<AbstractAccount> accounts, List<String> userNames,
+            long[] capturedPositions) {
+        this.journalPosition = journalPosition;
+        this.accounts = accounts;
+        this.userNames = userNames;
+        this.capturedPositions = capturedPositions;
+    }
+
+    /**
+     * Writes a snapshot of every account known to a journal.
+     * 
+     * @param journal the journal of the bank to snapshot
+     * @param path the snapshot file, replaced atomically once the snapshot is complete
+     * @return the number of accounts written
+     * @throws IOException if the snapshot cannot be written
+     */
+    static int write(TransactionJournal journal, Path path) throws IOException {
+        List<AbstractAccount> accounts = new ArrayList<>();
+        List<String> userNames = new ArrayList<>();
+        long journalPosition = journal.beginSnapshot(accounts, userNames);
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream file = Files.newOutputStream(temporary)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, OUTPUT_BUFFER_BYTES), crc);
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalPosition);
+            out.writeInt(accounts.size());
+
+            // Each account is captured into memory under its lock and copied out afterwards,
+            // so the account is never locked while the file is written.
+            ByteArrayOutputStream captured = new ByteArrayOutputStream();
+            DataOutputStream capture = new DataOutputStream(captured);
+            for (int ordinal = 0; ordinal < accounts.size(); ordinal++) {
+                AbstractAccount account = accounts.get(ordinal);
+                byte[] userName = userNames.get(ordinal).getBytes(StandardCharsets.UTF_8);
+                out.writeShort(userName.length);
+                out.write(userName);
+                out.writeByte(account instanceof CheckingAccount
+                        ? TransactionJournal.CREATE_CHECKING : TransactionJournal.CREATE_SAVINGS);
+                captured.reset();
+                account.writeSnapshot(capture);
+                captured.writeTo(out);
+            }
+            out.flush();
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+        }
+
+        // Captured states may include records that are not yet durable; the snapshot must
+        // not survive a crash that loses them.
+        journal.awaitDurable(journal.getAppendedPosition());
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return accounts.size();
+    }
+
+    /**
+     * Loads a snapshot through a memory-mapped buffer.
+     * 
+     * @param path the snapshot file
+     * @return the loaded snapshot, or null if the file does not exist or is not a valid snapshot
+     * @throws IOException if the file cannot be read
+     */
+    static BankSnapshot read(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < Integer.BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int contentBytes = (int) size - Integer.BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().limit(contentBytes));
+            if ((int) crc.getValue() != buffer.getInt(contentBytes)) {
+                return null;
+            }
+            buffer.limit(contentBytes);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            return readAccounts(buffer);
+        }
+    }
+
+    /**
+     * Decodes the accounts of a verified snapshot.
+     * 
+     * @param buffer the snapshot content, positioned after the magic number and version
+     * @return the loaded snapshot
+     */
+    private static BankSnapshot readAccounts(ByteBuffer buffer) {
+        long journalPosition = buffer.getLong();
+        int count = buffer.getInt();
+        List<AbstractAccount> accounts = new ArrayList<>(count);
+        List<String> userNames = new ArrayList<>(count);
+        long[] capturedPositions = new long[count];
+
+        byte[] userName = new byte[64];
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            int userNameLength = buffer.getShort() & 0xFFFF;
+            if (userName.length < userNameLength) {
+                userName = new byte[userNameLength];
+            }
+            buffer.get(userName, 0, userNameLength);
+            AbstractAccount account = Bank.newAccount(buffer.get() == TransactionJournal.CREATE_CHECKING);
+            capturedPositions[ordinal] = buffer.getLong();
+            account.readSnapshot(buffer);
+            accounts.add(account);
+            userNames.add(new String(userName, 0, userNameLength, StandardCharsets.UTF_8));
+        }
+        return new BankSnapshot(journalPosition, accounts, userNames, capturedPositions);
+    }
+
+    /**
+     * Returns the journal position the snapshot was cut at. Replay continues from here.
+     * 
+     * @return the journal position
+     */
+    long getJournalPosition() {
+        return journalPosition;
+    }
+
+    /**
+     * Returns the number of accounts in the snapshot.
+     * 
+     * @return the account count
+     */
+    int getAccountCount() {
+        return accounts.size();
+    }
+
+    /**
+     * Returns a restored account.
+     * 
+     * @param ordinal the journal ordinal of the account
+     * @return the account
+     */
+    AbstractAccount getAccount(int ordinal) {
+        return accounts.get(ordinal);
+    }
+
+    /**
+     * Returns the username of a restored account.
+     * 
+     * @param ordinal the journal ordinal of the account
+     * @return the username
+     */
+    String getUserName(int ordinal) {
+        return userNames.get(ordinal);
+    }
+
+    /**
+     * Returns, for each account, the journal position up to which its records are already
+     * included in the snapshot.
+     * 
+     * @return the captured positions, indexed by ordinal
+     */
+    long[] getCapturedPositions() {
+        return capturedPositions;
+    }
+}
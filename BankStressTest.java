@@ -0,0 +1,173 @@
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Multi-threaded stress test proving that concurrent operations on a Bank neither lose
+ * nor create money.
+ * 
+ * A number of threads race to create the same set of accounts, then all of them apply
+ * random deposits, withdrawals and transfers between those accounts at once. Every
+ * deposit and every successful withdrawal is added to a ledger. Afterwards the sum of all
+ * balances must equal the ledger, since transfers only move money, and every account must
+ * have been created by exactly one thread.
+ * 
+ * Usage: java BankStressTest [--threads 8] [--accounts 16] [--operations 1000000]
+ * 
+ * Few accounts and many threads make contention, and therefore lost updates, most likely.
+ * Exits with status 1 if the check fails.
+ */
+public class BankStressTest {
+    private static final long MAX_AMOUNT_CENTS = 100_00;
+
+    private int threadCount = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private int accountCount = 16;
+    private long operationCount = 1_000_000;
+
+    private final Bank bank = new Bank();
+    private final LongAdder expectedCents = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private String[] userNames;
+
+    /**
+     * Runs the stress test. Exits with status 1 if money was lost or created.
+     * 
+     * @param args test options, see the class documentation
+     * @throws InterruptedException if interrupted while waiting for the worker threads
+     * @throws IOException if the bank cannot be closed
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        BankStressTest test = new BankStressTest();
+        test.parseOptions(args);
+        long elapsedNanos = test.run();
+        boolean passed = test.check(elapsedNanos);
+        test.bank.close();
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parses command line options.
+     * 
+     * @param args the command line arguments
+     * @throws IllegalArgumentException if an option is unknown, has no value or is out of range
+     */
+    private void parseOptions(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--threads":
+                    threadCount = Integer.parseInt(value);
+                    break;
+                case "--accounts":
+                    accountCount = Integer.parseInt(value);
+                    break;
+                case "--operations":
+                    operationCount = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (threadCount <= 0 || accountCount < 2 || operationCount < 0) {
+            throw new IllegalArgumentException("Threads must be positive, accounts at least 2 and operations non-negative");
+        }
+    }
+
+    /**
+     * Starts the worker threads together and waits for them to finish.
+     * 
+     * @return the elapsed time in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private long run() throws InterruptedException {
+        userNames = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            userNames[i] = "stress" + i + (i % 2 == 0 ? Bank.CHECKING : Bank.SAVING);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            long operations = operationCount / threadCount + (t < operationCount % threadCount ? 1 : 0);
+            workers[t] = new Thread(() -> work(start, operations), "stress-" + t);
+            workers[t].start();
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Body of a worker thread: races to create every account, then applies random operations.
+     * 
+     * @param start released when all workers should begin
+     * @param operations the number of operations to apply
+     */
+    private void work(CountDownLatch start, long operations) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (int i = 0; i < accountCount; i++) {
+            if (bank.createAccount(i % 2 == 0, userNames[i])) {
+                created.increment();
+            }
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long n = 0; n < operations; n++) {
+            String userName = userNames[random.nextInt(accountCount)];
+            long cents = 1 + random.nextLong(MAX_AMOUNT_CENTS);
+            switch (random.nextInt(3)) {
+                case 0:
+                    bank.getAccount(userName).depositCents(cents);
+                    expectedCents.add(cents);
+                    break;
+                case 1:
+                    if (bank.getAccount(userName).withdrawCents(cents)) {
+                        expectedCents.add(-cents);
+                    }
+                    break;
+                default:
+                    String toUserName = userNames[random.nextInt(accountCount)];
+                    if (!toUserName.equals(userName)) {
+                        bank.transferCents(userName, toUserName, cents);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Prints the outcome and checks the balances against the ledger.
+     * 
+     * @param elapsedNanos the time the workers took
+     * @return true if every account was created once and the balances match the ledger
+     */
+    private boolean check(long elapsedNanos) {
+        long actualCents = 0;
+        for (String userName : userNames) {
+            actualCents += ((AbstractAccount) bank.getAccount(userName)).getBalanceCents();
+        }
+        System.out.printf("%d operations on %d accounts by %d threads in %.3f s%n",
+                operationCount, accountCount, threadCount, elapsedNanos / 1e9);
+        System.out.println("Accounts created: " + created.sum() + " (expected " + accountCount + ")");
+        System.out.println("Total balance: " + Money.toBigDecimal(actualCents)
+                + " (expected " + Money.toBigDecimal(expectedCents.sum()) + ")");
+
+        boolean passed = created.sum() == accountCount && actualCents == expectedCents.sum();
+        System.out.println(passed ? "PASSED" : "FAILED: money was lost or created");
+        return passed;
+    }
+}
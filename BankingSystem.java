@@ -11,24 +11,57 @@
  * - Check processing (deposit and cash) for Checking accounts
  * - Interest calculation (0% for Checking accounts, 2% for Savings accounts)
  * - Balance inquiries
+ * - Atomic transfers between accounts, including between a user's own checking and savings accounts
  * 
  * Architecture:
  * The application is built with the following class structure:
  * - BankingSystem: Main application class with user interface and control logic
  * - Bank: Maintains a collection of accounts and provides methods to add/retrieve them
+ * - AccountId: Dense integer account identity for repeated lookups through an array-backed index
+ * - OffHeapBank: Alternative storage engine keeping account state in off-heap columns, with
+ *   OffHeapAccount flyweight views, for banks with tens of millions of accounts
  * - Account: Interface defining common banking operations
+ * - AbstractAccount: Base class holding the fixed-point balance shared by both account types
+ * - TransactionHistory: Bounded per-account history, spilled to a HistorySpillFile and read as StatementPages
+ * - DailyInterest: Per-account-type daily compounding rates, accrued lazily when an account is used
  * - SavingsAccount: Implementation of Account with 2% interest rate
  * - CheckingAccount: Implementation of Account with check processing capabilities
+ * - BalanceIndex: Asynchronously maintained per-type balance index for top-N and range reports of AccountBalances
+ * - UserBalances: One user's checking and savings balances, read consistently without locking
+ * - CheckClearing: Check intake, duplicate screening, holds as pending balance, and batched timed settlement
+ * - AccountSpec: One account of a bulk Bank.createAccounts or importAccounts, summarized by an ImportSummary
+ * - TransferLeg: One source, target and amount of an atomic Bank.transfer
+ * - ShardedEngine: Single-writer mode partitioning accounts across shard threads, with CompletableFuture results
+ * - AsyncBank: CompletableFuture API over a ShardedEngine, completing with structured OperationResults
+ * - BatchProcessor: Streams a transaction file against a Bank for non-interactive runs
+ * - BankServer: Line-based TCP front end running one session thread per client against a shared Bank
+ * - BankLoadClient: Opens thousands of concurrent BankServer sessions and reports throughput and latency
+ * - TransactionJournal: Optional write-ahead journal that makes Bank state survive restarts
+ * - BankSnapshot: Point-in-time snapshots of a journaled Bank for fast startup
+ * - InterestAccrualTask: Fork-join task behind Bank.accrueInterest for month-end interest runs
+ * - BankBenchmark: Throughput and allocation benchmarks for Account and Bank operations
+ * - WorkloadSimulator: Zipf-skewed multi-threaded operation mix against a Bank, with a ledger check
+ * - BankStressTest: Concurrent creates, deposits, withdrawals and transfers, exiting non-zero unless money is conserved
+ * - EventSink: Receives structured TransactionEvents; console, asynchronous and no-op sinks exist
+ * - Metrics: Per-operation counters, rejection reasons and latency histograms, exposed as JMX MXBeans
  * 
  * Usage:
  * The program presents a menu-driven interface where users can:
  * 1. Create a new account (Checking or Savings)
  * 2. Operate on existing Checking accounts
  * 3. Operate on existing Savings accounts
+ * Transaction files can also be applied without interaction with "--batch" (see BatchProcessor),
+ * and "--serve" accepts concurrent network clients (see BankServer).
  * 
  * Data Management:
- * Account balances are stored as BigDecimal objects to maintain precision in financial calculations.
- * The Bank class uses a HashMap to store accounts, with usernames as keys.
+ * Account balances are stored as long cents so deposits and withdrawals do not allocate.
+ * Amounts typed by the user or read from transaction files are parsed straight into cents
+ * by Money.parseCents, without a round trip through double.
+ * Interest fractions below one cent are kept exactly, and BigDecimal values are only
+ * created when a balance is read.
+ * The Bank class uses a ConcurrentHashMap to store accounts, with usernames as keys,
+ * and each account synchronizes its own balance updates. Balance inquiries do not lock:
+ * they read a version-stamped balance and only retry if an update raced with them.
  * 
  * Error Handling:
  * The application includes validation for:
@@ -40,7 +73,17 @@
  * @author Fuyuki Kobayashi (sakufuyu)
  */
 
- import java.util.Scanner;
+ import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class for the banking system application.
@@ -48,17 +91,66 @@
  */
 public class BankingSystem {
     private static final Scanner userInput = new Scanner(System.in);
-    private static final String CHECKING = "CHECKING";
-    private static final String SAVING = "SAVING";
+    static final String CHECKING = Bank.CHECKING;
+    static final String SAVING = Bank.SAVING;
 
     /**
      * The main method that runs the banking system application.
+     * Runs the interactive menus, or with "--batch &lt;transactions&gt; [report]" applies a
+     * transaction file without user interaction, or with "--serve &lt;port&gt;" serves the bank
+     * to network clients (see BankServer). Any mode can be preceded by
+     * "--journal &lt;file&gt;" to restore the bank from a journal and record every change in it,
+     * by "--metrics &lt;seconds&gt;" to record operation metrics, register them as MXBeans
+     * and print them to standard error at that interval, and by "--import &lt;file&gt;" to
+     * create the accounts listed in the file first (see Bank.importAccounts).
      * 
-     * @param args command line arguments (not used)
+     * @param args command line arguments
      * @throws Exception if an error occurs during execution
      */
     public static void main(String[] args) throws Exception {
-        Bank bankSystem = new Bank();
+        int argIndex = 0;
+        Path journalPath = null;
+        if (args.length > argIndex + 1 && args[argIndex].equals("--journal")) {
+            journalPath = Paths.get(args[argIndex + 1]);
+            argIndex += 2;
+        }
+        if (args.length > argIndex + 1 && args[argIndex].equals("--metrics")) {
+            Metrics.setEnabled(true);
+            Metrics.registerMBeans();
+            Metrics.startPeriodicDump(System.err, Long.parseLong(args[argIndex + 1]), TimeUnit.SECONDS);
+            argIndex += 2;
+        }
+        Path importPath = null;
+        if (args.length > argIndex + 1 && args[argIndex].equals("--import")) {
+            importPath = Paths.get(args[argIndex + 1]);
+            argIndex += 2;
+        }
+
+        try (Bank bankSystem = journalPath == null ? new Bank() : new Bank(journalPath)) {
+            if (importPath != null) {
+                ImportSummary summary = bankSystem.importAccounts(importPath);
+                for (String invalidLine : summary.getInvalidLines()) {
+                    System.err.println("Invalid account " + invalidLine);
+                }
+                System.err.println(summary);
+            }
+            if (args.length > argIndex && args[argIndex].equals("--batch")) {
+                runBatch(bankSystem, Arrays.copyOfRange(args, argIndex, args.length));
+            } else if (args.length > argIndex && args[argIndex].equals("--serve")) {
+                runServer(bankSystem, Arrays.copyOfRange(args, argIndex, args.length));
+            } else {
+                TransactionEvents.setSink(new ConsoleEventSink());
+                runMenu(bankSystem);
+            }
+        }
+    }
+
+    /**
+     * Runs the interactive main menu until the user exits.
+     * 
+     * @param bankSystem the bank to operate on
+     */
+    private static void runMenu(Bank bankSystem) {
         String userName;
         boolean isExit = false;
 
@@ -100,6 +192,53 @@ public class BankingSystem {
         }
     }
 
+    /**
+     * Applies a transaction file to the bank and prints the throughput.
+     * The per-line report is written to the given report file, or to standard output.
+     * 
+     * @param bankSystem the bank to apply the transactions to
+     * @param args command line arguments: "--batch", the transaction file and an optional report file
+     * @throws IOException if reading the transactions or writing the report fails
+     */
+    private static void runBatch(Bank bankSystem, String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BankingSystem --batch <transactions> [report]");
+            return;
+        }
+
+        BatchProcessor processor = new BatchProcessor(bankSystem);
+        BatchProcessor.Summary summary;
+        try (BufferedReader input = Files.newBufferedReader(Paths.get(args[1]));
+             Writer report = args.length > 2
+                     ? Files.newBufferedWriter(Paths.get(args[2]))
+                     : new BufferedWriter(new OutputStreamWriter(System.out))) {
+            summary = processor.process(input, report);
+        }
+        System.err.println(summary);
+    }
+
+    /**
+     * Serves the bank to network clients until "quit" or end of input is read from the console.
+     * 
+     * @param bankSystem the bank shared by all clients
+     * @param args command line arguments: "--serve" and the port to listen on
+     * @throws IOException if the server cannot be started
+     */
+    private static void runServer(Bank bankSystem, String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BankingSystem --serve <port>");
+            return;
+        }
+
+        try (BankServer server = new BankServer(bankSystem, Integer.parseInt(args[1]))) {
+            server.start();
+            System.out.println("Listening on port " + server.getPort() + ", type quit to stop");
+            while (userInput.hasNextLine() && !userInput.nextLine().trim().equals("quit")) {
+                System.out.println(server.getSessionCount() + " sessions open");
+            }
+        }
+    }
+
     /**
      * Creates a new account in the banking system.
      * 
@@ -174,12 +313,15 @@ public class BankingSystem {
     }
 
     /**
-     * Gets a valid monetary amount from the user.
+     * Gets a valid monetary amount from the user, parsed exactly into cents.
      * 
-     * @return a valid monetary amount as a double
+     * @param operation the operation the amount is for, which a rejected amount is counted against
+     * @return a valid monetary amount in cents
+     * @throws IllegalArgumentException if the amount has more than two decimal places
+     * @throws ArithmeticException if the amount is too large
      */
-    private static double getAmount() {
-        double amount = 0.0;
+    private static long getAmountCents(MeteredOperation operation) {
+        long cents = 0;
         boolean validation = false;
 
         do {
@@ -187,14 +329,14 @@ public class BankingSystem {
             String amountString = userInput.nextLine();
 
             try {
-                amount = Double.parseDouble(amountString);
+                cents = Money.parseCents(amountString, operation);
                 validation = true;
             } catch (NumberFormatException e) {
                 System.out.println("Invalid input");
             }
         } while (!validation);
 
-        return amount;
+        return cents;
     }
 
     /**
@@ -295,7 +437,7 @@ public class BankingSystem {
         while (!isExit) {
             System.out.print("Deposit: ");
             try {
-                account.deposit(getAmount());
+                account.depositCents(getAmountCents(MeteredOperation.DEPOSIT));
                 isExit = true;
             } catch (IllegalArgumentException e) {
                 System.err.println("Error: " + e.getMessage());
@@ -315,7 +457,7 @@ public class BankingSystem {
         while (!isExit) {
             System.out.print("Withdraw: ");
             try {
-                isExit = account.withdraw(getAmount());
+                isExit = account.withdrawCents(getAmountCents(MeteredOperation.WITHDRAW));
             } catch (IllegalArgumentException e) {
                 System.err.println("Error: " + e.getMessage());
             } catch (Exception e) {
@@ -339,7 +481,7 @@ public class BankingSystem {
                 System.out.print("Enter check number ==> ");
                 String checkNumberString = userInput.nextLine();
                 int checkNumber = Integer.parseInt(checkNumberString);
-                isExit = checkingAccount.cashCheck(getAmount(), checkNumber);
+                isExit = checkingAccount.cashCheckCents(getAmountCents(MeteredOperation.CASH_CHECK), checkNumber);
             } catch (IllegalArgumentException e) {
                 System.err.println("Error: " + e.getMessage());
             } catch (Exception e) {
@@ -363,7 +505,7 @@ public class BankingSystem {
                 System.out.print("Enter check number ==> ");
                 String checkNumberString = userInput.nextLine();
                 int checkNumber = Integer.parseInt(checkNumberString);
-                checkingAccount.depositCheck(getAmount(), checkNumber);
+                checkingAccount.depositCheckCents(getAmountCents(MeteredOperation.DEPOSIT_CHECK), checkNumber);
                 isExit = true;
             } catch (IllegalArgumentException e) {
                 System.err.println("Error: " + e.getMessage());
@@ -0,0 +1,419 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Applies a stream of transactions to a bank without user interaction.
+ * 
+ * The input is read line by line, one transaction per line, with comma-separated fields:
+ * <pre>
+ * create,CHECKING,alice
+ * deposit,SAVING,alice,100.00
+ * withdraw,CHECKING,alice,20.50
+ * depositCheck,CHECKING,alice,75.00,1001
+ * cashCheck,CHECKING,alice,10.00,1002
+ * interest,SAVING,alice
+ * transfer,CHECKING,alice,25.00
+ * </pre>
+ * The account type is CHECKING or SAVING, and accounts are keyed the same way as in the
+ * interactive menus. A transfer moves the amount from the named account to the same
+ * user's account of the other type. Blank lines and lines starting with '#' are ignored.
+ * 
+ * A transaction can be prefixed with a client request ID, as in "@r-1001,deposit,SAVING,alice,100.00".
+ * A transaction whose request ID was already applied within the bank's IdempotencyCache
+ * window is not applied again and reports the original result, so a client can safely
+ * resend transactions after a failure.
+ * 
+ * Lines are read in batches of a fixed size, applied, and their results written to the
+ * report before the next batch is read, so memory use does not depend on the input size.
+ * Each transaction produces one report line: "&lt;line&gt; OK" or "&lt;line&gt; REJECTED &lt;reason&gt;".
+ * 
+ * The AccountIds of recently seen users are kept in a small direct-mapped cache, so
+ * repeated transactions of a user do not build account keys. The cache has a fixed
+ * number of slots and only remembers accounts that exist, so its memory use does not
+ * depend on the input, however many distinct or unknown usernames it contains.
+ */
+public class BatchProcessor {
+    /** Default number of lines read and applied per batch. */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private static final int ID_CACHE_SLOTS = 1024;
+
+    private final Bank bank;
+    private final int batchSize;
+    private final String[] cachedUserNames = new String[ID_CACHE_SLOTS];
+    private final AccountId[][] cachedIds = new AccountId[ID_CACHE_SLOTS][];
+
+    /**
+     * Constructs a batch processor with the default batch size.
+     * 
+     * @param bank the bank to apply transactions to
+     */
+    public BatchProcessor(Bank bank) {
+        this(bank, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a batch processor.
+     * 
+     * @param bank the bank to apply transactions to
+     * @param batchSize the number of lines read and applied per batch
+     * @throws IllegalArgumentException if batchSize is not positive
+     */
+    public BatchProcessor(Bank bank, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.bank = bank;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Reads all transactions from the input, applies them and writes one report line per transaction.
+     * 
+     * @param input the transaction source
+     * @param report the destination for per-line results
+     * @return a summary of the run
+     * @throws IOException if reading the input or writing the report fails
+     */
+    public Summary process(BufferedReader input, Writer report) throws IOException {
+        long startNanos = System.nanoTime();
+        String[] lines = new String[batchSize];
+        StringBuilder results = new StringBuilder();
+        long lineNumber = 0;
+        long applied = 0;
+        long rejected = 0;
+
+        while (true) {
+            int count = 0;
+            String line;
+            while (count < batchSize && (line = input.readLine()) != null) {
+                lines[count++] = line;
+            }
+            if (count == 0) {
+                break;
+            }
+
+            for (int i = 0; i < count; i++) {
+                lineNumber++;
+                String transaction = lines[i].trim();
+                lines[i] = null;
+                if (transaction.isEmpty() || transaction.startsWith("#")) {
+                    continue;
+                }
+
+                String rejection = apply(transaction);
+                results.append(lineNumber);
+                if (rejection == null) {
+                    applied++;
+                    results.append(" OK\n");
+                } else {
+                    rejected++;
+                    results.append(" REJECTED ").append(rejection).append('\n');
+                }
+            }
+
+            report.append(results);
+            results.setLength(0);
+        }
+
+        report.flush();
+        return new Summary(applied, rejected, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Parses and applies a single transaction.
+     * Also used by BankServer sessions, which speak the same line format.
+     * 
+     * @param transaction the transaction line, trimmed and non-empty
+     * @return null if the transaction was applied, otherwise the reason it was rejected
+     */
+    String apply(String transaction) {
+        if (!transaction.startsWith("@")) {
+            return applyTransaction(transaction);
+        }
+
+        int comma = transaction.indexOf(',');
+        if (comma < 0) {
+            return "expected a transaction after the request ID";
+        }
+        String requestId = transaction.substring(1, comma).trim();
+        if (requestId.isEmpty()) {
+            return "request ID cannot be empty";
+        }
+        String body = transaction.substring(comma + 1).trim();
+        try {
+            return bank.getIdempotencyCache().execute(requestId, body, "batch", () -> applyTransaction(body));
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Parses and applies a single transaction without a request ID.
+     * 
+     * @param transaction the transaction line, trimmed and non-empty
+     * @return null if the transaction was applied, otherwise the reason it was rejected
+     */
+    private String applyTransaction(String transaction) {
+        String[] fields = transaction.split(",");
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+
+        if (fields.length < 3) {
+            return "expected at least operation, account type and username";
+        }
+
+        String operation = fields[0];
+        String accountType = fields[1];
+        String userName = fields[2];
+        boolean isChecking;
+        if (BankingSystem.CHECKING.equals(accountType)) {
+            isChecking = true;
+        } else if (BankingSystem.SAVING.equals(accountType)) {
+            isChecking = false;
+        } else {
+            return "unknown account type " + accountType;
+        }
+        if (userName.isEmpty()) {
+            return "username cannot be empty";
+        }
+
+        try {
+            switch (operation) {
+                case "create":
+                    requireFields(fields, 3);
+                    return bank.createAccount(isChecking, userName + accountType) ? null : "account already exists";
+                case "deposit":
+                    requireFields(fields, 4);
+                    return deposit(getAccount(userName, isChecking), Money.parseCents(fields[3], MeteredOperation.DEPOSIT));
+                case "withdraw":
+                    requireFields(fields, 4);
+                    return withdraw(getAccount(userName, isChecking), Money.parseCents(fields[3], MeteredOperation.WITHDRAW));
+                case "depositCheck":
+                    requireFields(fields, 5);
+                    return depositCheck(getCheckingAccount(userName, isChecking), Money.parseCents(fields[3], MeteredOperation.DEPOSIT_CHECK),
+                            Integer.parseInt(fields[4]));
+                case "cashCheck":
+                    requireFields(fields, 5);
+                    return cashCheck(getCheckingAccount(userName, isChecking), Money.parseCents(fields[3], MeteredOperation.CASH_CHECK),
+                            Integer.parseInt(fields[4]));
+                case "interest":
+                    requireFields(fields, 3);
+                    return calculateInterest(getAccount(userName, isChecking));
+                case "transfer":
+                    requireFields(fields, 4);
+                    return bank.transferBetweenOwnAccountsCents(userName, isChecking, Money.parseCents(fields[3]))
+                            ? null : "insufficient funds";
+                default:
+                    return "unknown operation " + operation;
+            }
+        } catch (NumberFormatException e) {
+            return "invalid number: " + e.getMessage();
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Deposits into an account.
+     * 
+     * @param account the account, or null if it does not exist
+     * @param cents the amount to deposit in cents
+     * @return null if applied, otherwise the rejection reason
+     */
+    private String deposit(Account account, long cents) {
+        if (account == null) {
+            return "account not found";
+        }
+        account.depositCents(cents);
+        return null;
+    }
+
+    /**
+     * Withdraws from an account.
+     * 
+     * @param account the account, or null if it does not exist
+     * @param cents the amount to withdraw in cents
+     * @return null if applied, otherwise the rejection reason
+     */
+    private String withdraw(Account account, long cents) {
+        if (account == null) {
+            return "account not found";
+        }
+        return account.withdrawCents(cents) ? null : "insufficient funds";
+    }
+
+    /**
+     * Deposits a check into a checking account.
+     * 
+     * @param account the checking account, or null if it does not exist
+     * @param cents the amount on the check in cents
+     * @param checkNumber the check number
+     * @return null if applied, otherwise the rejection reason
+     */
+    private String depositCheck(CheckingAccount account, long cents, int checkNumber) {
+        if (account == null) {
+            return "checking account not found";
+        }
+        return account.depositCheckCents(cents, checkNumber) ? null : "check already processed";
+    }
+
+    /**
+     * Cashes a check from a checking account.
+     * 
+     * @param account the checking account, or null if it does not exist
+     * @param cents the amount on the check in cents
+     * @param checkNumber the check number
+     * @return null if applied, otherwise the rejection reason
+     */
+    private String cashCheck(CheckingAccount account, long cents, int checkNumber) {
+        if (account == null) {
+            return "checking account not found";
+        }
+        RejectionReason reason = account.tryCashCheckCents(cents, checkNumber);
+        if (reason == null) {
+            return null;
+        }
+        return reason == RejectionReason.DUPLICATE_CHECK ? "check already processed" : "insufficient funds";
+    }
+
+    /**
+     * Adds interest to an account.
+     * 
+     * @param account the account, or null if it does not exist
+     * @return null if applied, otherwise the rejection reason
+     */
+    private String calculateInterest(Account account) {
+        if (account == null) {
+            return "account not found";
+        }
+        account.calculateInterest();
+        return null;
+    }
+
+    /**
+     * Looks up one of a user's accounts through the AccountId cache. A user whose slot holds
+     * another user replaces it once the account is found; a missing account is not cached.
+     * 
+     * @param userName the username
+     * @param isChecking true for the checking account, false for the savings account
+     * @return the account, or null if it does not exist
+     */
+    private Account getAccount(String userName, boolean isChecking) {
+        int hash = userName.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (ID_CACHE_SLOTS - 1);
+        int type = isChecking ? 0 : 1;
+        AccountId[] ids = userName.equals(cachedUserNames[slot]) ? cachedIds[slot] : null;
+        AccountId id = ids == null ? null : ids[type];
+        if (id == null) {
+            id = bank.getAccountId(userName + (isChecking ? BankingSystem.CHECKING : BankingSystem.SAVING));
+            if (id == null) {
+                return null;
+            }
+            if (ids == null) {
+                ids = new AccountId[2];
+                cachedUserNames[slot] = userName;
+                cachedIds[slot] = ids;
+            }
+            ids[type] = id;
+        }
+        return bank.getAccount(id);
+    }
+
+    /**
+     * Looks up a user's checking account.
+     * 
+     * @param userName the username
+     * @param isChecking true if the transaction names a checking account
+     * @return the checking account, or null if it does not exist
+     */
+    private CheckingAccount getCheckingAccount(String userName, boolean isChecking) {
+        if (!isChecking) {
+            return null;
+        }
+        return (CheckingAccount) getAccount(userName, isChecking);
+    }
+
+    /**
+     * Checks that a transaction has the expected number of fields.
+     * 
+     * @param fields the transaction fields
+     * @param expected the expected number of fields
+     * @throws IllegalArgumentException if the number of fields does not match
+     */
+    private static void requireFields(String[] fields, int expected) {
+        if (fields.length != expected) {
+            throw new IllegalArgumentException("expected " + expected + " fields but found " + fields.length);
+        }
+    }
+
+    /**
+     * Result of a batch run.
+     */
+    public static final class Summary {
+        private final long applied;
+        private final long rejected;
+        private final long elapsedNanos;
+
+        /**
+         * Constructs a summary.
+         * 
+         * @param applied the number of transactions applied
+         * @param rejected the number of transactions rejected
+         * @param elapsedNanos the wall-clock duration of the run in nanoseconds
+         */
+        Summary(long applied, long rejected, long elapsedNanos) {
+            this.applied = applied;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the number of transactions applied.
+         * 
+         * @return the number of applied transactions
+         */
+        public long getApplied() {
+            return applied;
+        }
+
+        /**
+         * Returns the number of transactions rejected.
+         * 
+         * @return the number of rejected transactions
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * Returns the wall-clock duration of the run.
+         * 
+         * @return the duration in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Returns the number of transactions processed per second.
+         * 
+         * @return the throughput in transactions per second
+         */
+        public double getThroughput() {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            return (applied + rejected) / seconds;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return String.format("Processed %d transactions (%d applied, %d rejected) in %.3f s, %.0f transactions/s",
+                    applied + rejected, applied, rejected, elapsedNanos / 1e9, getThroughput());
+        }
+    }
+}
@@ -0,0 +1,309 @@
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Staged clearing of deposited checks: intake, duplicate screening, hold and settlement.
+ * 
+ * Intake only appends the check to a lock-free queue, so depositing a check never touches
+ * the account. A single clearing thread drains the queue in batches of up to
+ * {@link #MAX_BATCH} checks, groups them by account and screens each group against the
+ * account's processed check numbers under one acquisition of the account lock. Checks
+ * that pass are added to the account's pending balance and journaled, and the batch waits
+ * for the journal once before the depositors' futures complete.
+ * 
+ * Held checks wait in a queue ordered by release time. Every settlement interval the
+ * clearing thread takes all holds that are due, groups them by account and moves each
+ * account's total from pending to available in a single credit. However many checks an
+ * account receives, its available balance, version stamp and balance index entry change
+ * once per settlement rather than once per check.
+ * 
+ * Holds do not survive a restart individually: the journal and snapshots keep each
+ * account's pending total, and holds recovered that way are released one hold period
+ * after clearing is enabled again.
+ */
+final class CheckClearing implements Closeable {
+    /** Maximum number of checks screened per batch. */
+    static final int MAX_BATCH = 4096;
+
+    private static final Comparator<Deposit> BY_ACCOUNT = Comparator.comparingLong(deposit -> deposit.account.getLockOrder());
+
+    private final long holdNanos;
+    private final long settlementIntervalNanos;
+    private final TransactionJournal journal;
+    private final ConcurrentLinkedQueue<Deposit> intake = new ConcurrentLinkedQueue<>();
+    private final Deposit[] batch = new Deposit[MAX_BATCH];
+    private final ArrayDeque<Deposit> holds = new ArrayDeque<>();
+    private final List<Deposit> due = new ArrayList<>();
+    private final Thread clearer;
+    private volatile boolean parked;
+    private volatile boolean closed;
+
+    /**
+     * Constructs the pipeline and starts its clearing thread.
+     * 
+     * @param holdNanos how long a check is held before it can be settled
+     * @param settlementIntervalNanos time between settlements
+     * @param journal the journal of the bank, or null if it is not journaled
+     * @param recovered accounts with a pending balance from before a restart, held again for one hold period
+     */
+    CheckClearing(long holdNanos, long settlementIntervalNanos, TransactionJournal journal, List<CheckingAccount> recovered) {
+        this.holdNanos = holdNanos;
+        this.settlementIntervalNanos = settlementIntervalNanos;
+        this.journal = journal;
+        long releaseNanos = System.nanoTime() + holdNanos;
+        for (CheckingAccount account : recovered) {
+            Deposit deposit = new Deposit(account, account.getPendingCents(), 0, true);
+            deposit.releaseNanos = releaseNanos;
+            holds.add(deposit);
+        }
+        clearer = new Thread(this::run, "bank-check-clearing");
+        clearer.setDaemon(true);
+        clearer.start();
+    }
+
+    /**
+     * Queues a check for clearing.
+     * 
+     * @param account the checking account to deposit into
+     * @param cents the amount of the check, in cents
+     * @param checkNumber the check number
+     * @return a future completed once the check is screened and, if held, journaled
+     * @throws IllegalStateException if the pipeline is closed
+     */
+    CompletableFuture<OperationResult> submit(CheckingAccount account, long cents, int checkNumber) {
+        if (closed) {
+            throw new IllegalStateException("Check clearing is closed");
+        }
+        Deposit deposit = new Deposit(account, cents, checkNumber, false);
+        intake.offer(deposit);
+        if (closed && intake.remove(deposit)) {
+            deposit.completeExceptionally(new IllegalStateException("Check clearing is closed"));
+        } else if (parked) {
+            LockSupport.unpark(clearer);
+        }
+        return deposit;
+    }
+
+    /**
+     * Stops the clearing thread after it has screened the checks already queued. Holds that
+     * are not yet due stay pending.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(clearer);
+        boolean interrupted = false;
+        while (clearer.isAlive()) {
+            try {
+                clearer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        // Checks queued by callers that raced with close are rejected.
+        Deposit deposit;
+        while ((deposit = intake.poll()) != null) {
+            deposit.completeExceptionally(new IllegalStateException("Check clearing is closed"));
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of the clearing thread: screens queued checks as they arrive and settles due
+     * holds once per settlement interval, parking when there is nothing to do.
+     */
+    private void run() {
+        long nextSettlementNanos = System.nanoTime() + settlementIntervalNanos;
+        while (true) {
+            boolean closing = closed;
+            int size = 0;
+            Deposit deposit;
+            while (size < MAX_BATCH && (deposit = intake.poll()) != null) {
+                batch[size++] = deposit;
+            }
+            if (size > 0) {
+                screen(size);
+            }
+
+            long now = System.nanoTime();
+            if (now - nextSettlementNanos >= 0) {
+                settle(now);
+                nextSettlementNanos = now + settlementIntervalNanos;
+            }
+            if (size == MAX_BATCH) {
+                continue;
+            }
+            if (closing) {
+                return;
+            }
+            // Depositors check the flag after queueing, so a check queued after the
+            // emptiness check below finds it set and unparks the thread.
+            parked = true;
+            if (intake.isEmpty() && !closed) {
+                LockSupport.parkNanos(this, nextSettlementNanos - System.nanoTime());
+            }
+            parked = false;
+        }
+    }
+
+    /**
+     * Screens a batch of checks one account at a time, holds the checks that pass, waits
+     * for their journal records and completes the depositors' futures.
+     * 
+     * @param size the number of checks in the batch
+     */
+    private void screen(int size) {
+        // The sort is stable, so checks reusing a number are screened in arrival order.
+        Arrays.sort(batch, 0, size, BY_ACCOUNT);
+        long journalPosition = 0;
+        for (int from = 0; from < size; ) {
+            CheckingAccount account = batch[from].account;
+            int to = from + 1;
+            while (to < size && batch[to].account == account) {
+                to++;
+            }
+            try {
+                journalPosition = Math.max(journalPosition, account.holdChecks(batch, from, to));
+            } catch (RuntimeException e) {
+                // Checks held before the failure may never have their journal records made
+                // durable, so they fail and their holds are taken back.
+                for (int i = from; i < to; i++) {
+                    if (batch[i].held || !batch[i].screened) {
+                        batch[i].failure = e;
+                    }
+                }
+                account.cancelHolds(batch, from, to);
+            }
+            long availableCents = account.getRecordedBalanceCents();
+            for (int i = from; i < to; i++) {
+                batch[i].result = batch[i].held
+                        ? OperationResult.applied(availableCents)
+                        : OperationResult.rejected(RejectionReason.DUPLICATE_CHECK, availableCents);
+            }
+            from = to;
+        }
+
+        RuntimeException batchFailure = null;
+        if (journalPosition != 0) {
+            try {
+                journal.awaitDurable(journalPosition);
+            } catch (RuntimeException e) {
+                batchFailure = e;
+                for (int from = 0; from < size; ) {
+                    CheckingAccount account = batch[from].account;
+                    int to = from + 1;
+                    while (to < size && batch[to].account == account) {
+                        to++;
+                    }
+                    account.cancelHolds(batch, from, to);
+                    from = to;
+                }
+            }
+        }
+
+        // A check whose durability failed is reported as failed and its hold was taken back
+        // above, so it is not paid and can be deposited again.
+        long releaseNanos = System.nanoTime() + holdNanos;
+        for (int i = 0; i < size; i++) {
+            Deposit deposit = batch[i];
+            batch[i] = null;
+            if (deposit.failure != null) {
+                deposit.completeExceptionally(deposit.failure);
+            } else if (batchFailure != null) {
+                deposit.completeExceptionally(batchFailure);
+            } else {
+                if (deposit.held) {
+                    deposit.releaseNanos = releaseNanos;
+                    holds.add(deposit);
+                }
+                deposit.complete(deposit.result);
+                if (!deposit.held) {
+                    TransactionEvents.publish(TransactionEventType.DUPLICATE_CHECK,
+                            deposit.account.getAccountTypeName(), deposit.cents, deposit.checkNumber, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases every hold that is due, crediting each account once for all of its checks.
+     * The journal is not waited for: a release lost in a crash leaves the checks pending,
+     * and they are released again after the restart. If an account cannot be settled, the
+     * failure is reported and its holds are kept for the next settlement; other accounts
+     * are settled regardless.
+     * 
+     * @param now the current time, from System.nanoTime
+     */
+    private void settle(long now) {
+        while (!holds.isEmpty() && now - holds.peekFirst().releaseNanos >= 0) {
+            due.add(holds.pollFirst());
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        due.sort(BY_ACCOUNT);
+        for (int from = 0; from < due.size(); ) {
+            CheckingAccount account = due.get(from).account;
+            int to = from + 1;
+            while (to < due.size() && due.get(to).account == account) {
+                to++;
+            }
+            try {
+                account.releaseHolds(due, from, to);
+                for (int i = from; i < to; i++) {
+                    Deposit deposit = due.get(i);
+                    if (!deposit.recovered) {
+                        TransactionEvents.publish(TransactionEventType.CHECK_DEPOSITED,
+                                account.getAccountTypeName(), deposit.cents, deposit.checkNumber, null);
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Check settlement failed for " + (to - from) + " checks: " + e);
+                for (int i = from; i < to; i++) {
+                    holds.addFirst(due.get(i));
+                }
+            }
+            from = to;
+        }
+        due.clear();
+    }
+
+    /**
+     * One check going through the pipeline, completed with its screening result.
+     */
+    static final class Deposit extends CompletableFuture<OperationResult> {
+        final CheckingAccount account;
+        final long cents;
+        final int checkNumber;
+        final boolean recovered;
+        boolean screened;
+        boolean held;
+        private OperationResult result;
+        private RuntimeException failure;
+        private long releaseNanos;
+
+        /**
+         * Constructs a deposit.
+         * 
+         * @param account the checking account to deposit into
+         * @param cents the amount of the check, in cents
+         * @param checkNumber the check number
+         * @param recovered true for the pending balance of an account recovered after a restart
+         */
+        Deposit(CheckingAccount account, long cents, int checkNumber, boolean recovered) {
+            this.account = account;
+            this.cents = cents;
+            this.checkNumber = checkNumber;
+            this.recovered = recovered;
+        }
+    }
+}
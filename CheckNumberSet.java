@@ -0,0 +1,280 @@
+import java.util.Arrays;
+
+/**
+ * Compact set of primitive int check numbers.
+ * 
+ * Check numbers are split into chunks of 4096 consecutive values. Each chunk starts as a
+ * small sorted array and switches to a 4096-bit bitmap once it holds more than
+ * {@value #SPARSE_LIMIT} numbers, so mostly sequential check numbers cost about one bit
+ * each while scattered ones stay cheap too. Chunks are found through an open-addressing
+ * hash table keyed by the high bits of the check number, which gives constant-time
+ * lookups and inserts without boxing.
+ * This class is not thread-safe; callers must synchronize externally.
+ */
+public final class CheckNumberSet {
+    private static final int CHUNK_BITS = 12;
+    private static final int OFFSET_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int BITMAP_WORDS = (1 << CHUNK_BITS) / Long.SIZE;
+    private static final int SPARSE_LIMIT = 64;
+    private static final int INITIAL_SPARSE_CAPACITY = 4;
+    private static final int INITIAL_TABLE_CAPACITY = 4;
+
+    private int[] chunkKeys;
+    private Object[] chunks;
+    private int[] chunkSizes;
+    private int chunkCount;
+    private int size;
+
+    /**
+     * Constructs an empty check number set.
+     */
+    public CheckNumberSet() {
+        this.chunkKeys = new int[INITIAL_TABLE_CAPACITY];
+        this.chunks = new Object[INITIAL_TABLE_CAPACITY];
+        this.chunkSizes = new int[INITIAL_TABLE_CAPACITY];
+    }
+
+    /**
+     * Checks if a check number is in the set.
+     * 
+     * @param checkNumber the check number to look up
+     * @return true if the check number has been added, false otherwise
+     */
+    public boolean contains(int checkNumber) {
+        int slot = findSlot(checkNumber >> CHUNK_BITS);
+        if (slot < 0) {
+            return false;
+        }
+
+        int offset = checkNumber & OFFSET_MASK;
+        Object chunk = chunks[slot];
+        if (chunk instanceof long[]) {
+            return (((long[]) chunk)[offset >>> 6] & (1L << offset)) != 0;
+        }
+        return Arrays.binarySearch((short[]) chunk, 0, chunkSizes[slot], (short) offset) >= 0;
+    }
+
+    /**
+     * Adds a check number to the set.
+     * 
+     * @param checkNumber the check number to add
+     * @return true if the check number was added, false if it was already present
+     */
+    public boolean add(int checkNumber) {
+        int key = checkNumber >> CHUNK_BITS;
+        int slot = findSlot(key);
+        if (slot < 0) {
+            slot = insertChunk(key);
+        }
+
+        int offset = checkNumber & OFFSET_MASK;
+        Object chunk = chunks[slot];
+        if (chunk instanceof long[]) {
+            long[] bits = (long[]) chunk;
+            long mask = 1L << offset;
+            if ((bits[offset >>> 6] & mask) != 0) {
+                return false;
+            }
+            bits[offset >>> 6] |= mask;
+        } else if (!addSparse(slot, (short[]) chunk, (short) offset)) {
+            return false;
+        }
+
+        chunkSizes[slot]++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a check number from the set. Chunks are kept even when they become empty,
+     * since removals are rare.
+     * 
+     * @param checkNumber the check number to remove
+     * @return true if the check number was removed, false if it was not present
+     */
+    public boolean remove(int checkNumber) {
+        int slot = findSlot(checkNumber >> CHUNK_BITS);
+        if (slot < 0) {
+            return false;
+        }
+
+        int offset = checkNumber & OFFSET_MASK;
+        Object chunk = chunks[slot];
+        if (chunk instanceof long[]) {
+            long[] bits = (long[]) chunk;
+            long mask = 1L << offset;
+            if ((bits[offset >>> 6] & mask) == 0) {
+                return false;
+            }
+            bits[offset >>> 6] &= ~mask;
+        } else {
+            short[] values = (short[]) chunk;
+            int count = chunkSizes[slot];
+            int index = Arrays.binarySearch(values, 0, count, (short) offset);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(values, index + 1, values, index, count - index - 1);
+        }
+
+        chunkSizes[slot]--;
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns the number of check numbers in the set.
+     * 
+     * @return the number of check numbers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns all check numbers in the set, grouped by chunk but in no particular overall order.
+     * 
+     * @return a new array holding every check number
+     */
+    public int[] toArray() {
+        int[] values = new int[size];
+        int index = 0;
+        for (int slot = 0; slot < chunks.length; slot++) {
+            Object chunk = chunks[slot];
+            if (chunk == null) {
+                continue;
+            }
+            int base = chunkKeys[slot] << CHUNK_BITS;
+            if (chunk instanceof long[]) {
+                long[] bits = (long[]) chunk;
+                for (int word = 0; word < bits.length; word++) {
+                    long remaining = bits[word];
+                    while (remaining != 0) {
+                        values[index++] = base | (word << 6) | Long.numberOfTrailingZeros(remaining);
+                        remaining &= remaining - 1;
+                    }
+                }
+            } else {
+                short[] offsets = (short[]) chunk;
+                for (int i = 0; i < chunkSizes[slot]; i++) {
+                    values[index++] = base | offsets[i];
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Inserts an offset into a sparse chunk, growing it or converting it to a bitmap as needed.
+     * Does not update the chunk size.
+     * 
+     * @param slot the table slot of the chunk
+     * @param values the sorted offsets of the chunk
+     * @param offset the offset to insert
+     * @return true if the offset was inserted, false if it was already present
+     */
+    private boolean addSparse(int slot, short[] values, short offset) {
+        int count = chunkSizes[slot];
+        int index = Arrays.binarySearch(values, 0, count, offset);
+        if (index >= 0) {
+            return false;
+        }
+
+        if (count == SPARSE_LIMIT) {
+            long[] bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < count; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            bits[offset >>> 6] |= 1L << offset;
+            chunks[slot] = bits;
+            return true;
+        }
+
+        int insertAt = -index - 1;
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+            chunks[slot] = values;
+        }
+        System.arraycopy(values, insertAt, values, insertAt + 1, count - insertAt);
+        values[insertAt] = offset;
+        return true;
+    }
+
+    /**
+     * Finds the table slot holding a chunk.
+     * 
+     * @param key the chunk key
+     * @return the slot index, or -1 if there is no such chunk
+     */
+    private int findSlot(int key) {
+        int mask = chunks.length - 1;
+        for (int slot = hash(key) & mask; chunks[slot] != null; slot = (slot + 1) & mask) {
+            if (chunkKeys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts a new empty chunk, resizing the table when it is half full.
+     * 
+     * @param key the chunk key, which must not already be present
+     * @return the slot index of the new chunk
+     */
+    private int insertChunk(int key) {
+        if ((chunkCount + 1) * 2 > chunks.length) {
+            resize(chunks.length * 2);
+        }
+
+        int mask = chunks.length - 1;
+        int slot = hash(key) & mask;
+        while (chunks[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        chunkKeys[slot] = key;
+        chunks[slot] = new short[INITIAL_SPARSE_CAPACITY];
+        chunkSizes[slot] = 0;
+        chunkCount++;
+        return slot;
+    }
+
+    /**
+     * Rehashes all chunks into a larger table.
+     * 
+     * @param capacity the new table capacity, a power of two
+     */
+    private void resize(int capacity) {
+        int[] oldKeys = chunkKeys;
+        Object[] oldChunks = chunks;
+        int[] oldSizes = chunkSizes;
+        chunkKeys = new int[capacity];
+        chunks = new Object[capacity];
+        chunkSizes = new int[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldChunks.length; i++) {
+            if (oldChunks[i] == null) {
+                continue;
+            }
+            int slot = hash(oldKeys[i]) & mask;
+            while (chunks[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            chunkKeys[slot] = oldKeys[i];
+            chunks[slot] = oldChunks[i];
+            chunkSizes[slot] = oldSizes[i];
+        }
+    }
+
+    /**
+     * Spreads a chunk key over the table.
+     * 
+     * @param key the chunk key
+     * @return the hash of the key
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
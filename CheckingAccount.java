@@ -1,23 +1,30 @@
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
  * Class representing a checking account.
  * Implements the Account interface and provides additional check-related functionality.
+ * All balance and check operations are synchronized on the account, so concurrent
+ * callers never lose updates.
+ * 
+ * Checks deposited through a bank's CheckClearing are held before they count towards the
+ * balance: while held, their amount is part of the pending balance, and the balance
+ * itself is the available balance that withdrawals and cashed checks draw on.
  */
-public class CheckingAccount implements Account{
-    private BigDecimal balance;
-    private static final BigDecimal INTEREST_RATE = new BigDecimal("0.0");
-    private List<Integer> processedChecks;
+public class CheckingAccount extends AbstractAccount {
+    static final BigDecimal INTEREST_RATE = new BigDecimal("0.0");
+    private final CheckNumberSet processedChecks;
+    private long pendingCents;
 
     /**
      * Constructs a new checking account with zero balance.
      */
     public CheckingAccount() {
-        this.balance = BigDecimal.ZERO;
-        processedChecks = new ArrayList<>();
+        super();
+        processedChecks = new CheckNumberSet();
     }
 
     /**
@@ -27,95 +34,263 @@ public class CheckingAccount implements Account{
      * @throws IllegalArgumentException if balance is negative
      */
     public CheckingAccount(double balance) {
+        super(requireNonNegative(balance));
+        processedChecks = new CheckNumberSet();
+    }
+
+    /**
+     * Constructs a new checking account with an initial balance in exact cents.
+     * 
+     * @param balanceCents the initial balance in cents
+     */
+    private CheckingAccount(long balanceCents) {
+        super(balanceCents);
+        processedChecks = new CheckNumberSet();
+    }
+
+    /**
+     * Creates a checking account with an initial balance in exact cents, without the
+     * rounding of the double constructor.
+     * 
+     * @param balanceCents the initial balance in cents
+     * @return the new account
+     * @throws IllegalArgumentException if balanceCents is negative
+     */
+    static CheckingAccount withBalanceCents(long balanceCents) {
+        if (balanceCents < 0) {
+            throw new IllegalArgumentException("Balance cannot be negative");
+        }
+        return new CheckingAccount(balanceCents);
+    }
+
+    /**
+     * Validates an initial balance before it is handed to the base class.
+     * 
+     * @param balance the initial balance
+     * @return the balance unchanged
+     * @throws IllegalArgumentException if balance is negative
+     */
+    private static double requireNonNegative(double balance) {
         if (balance < 0) {
             throw new IllegalArgumentException("Balance cannot be negative");
         }
-        this.balance = new BigDecimal(String.valueOf(balance));
-        processedChecks = new ArrayList<>();
+        return balance;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getAccountTypeName() {
+        return "Checking Account";
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void deposit(double amount) throws IllegalArgumentException{
+    protected BigDecimal getInterestRate() {
+        return INTEREST_RATE;
+    }
+
+    /**
+     * Deposits a check into the account.
+     * 
+     * @param amount the amount on the check
+     * @param checkNumber the unique identifier for the check
+     * @return true if check was deposited, false if it has already been processed
+     * @throws IllegalArgumentException if amount is negative or has more than two decimal places
+     */
+    public boolean depositCheck(double amount, int checkNumber) throws IllegalArgumentException {
         if (amount < 0) {
+            Metrics.reject(MeteredOperation.DEPOSIT_CHECK, RejectionReason.NEGATIVE_AMOUNT);
             throw new IllegalArgumentException("Deposit amount cannot be negative");
         }
+
         if (hasMoreThanTwoDecimalPlaces(amount)) {
+            Metrics.reject(MeteredOperation.DEPOSIT_CHECK, RejectionReason.BAD_SCALE);
             throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
         }
 
-        this.balance = balance.add(new BigDecimal(String.valueOf(amount)));
-        System.out.println("Deposited $" + amount + " into Checking Account");
+        return depositCheckCents(Money.toCents(amount), checkNumber);
     }
 
     /**
-     * {@inheritDoc}
+     * Deposits a check for an exact amount of cents into the account.
+     * 
+     * @param depositCents the amount on the check in cents
+     * @param checkNumber the unique identifier for the check
+     * @return true if check was deposited, false if it has already been processed
+     * @throws IllegalArgumentException if amount is negative
      */
-    @Override
-    public boolean withdraw(double amount) throws IllegalArgumentException{
-        if (amount < 0) {
-            throw new IllegalArgumentException("Withdraw amount cannot be negative");
+    public boolean depositCheckCents(long depositCents, int checkNumber) throws IllegalArgumentException {
+        if (depositCents < 0) {
+            Metrics.reject(MeteredOperation.DEPOSIT_CHECK, RejectionReason.NEGATIVE_AMOUNT);
+            throw new IllegalArgumentException("Deposit amount cannot be negative");
         }
 
-        if (hasMoreThanTwoDecimalPlaces(amount)) {
-            throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
-        }
+        long startNanos = Metrics.start();
+        long journalPosition;
+        synchronized (this) {
+            accrueDailyInterest();
+            if (processedChecks.contains(checkNumber)) {
+                TransactionEvents.publish(TransactionEventType.DUPLICATE_CHECK, getAccountTypeName(), depositCents, checkNumber, null);
+                Metrics.reject(MeteredOperation.DEPOSIT_CHECK, RejectionReason.DUPLICATE_CHECK);
+                Metrics.record(MeteredOperation.DEPOSIT_CHECK, startNanos);
+                return false;
+            }
 
-        BigDecimal withdrawAmount = new BigDecimal(String.valueOf(amount));
-        if (withdrawAmount.compareTo(balance) > 0) {
-            System.out.println("Insufficient funds");
-            return false;
-        } else {
-            this.balance = balance.subtract(withdrawAmount);
-            System.out.println("Withdrawn $" + amount + " from Checking Account");
-            return true;
+            credit(depositCents);
+            try {
+                journalPosition = journalCheck(TransactionJournal.DEPOSIT_CHECK, depositCents, checkNumber);
+            } catch (RuntimeException e) {
+                debit(depositCents);
+                throw e;
+            }
+            processedChecks.add(checkNumber);
+            recordHistory(TransactionEventType.CHECK_DEPOSITED, depositCents, checkNumber);
         }
+        awaitDurable(journalPosition);
+        TransactionEvents.publish(TransactionEventType.CHECK_DEPOSITED, getAccountTypeName(), depositCents, checkNumber, null);
+        Metrics.record(MeteredOperation.DEPOSIT_CHECK, startNanos);
+        return true;
     }
 
     /**
-     * {@inheritDoc}
+     * Deposits a check for an exact amount of cents, at most once per request ID.
+     * 
+     * @param depositCents the amount on the check in cents
+     * @param checkNumber the unique identifier for the check
+     * @param requestId the client's request ID, unique within the bank, or null to deposit unconditionally
+     * @return true if check was deposited, false if it has already been processed; a retry returns the original result
+     * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if a request ID is given for an account that does not belong to a bank
+     * @throws IllegalArgumentException if the request ID was used for another account or operation
      */
-    @Override
-    public void calculateInterest() {
-        BigDecimal interest = balance.multiply(INTEREST_RATE);
-        this.balance = balance.add(interest);
-        System.out.println("Added interest of $" + interest.setScale(2, RoundingMode.HALF_UP) + " to Checking Account with interest rate " + INTEREST_RATE.multiply(new BigDecimal("100")) + "%");
+    public boolean depositCheckCents(long depositCents, int checkNumber, String requestId) {
+        return deduplicate(requestId, "depositCheck", () -> depositCheckCents(depositCents, checkNumber));
     }
 
     /**
-     * {@inheritDoc}
+     * Checks if a check number has already been deposited or cashed on this account.
+     * 
+     * @param checkNumber the unique identifier for the check
+     * @return true if the check has already been processed, false otherwise
      */
-    @Override
-    public BigDecimal getBalance() {
-        return balance.setScale(2, RoundingMode.HALF_UP);
+    public synchronized boolean hasProcessedCheck(int checkNumber) {
+        return processedChecks.contains(checkNumber);
     }
 
     /**
-     * Deposits a check into the account.
+     * Returns the total of the checks held by check clearing and not yet settled. The
+     * amount does not count towards the balance until the checks are settled.
      * 
-     * @param amount the amount on the check
-     * @param checkNumber the unique identifier for the check
-     * @throws IllegalArgumentException if amount is negative or has more than two decimal places
+     * @return the pending balance in cents
      */
-    public void depositCheck(double amount, int checkNumber) throws IllegalArgumentException {
-        if (amount < 0) {
-            throw new IllegalArgumentException("Deposit amount cannot be negative");
+    public synchronized long getPendingCents() {
+        return pendingCents;
+    }
+
+    /**
+     * Returns the total of the checks held by check clearing and not yet settled.
+     * 
+     * @return the pending balance
+     */
+    public BigDecimal getPendingBalance() {
+        return Money.toBigDecimal(getPendingCents());
+    }
+
+    /**
+     * Screens a group of checks deposited into this account against the processed check
+     * numbers and holds the new ones, under a single acquisition of the account lock.
+     * Sets {@link CheckClearing.Deposit#screened} on every check that was screened and
+     * {@link CheckClearing.Deposit#held} on every check that was held. A check is journaled
+     * before it is held, so if the journal fails, exactly the checks marked held are held.
+     * 
+     * @param deposits the checks being cleared
+     * @param from the index of the first check of this account
+     * @param to the index just past the last check of this account
+     * @return the journal position to wait for, or 0 if nothing was journaled
+     * @throws ArithmeticException if the pending balance could overflow; no check is held then
+     * @throws UncheckedIOException if the journal failed; checks before the failing one are held
+     */
+    synchronized long holdChecks(CheckClearing.Deposit[] deposits, int from, int to) {
+        long maxPendingCents = pendingCents;
+        for (int i = from; i < to; i++) {
+            maxPendingCents = Math.addExact(maxPendingCents, deposits[i].cents);
         }
 
-        if (hasMoreThanTwoDecimalPlaces(amount)) {
-            throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
+        long journalPosition = 0;
+        for (int i = from; i < to; i++) {
+            CheckClearing.Deposit deposit = deposits[i];
+            if (processedChecks.contains(deposit.checkNumber)) {
+                Metrics.reject(MeteredOperation.DEPOSIT_CHECK, RejectionReason.DUPLICATE_CHECK);
+                deposit.screened = true;
+                continue;
+            }
+            journalPosition = journalCheck(TransactionJournal.HOLD_CHECK, deposit.cents, deposit.checkNumber);
+            processedChecks.add(deposit.checkNumber);
+            pendingCents += deposit.cents;
+            deposit.screened = true;
+            deposit.held = true;
         }
+        return journalPosition;
+    }
 
-        if (processedChecks.contains(checkNumber)) {
-            System.out.println("This deposit check #" + checkNumber + " has already been processed.");
-            return;
+    /**
+     * Takes back the holds of checks whose journal records may not be durable: their amount
+     * leaves the pending balance and their numbers can be deposited again. Clears
+     * {@link CheckClearing.Deposit#held} on every check that was held.
+     * 
+     * @param deposits the checks being cleared
+     * @param from the index of the first check of this account
+     * @param to the index just past the last check of this account
+     */
+    synchronized void cancelHolds(CheckClearing.Deposit[] deposits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            CheckClearing.Deposit deposit = deposits[i];
+            if (deposit.held) {
+                pendingCents -= deposit.cents;
+                processedChecks.remove(deposit.checkNumber);
+                deposit.held = false;
+            }
         }
+    }
 
-        processedChecks.add(checkNumber);
-        this.balance = balance.add(new BigDecimal(String.valueOf(amount)));
-        System.out.println("Deposited check #" + checkNumber + " for $" + amount + " into Checking Account");
+    /**
+     * Settles a group of held checks, moving their total from the pending to the available
+     * balance with a single credit. Either every check of the group is settled or, if the
+     * credit or the journal fails, none is.
+     * 
+     * @param deposits the checks being settled
+     * @param from the index of the first check of this account
+     * @param to the index just past the last check of this account
+     * @return the journal position of the release, or 0 if the account is not journaled
+     * @throws ArithmeticException if the balance would overflow
+     * @throws UncheckedIOException if the journal failed
+     */
+    synchronized long releaseHolds(List<CheckClearing.Deposit> deposits, int from, int to) {
+        accrueDailyInterest();
+        long cents = 0;
+        for (int i = from; i < to; i++) {
+            cents = Math.addExact(cents, deposits.get(i).cents);
+        }
+        credit(cents);
+        long journalPosition;
+        try {
+            journalPosition = journal(TransactionJournal.RELEASE_HOLDS, cents);
+        } catch (RuntimeException e) {
+            debit(cents);
+            throw e;
+        }
+        pendingCents -= cents;
+        for (int i = from; i < to; i++) {
+            CheckClearing.Deposit deposit = deposits.get(i);
+            if (!deposit.recovered) {
+                recordHistory(TransactionEventType.CHECK_DEPOSITED, deposit.cents, deposit.checkNumber);
+            }
+        }
+        return journalPosition;
     }
 
     /**
@@ -128,27 +303,110 @@ public class CheckingAccount implements Account{
      */
     public boolean cashCheck(double amount, int checkNumber) throws IllegalArgumentException{
         if (amount < 0) {
+            Metrics.reject(MeteredOperation.CASH_CHECK, RejectionReason.NEGATIVE_AMOUNT);
             throw new IllegalArgumentException("Withdraw amount cannot be negative");
         }
 
         if (hasMoreThanTwoDecimalPlaces(amount)) {
+            Metrics.reject(MeteredOperation.CASH_CHECK, RejectionReason.BAD_SCALE);
             throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
         }
 
-        if (processedChecks.contains(checkNumber)) {
-            System.out.println("This deposit check #" + checkNumber + " has already been processed.");
-            return false;
+        return cashCheckCents(Money.toCents(amount), checkNumber);
+    }
+
+    /**
+     * Cashes a check for an exact amount of cents from the account.
+     * 
+     * @param withdrawCents the amount on the check in cents
+     * @param checkNumber the unique identifier for the check
+     * @return true if check was cashed successfully, false otherwise
+     * @throws IllegalArgumentException if amount is negative
+     */
+    public boolean cashCheckCents(long withdrawCents, int checkNumber) throws IllegalArgumentException {
+        return tryCashCheckCents(withdrawCents, checkNumber) == null;
+    }
+
+    /**
+     * Cashes a check for an exact amount of cents from the account, reporting why it was
+     * not cashed.
+     * 
+     * @param withdrawCents the amount on the check in cents
+     * @param checkNumber the unique identifier for the check
+     * @return null if the check was cashed, otherwise DUPLICATE_CHECK or INSUFFICIENT_FUNDS
+     * @throws IllegalArgumentException if amount is negative
+     */
+    RejectionReason tryCashCheckCents(long withdrawCents, int checkNumber) {
+        if (withdrawCents < 0) {
+            Metrics.reject(MeteredOperation.CASH_CHECK, RejectionReason.NEGATIVE_AMOUNT);
+            throw new IllegalArgumentException("Withdraw amount cannot be negative");
+        }
+
+        long startNanos = Metrics.start();
+        long journalPosition;
+        boolean cashed;
+        synchronized (this) {
+            accrueDailyInterest();
+            if (processedChecks.contains(checkNumber)) {
+                TransactionEvents.publish(TransactionEventType.DUPLICATE_CHECK, getAccountTypeName(), withdrawCents, checkNumber, null);
+                Metrics.reject(MeteredOperation.CASH_CHECK, RejectionReason.DUPLICATE_CHECK);
+                Metrics.record(MeteredOperation.CASH_CHECK, startNanos);
+                return RejectionReason.DUPLICATE_CHECK;
+            }
+
+            cashed = hasFunds(withdrawCents);
+            if (cashed) {
+                debit(withdrawCents);
+                try {
+                    journalPosition = journalCheck(TransactionJournal.CASH_CHECK, withdrawCents, checkNumber);
+                } catch (RuntimeException e) {
+                    credit(withdrawCents);
+                    throw e;
+                }
+                recordHistory(TransactionEventType.CHECK_CASHED, withdrawCents, checkNumber);
+            } else {
+                journalPosition = journalCheck(TransactionJournal.REJECT_CHECK, withdrawCents, checkNumber);
+            }
+            processedChecks.add(checkNumber);
         }
+        awaitDurable(journalPosition);
 
-        processedChecks.add(checkNumber);
-        BigDecimal withdrawAmount = new BigDecimal(String.valueOf(amount));
-        if (withdrawAmount.compareTo(balance) > 0) {
-            System.out.println("Insufficient funds");
-            return false;
+        Metrics.record(MeteredOperation.CASH_CHECK, startNanos);
+        if (!cashed) {
+            TransactionEvents.publish(TransactionEventType.INSUFFICIENT_FUNDS, getAccountTypeName(), withdrawCents, checkNumber, null);
+            Metrics.reject(MeteredOperation.CASH_CHECK, RejectionReason.INSUFFICIENT_FUNDS);
+            return RejectionReason.INSUFFICIENT_FUNDS;
         } else {
-            this.balance = balance.subtract(withdrawAmount);
-            System.out.println("Cashed check #" + checkNumber + " for $" + amount + " from Checking Account");
-            return true;
+            TransactionEvents.publish(TransactionEventType.CHECK_CASHED, getAccountTypeName(), withdrawCents, checkNumber, null);
+            return null;
+        }
+    }
+
+    /**
+     * Cashes a check for an exact amount of cents, at most once per request ID.
+     * 
+     * @param withdrawCents the amount on the check in cents
+     * @param checkNumber the unique identifier for the check
+     * @param requestId the client's request ID, unique within the bank, or null to cash unconditionally
+     * @return true if check was cashed successfully, false otherwise; a retry returns the original result
+     * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if a request ID is given for an account that does not belong to a bank
+     * @throws IllegalArgumentException if the request ID was used for another account or operation
+     */
+    public boolean cashCheckCents(long withdrawCents, int checkNumber, String requestId) {
+        return deduplicate(requestId, "cashCheck", () -> cashCheckCents(withdrawCents, checkNumber));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void writeSnapshotState(DataOutput out) throws IOException {
+        out.writeLong(pendingCents);
+        int[] checkNumbers = processedChecks.toArray();
+        out.writeInt(checkNumbers.length);
+        for (int checkNumber : checkNumbers) {
+            out.writeInt(checkNumber);
         }
     }
 
@@ -156,8 +414,39 @@ public class CheckingAccount implements Account{
      * {@inheritDoc}
      */
     @Override
-    public boolean hasMoreThanTwoDecimalPlaces(double amount) {
-        double shifted = amount * 100;
-        return Math.abs(shifted - Math.round(shifted)) > 0;
+    void readSnapshotState(ByteBuffer in) {
+        pendingCents = in.getLong();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            processedChecks.add(in.getInt());
+        }
+    }
+
+    /**
+     * Re-applies a journaled check operation.
+     * 
+     * @param type the journal record type: DEPOSIT_CHECK, CASH_CHECK, REJECT_CHECK or HOLD_CHECK
+     * @param cents the amount on the check in cents
+     * @param checkNumber the check number
+     */
+    synchronized void replayCheck(byte type, long cents, int checkNumber) {
+        processedChecks.add(checkNumber);
+        if (type == TransactionJournal.DEPOSIT_CHECK) {
+            credit(cents);
+        } else if (type == TransactionJournal.CASH_CHECK) {
+            debit(cents);
+        } else if (type == TransactionJournal.HOLD_CHECK) {
+            pendingCents += cents;
+        }
+    }
+
+    /**
+     * Re-applies a journaled settlement of held checks.
+     * 
+     * @param cents the total of the settled checks in cents
+     */
+    synchronized void replayReleaseHolds(long cents) {
+        credit(cents);
+        pendingCents -= cents;
     }
 }
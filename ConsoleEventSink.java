@@ -0,0 +1,74 @@
+import java.io.PrintStream;
+import java.math.BigDecimal;
+
+/**
+ * Sink that prints each event as a human-readable line, as the interactive menus expect.
+ * Printing is synchronous, so this sink is meant for single-user console sessions.
+ */
+public class ConsoleEventSink implements EventSink {
+    private static final BigDecimal ONE_HUNDRED = new BigDecimal("100");
+
+    private final PrintStream out;
+
+    /**
+     * Constructs a sink that prints to standard output.
+     */
+    public ConsoleEventSink() {
+        this(System.out);
+    }
+
+    /**
+     * Constructs a sink that prints to the given stream.
+     * 
+     * @param out the stream to print to
+     */
+    public ConsoleEventSink(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onEvent(TransactionEventType type, String subject, long amountCents, int checkNumber, BigDecimal detail) {
+        out.println(format(type, subject, amountCents, checkNumber, detail));
+    }
+
+    /**
+     * Formats an event as a human-readable message.
+     * 
+     * @param type the kind of event
+     * @param subject the account type name, or the username for bank lookups
+     * @param amountCents the amount involved in cents
+     * @param checkNumber the check number
+     * @param detail additional data such as the interest rate
+     * @return the message
+     */
+    public static String format(TransactionEventType type, String subject, long amountCents, int checkNumber, BigDecimal detail) {
+        BigDecimal amount = Money.toBigDecimal(amountCents);
+        switch (type) {
+            case DEPOSITED:
+                return "Deposited $" + amount + " into " + subject;
+            case WITHDRAWN:
+                return "Withdrawn $" + amount + " from " + subject;
+            case INSUFFICIENT_FUNDS:
+                return "Insufficient funds";
+            case CHECK_DEPOSITED:
+                return "Deposited check #" + checkNumber + " for $" + amount + " into " + subject;
+            case CHECK_CASHED:
+                return "Cashed check #" + checkNumber + " for $" + amount + " from " + subject;
+            case DUPLICATE_CHECK:
+                return "This deposit check #" + checkNumber + " has already been processed.";
+            case INTEREST_ADDED:
+                return "Added interest of $" + amount + " to " + subject + " with interest rate " + detail.multiply(ONE_HUNDRED) + "%";
+            case ACCOUNT_NOT_FOUND:
+                return "Account not found";
+            case TRANSFERRED_OUT:
+                return "Transferred $" + amount + " from " + subject;
+            case TRANSFERRED_IN:
+                return "Transferred $" + amount + " into " + subject;
+            default:
+                return type + " " + subject;
+        }
+    }
+}
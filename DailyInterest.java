@@ -0,0 +1,109 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Clock;
+
+/**
+ * Daily compounding interest, configured per account type and applied lazily.
+ * 
+ * Once a Bank has daily interest enabled, each account remembers the last day it accrued
+ * interest for. Whenever the account is read or mutated, it first compounds one day of
+ * interest for every whole day that has passed since, then stores the current day. A
+ * dormant account therefore costs nothing until it is used again, and no nightly sweep
+ * over all accounts is needed.
+ * 
+ * Every day of interest is computed on the exact balance at the daily rate and rounded to
+ * {@link #ACCRUAL_SCALE} decimal places of a cent, one day at a time. Catching up on many
+ * days at once therefore gives exactly the balance an eager sweep running every night
+ * would have produced, and never lets the exact balance grow without bound.
+ * 
+ * Days are counted in UTC from the given clock. The daily rate is the annual rate divided
+ * by {@link #DAYS_PER_YEAR}, rounded to {@link #RATE_SCALE} decimal places.
+ */
+public final class DailyInterest {
+    /** Number of days the annual rate is spread over. */
+    public static final int DAYS_PER_YEAR = 365;
+    /** Decimal places of the daily rate. */
+    public static final int RATE_SCALE = 12;
+    /** Decimal places of a cent that each day of interest is rounded to. */
+    public static final int ACCRUAL_SCALE = 8;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final BigDecimal checkingDailyRate;
+    private final BigDecimal savingsDailyRate;
+    private final Clock clock;
+
+    /**
+     * Constructs daily interest on the system clock.
+     * 
+     * @param checkingAnnualRate the annual rate of checking accounts, e.g. 0.001 for 0.1%
+     * @param savingsAnnualRate the annual rate of savings accounts, e.g. 0.02 for 2%
+     * @throws IllegalArgumentException if a rate is negative
+     */
+    public DailyInterest(BigDecimal checkingAnnualRate, BigDecimal savingsAnnualRate) {
+        this(checkingAnnualRate, savingsAnnualRate, Clock.systemUTC());
+    }
+
+    /**
+     * Constructs daily interest.
+     * 
+     * @param checkingAnnualRate the annual rate of checking accounts, e.g. 0.001 for 0.1%
+     * @param savingsAnnualRate the annual rate of savings accounts, e.g. 0.02 for 2%
+     * @param clock the clock that decides which day it is
+     * @throws IllegalArgumentException if a rate is negative
+     */
+    public DailyInterest(BigDecimal checkingAnnualRate, BigDecimal savingsAnnualRate, Clock clock) {
+        this.checkingDailyRate = toDailyRate(checkingAnnualRate);
+        this.savingsDailyRate = toDailyRate(savingsAnnualRate);
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the daily rate of an account type.
+     * 
+     * @param isChecking true for checking accounts, false for savings accounts
+     * @return the daily rate, with {@link #RATE_SCALE} decimal places
+     */
+    public BigDecimal getDailyRate(boolean isChecking) {
+        return isChecking ? checkingDailyRate : savingsDailyRate;
+    }
+
+    /**
+     * Returns the current day.
+     * 
+     * @return the number of whole days since the epoch, in UTC
+     */
+    long today() {
+        return Math.floorDiv(clock.millis(), MILLIS_PER_DAY);
+    }
+
+    /**
+     * Compounds interest on an exact balance, one day at a time.
+     * 
+     * @param exactCents the exact balance in cents
+     * @param dailyRate the daily rate
+     * @param days the number of days to compound
+     * @return the exact balance after the last day, in cents
+     */
+    static BigDecimal compound(BigDecimal exactCents, BigDecimal dailyRate, long days) {
+        BigDecimal balance = exactCents;
+        for (long day = 0; day < days; day++) {
+            balance = balance.add(balance.multiply(dailyRate).setScale(ACCRUAL_SCALE, RoundingMode.HALF_EVEN));
+        }
+        return balance;
+    }
+
+    /**
+     * Converts an annual rate to the daily rate.
+     * 
+     * @param annualRate the annual rate
+     * @return the daily rate
+     * @throws IllegalArgumentException if the rate is negative
+     */
+    private static BigDecimal toDailyRate(BigDecimal annualRate) {
+        if (annualRate.signum() < 0) {
+            throw new IllegalArgumentException("Interest rate cannot be negative");
+        }
+        return annualRate.divide(BigDecimal.valueOf(DAYS_PER_YEAR), RATE_SCALE, RoundingMode.HALF_EVEN);
+    }
+}
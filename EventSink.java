@@ -0,0 +1,25 @@
+import java.math.BigDecimal;
+
+/**
+ * Destination for transaction events.
+ * 
+ * Events are passed as primitive fields rather than event objects, so publishing an event
+ * does not allocate. Implementations are called on the thread performing the operation,
+ * often while it holds an account lock, and must not block.
+ */
+@FunctionalInterface
+public interface EventSink {
+    /** Sink that discards every event. */
+    EventSink NO_OP = (type, subject, amountCents, checkNumber, detail) -> { };
+
+    /**
+     * Receives one event.
+     * 
+     * @param type the kind of event
+     * @param subject the account type name, e.g. "Checking Account", or the username for bank lookups
+     * @param amountCents the amount involved in cents, or 0 if none
+     * @param checkNumber the check number, or 0 if none
+     * @param detail additional data such as the interest rate, or null if none
+     */
+    void onEvent(TransactionEventType type, String subject, long amountCents, int checkNumber, BigDecimal detail);
+}
@@ -0,0 +1,81 @@
+/**
+ * One entry of an account's transaction history, as returned in a StatementPage.
+ */
+public final class HistoryEntry {
+    private final long sequence;
+    private final long timeMillis;
+    private final TransactionEventType type;
+    private final long amountCents;
+    private final int checkNumber;
+
+    /**
+     * Constructs a history entry.
+     * 
+     * @param sequence the position of the entry in the account's history, starting at zero
+     * @param timeMillis when the transaction was applied, in milliseconds since the epoch
+     * @param type what happened
+     * @param amountCents the amount of the transaction in cents
+     * @param checkNumber the check number, or 0 if the transaction did not involve a check
+     */
+    HistoryEntry(long sequence, long timeMillis, TransactionEventType type, long amountCents, int checkNumber) {
+        this.sequence = sequence;
+        this.timeMillis = timeMillis;
+        this.type = type;
+        this.amountCents = amountCents;
+        this.checkNumber = checkNumber;
+    }
+
+    /**
+     * Returns the position of the entry in the account's history.
+     * 
+     * @return the sequence number, starting at zero for the account's first transaction
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns when the transaction was applied. Entries of one account never go back in time.
+     * 
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * Returns what happened.
+     * 
+     * @return the transaction type, e.g. DEPOSITED or CHECK_CASHED
+     */
+    public TransactionEventType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the amount of the transaction. Interest postings are rounded to whole cents.
+     * 
+     * @return the amount in cents
+     */
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    /**
+     * Returns the check number of a check transaction.
+     * 
+     * @return the check number, or 0 if the transaction did not involve a check
+     */
+    public int getCheckNumber() {
+        return checkNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return sequence + " " + timeMillis + " " + type + " " + Money.toBigDecimal(amountCents).toPlainString()
+                + (checkNumber == 0 ? "" : " #" + checkNumber);
+    }
+}
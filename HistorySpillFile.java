@@ -0,0 +1,249 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Temporary file that receives the history blocks evicted from the accounts of a Bank.
+ * 
+ * Blocks of all accounts are appended to one file; each account remembers where its own
+ * blocks are. Space is reserved with an atomic counter, so accounts spill concurrently
+ * without a shared lock, and the block is handed to a background writer thread: an
+ * account never does file I/O while it holds its lock to record a transaction. Until the
+ * writer has written a block, reads are served from memory. Only when the writer falls
+ * {@link #MAX_PENDING_BLOCKS} blocks behind does spilling wait for it.
+ * 
+ * The file is a ring of at most {@link #DEFAULT_CAPACITY_BYTES} bytes: once it is full,
+ * new blocks overwrite the oldest ones, which are then no longer retained. The file is
+ * created on the first spill and deleted when it is closed.
+ */
+final class HistorySpillFile implements Closeable {
+    /** Default size of the file, beyond which the oldest spilled history is dropped. */
+    static final long DEFAULT_CAPACITY_BYTES = 256L << 20;
+    /** Maximum number of blocks waiting for the writer thread. */
+    static final int MAX_PENDING_BLOCKS = 1024;
+
+    private final long capacityBytes;
+    private final AtomicLong nextOffset = new AtomicLong();
+    private final BlockingQueue<Long> writeQueue = new ArrayBlockingQueue<>(MAX_PENDING_BLOCKS);
+    private final ConcurrentMap<Long, ByteBuffer> pendingBlocks = new ConcurrentHashMap<>();
+    private volatile FileChannel channel;
+    private volatile IOException failure;
+    private Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a spill file of the default capacity.
+     */
+    HistorySpillFile() {
+        this(DEFAULT_CAPACITY_BYTES);
+    }
+
+    /**
+     * Constructs a spill file.
+     * 
+     * @param capacityBytes the size of the file, beyond which the oldest blocks are overwritten
+     * @throws IllegalArgumentException if capacityBytes is not positive
+     */
+    HistorySpillFile(long capacityBytes) {
+        if (capacityBytes <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Appends a block. The block is written in the background and must not be modified
+     * afterwards.
+     * 
+     * @param block the block, from its position to its limit
+     * @return the offset of the block, to read it back with
+     * @throws UncheckedIOException if the file cannot be created or was closed
+     */
+    long write(ByteBuffer block) {
+        channel();
+        long offset = nextOffset.getAndAdd(block.remaining());
+        pendingBlocks.put(offset, block);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                writeQueue.put(offset);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return offset;
+    }
+
+    /**
+     * Checks whether a block is still retained, i.e. not yet overwritten by newer blocks.
+     * 
+     * @param offset the offset of the block
+     * @return true if the block can still be read
+     */
+    boolean isRetained(long offset) {
+        return nextOffset.get() - offset <= capacityBytes;
+    }
+
+    /**
+     * Reads a block written by {@link #write(ByteBuffer)}, unless it is no longer retained.
+     * 
+     * @param offset the offset of the block
+     * @param block receives the block; filled from its position to its limit
+     * @return true if the block was read, false if it was overwritten by newer blocks
+     * @throws UncheckedIOException if the file cannot be read or the block could not be written
+     */
+    boolean read(long offset, ByteBuffer block) {
+        if (!isRetained(offset)) {
+            return false;
+        }
+        ByteBuffer pending = pendingBlocks.get(offset);
+        if (pending != null) {
+            block.put(pending.duplicate());
+            return true;
+        }
+        IOException writeFailure = failure;
+        if (writeFailure != null) {
+            throw new UncheckedIOException("Cannot read transaction history", writeFailure);
+        }
+        try {
+            transfer(channel(), block, offset, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read transaction history", e);
+        }
+        // A block reserved while reading may already have overwritten part of this one.
+        return isRetained(offset);
+    }
+
+    /**
+     * Stops the writer thread and deletes the file, if it was created. History that was
+     * spilled can no longer be read.
+     * 
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (writer != null) {
+            writer.interrupt();
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Body of the writer thread: writes queued blocks in the order they were queued and
+     * releases their memory. A write failure is kept and reported by later reads.
+     */
+    private void writeBlocks() {
+        while (true) {
+            Long offset;
+            try {
+                offset = writeQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            ByteBuffer block = pendingBlocks.get(offset);
+            try {
+                if (isRetained(offset)) {
+                    transfer(channel, block.duplicate(), offset, true);
+                }
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                failure = e;
+            }
+            pendingBlocks.remove(offset);
+        }
+    }
+
+    /**
+     * Writes or reads a block at a logical offset, wrapping around the end of the ring.
+     * 
+     * @param file the file channel
+     * @param block the block, from its position to its limit
+     * @param offset the logical offset of the block
+     * @param write true to write the block, false to read into it
+     * @throws IOException if the I/O fails or the file ends early
+     */
+    private void transfer(FileChannel file, ByteBuffer block, long offset, boolean write) throws IOException {
+        long logical = offset;
+        while (block.hasRemaining()) {
+            long position = logical % capacityBytes;
+            int chunk = (int) Math.min(block.remaining(), capacityBytes - position);
+            ByteBuffer part = block.duplicate();
+            part.limit(part.position() + chunk);
+            while (part.hasRemaining()) {
+                int count = write ? file.write(part, position) : file.read(part, position);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of history file at " + position);
+                }
+                position += count;
+            }
+            block.position(block.position() + chunk);
+            logical += chunk;
+        }
+    }
+
+    /**
+     * Returns the file channel, creating the file on first use.
+     * 
+     * @return the channel
+     * @throws UncheckedIOException if the file cannot be created or was closed
+     */
+    private FileChannel channel() {
+        FileChannel file = channel;
+        return file != null ? file : openChannel();
+    }
+
+    /**
+     * Creates the file and starts the writer thread, unless another thread already did.
+     * 
+     * @return the channel
+     * @throws UncheckedIOException if the file cannot be created or was closed
+     */
+    private synchronized FileChannel openChannel() {
+        if (closed) {
+            throw new UncheckedIOException(new IOException("Transaction history file is closed"));
+        }
+        if (channel == null) {
+            try {
+                Path path = Files.createTempFile("bank-history", ".spill");
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create transaction history file", e);
+            }
+            writer = new Thread(this::writeBlocks, "bank-history-spill");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        return channel;
+    }
+}
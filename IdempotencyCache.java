@@ -0,0 +1,245 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the results of requests by client-supplied request ID, so that a retried
+ * request returns the original result instead of being applied again.
+ * 
+ * The cache is split into segments chosen by the hash of the request ID, each a map in
+ * insertion order guarded by its own lock, so concurrent requests rarely share a lock.
+ * Because entries are kept in insertion order, eviction only ever looks at the oldest
+ * entries of a segment: on every insert, entries older than the time window are removed,
+ * and the oldest entries are removed while the segment holds more than its share of the
+ * size limit. Memory use is therefore bounded by the size limit, and request IDs are
+ * remembered for the time window unless the request rate pushes them out sooner.
+ * 
+ * Each entry also remembers what the request operated on and which operation it was. A
+ * request ID reused within the window for another target or operation is rejected rather
+ * than answered with the result of an unrelated request.
+ * 
+ * A retry that arrives while the original request is still running waits for it. If the
+ * original request throws, nothing was applied: the ID is forgotten, waiting retries get
+ * the same exception, and later retries run the request again.
+ */
+public final class IdempotencyCache {
+    /** Default maximum number of remembered request IDs. */
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 18;
+    /** Default time a request ID is remembered, in minutes. */
+    public static final long DEFAULT_WINDOW_MINUTES = 10;
+
+    private static final int SEGMENT_COUNT = 64;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final long windowNanos;
+    private final LongAdder replayed = new LongAdder();
+
+    /**
+     * Constructs a cache with the default size limit and time window.
+     */
+    public IdempotencyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_WINDOW_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Constructs a cache.
+     * 
+     * @param maxEntries the maximum number of request IDs remembered at once
+     * @param window how long a request ID is remembered at most
+     * @param unit the unit of the window
+     * @throws IllegalArgumentException if maxEntries or window is not positive
+     */
+    public IdempotencyCache(int maxEntries, long window, TimeUnit unit) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Maximum number of entries must be positive");
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("Time window must be positive");
+        }
+        this.windowNanos = unit.toNanos(window);
+        int segmentCapacity = Math.max(1, maxEntries / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * Runs a request once per request ID. If the ID was seen within the time window for the
+     * same target and operation, the original result is returned and the operation is not run.
+     * 
+     * @param <T> the type of the result
+     * @param requestId the client's request ID, or null to run the operation unconditionally
+     * @param target what the request operates on, such as the account, compared with equals
+     * @param operationName the name of the operation, which determines the type of the result
+     * @param operation the request
+     * @return the result of the request
+     * @throws IllegalArgumentException if the ID was used within the window for another target or operation
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String requestId, Object target, String operationName, Supplier<T> operation) {
+        if (requestId == null) {
+            return operation.get();
+        }
+
+        Segment segment = segments[spread(requestId.hashCode()) & (SEGMENT_COUNT - 1)];
+        Request request = new Request(System.nanoTime(), target, operationName);
+        Request original = segment.putIfAbsent(requestId, request, windowNanos);
+        if (original != null) {
+            if (!Objects.equals(original.target, target) || !original.operationName.equals(operationName)) {
+                throw new IllegalArgumentException("Request ID " + requestId + " was already used for another operation");
+            }
+            replayed.increment();
+            try {
+                return (T) original.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        T result;
+        try {
+            result = operation.get();
+        } catch (RuntimeException | Error e) {
+            segment.remove(requestId, request);
+            request.completeExceptionally(e);
+            throw e;
+        }
+        request.complete(result);
+        return result;
+    }
+
+    /**
+     * Returns the number of requests answered from the cache instead of being run.
+     * 
+     * @return the number of replayed requests
+     */
+    public long getReplayedCount() {
+        return replayed.sum();
+    }
+
+    /**
+     * Returns the number of request IDs currently remembered, including expired ones not yet evicted.
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Spreads the bits of a hash code so that similar request IDs land in different segments.
+     * 
+     * @param hash the hash code
+     * @return the spread hash
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16) ^ (hash >>> 8);
+    }
+
+    /**
+     * The result of one request, completed when the request finishes.
+     */
+    private static final class Request extends CompletableFuture<Object> {
+        private final long startNanos;
+        private final Object target;
+        private final String operationName;
+
+        /**
+         * Constructs a pending request.
+         * 
+         * @param startNanos when the request was first seen, from System.nanoTime
+         * @param target what the request operates on
+         * @param operationName the name of the operation
+         */
+        Request(long startNanos, Object target, String operationName) {
+            this.startNanos = startNanos;
+            this.target = target;
+            this.operationName = operationName;
+        }
+    }
+
+    /**
+     * One lock-guarded part of the cache, with its entries in insertion order.
+     */
+    private static final class Segment {
+        private final int capacity;
+        private final LinkedHashMap<String, Request> requests;
+
+        /**
+         * Constructs an empty segment.
+         * 
+         * @param capacity the maximum number of entries
+         */
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.requests = new LinkedHashMap<>(Math.min(capacity, 1024) * 4 / 3 + 1);
+        }
+
+        /**
+         * Adds a request unless its ID is already remembered and not expired, evicting old entries first.
+         * 
+         * @param requestId the request ID
+         * @param request the new request
+         * @param windowNanos how long entries are remembered
+         * @return the remembered request, or null if the new request was added
+         */
+        synchronized Request putIfAbsent(String requestId, Request request, long windowNanos) {
+            Request original = requests.get(requestId);
+            if (original != null && request.startNanos - original.startNanos <= windowNanos) {
+                return original;
+            }
+            if (original != null) {
+                // Expired but not yet evicted; re-inserting moves it to the newest position.
+                requests.remove(requestId);
+            }
+
+            Iterator<Map.Entry<String, Request>> oldest = requests.entrySet().iterator();
+            while (oldest.hasNext()) {
+                Request candidate = oldest.next().getValue();
+                if (requests.size() < capacity && request.startNanos - candidate.startNanos <= windowNanos) {
+                    break;
+                }
+                oldest.remove();
+            }
+
+            requests.put(requestId, request);
+            return null;
+        }
+
+        /**
+         * Forgets a request that failed, unless its ID was already reused.
+         * 
+         * @param requestId the request ID
+         * @param request the failed request
+         */
+        synchronized void remove(String requestId, Request request) {
+            requests.remove(requestId, request);
+        }
+
+        /**
+         * Returns the number of entries.
+         * 
+         * @return the number of remembered request IDs
+         */
+        synchronized int size() {
+            return requests.size();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a bulk account creation or import.
+ */
+public class ImportSummary {
+    private final long createdCount;
+    private final List<String> duplicateUserNames;
+    private final List<String> invalidLines;
+    private final long elapsedNanos;
+
+    /**
+     * Constructs an import summary.
+     * 
+     * @param createdCount the number of accounts created
+     * @param duplicateUserNames the usernames that were not created because they already existed
+     * @param elapsedNanos the wall-clock duration of the import in nanoseconds
+     */
+    ImportSummary(long createdCount, List<String> duplicateUserNames, long elapsedNanos) {
+        this(createdCount, duplicateUserNames, Collections.emptyList(), elapsedNanos);
+    }
+
+    /**
+     * Constructs an import summary of a file import.
+     * 
+     * @param createdCount the number of accounts created
+     * @param duplicateUserNames the usernames that were not created because they already existed
+     * @param invalidLines the lines that were skipped because they could not be parsed
+     * @param elapsedNanos the wall-clock duration of the import in nanoseconds
+     */
+    ImportSummary(long createdCount, List<String> duplicateUserNames, List<String> invalidLines, long elapsedNanos) {
+        this.createdCount = createdCount;
+        this.duplicateUserNames = Collections.unmodifiableList(duplicateUserNames);
+        this.invalidLines = Collections.unmodifiableList(invalidLines);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of accounts created.
+     * 
+     * @return the number of new accounts
+     */
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * Returns the usernames that were skipped because an account with the same username
+     * already existed in the bank or earlier in the same import. The order is unspecified.
+     * 
+     * @return the duplicate usernames
+     */
+    public List<String> getDuplicateUserNames() {
+        return duplicateUserNames;
+    }
+
+    /**
+     * Returns the lines of an imported file that were skipped because they are not valid
+     * account lines, each as "line &lt;number&gt;: &lt;reason&gt;". The order is unspecified.
+     * 
+     * @return the invalid lines, empty if every line was valid or no file was imported
+     */
+    public List<String> getInvalidLines() {
+        return invalidLines;
+    }
+
+    /**
+     * Returns the wall-clock duration of the import.
+     * 
+     * @return the duration in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("Created %d accounts, skipped %d duplicates and %d invalid lines in %d ms",
+                createdCount, duplicateUserNames.size(), invalidLines.size(), elapsedNanos / 1_000_000);
+    }
+}
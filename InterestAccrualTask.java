@@ -0,0 +1,81 @@
+import java.math.BigDecimal;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join task that accrues interest on a slice of accounts.
+ * Large slices are split in half until they are small enough to process directly; each
+ * leaf keeps its own totals, which are merged on the way back up.
+ */
+final class InterestAccrualTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int LEAF_SIZE = 1024;
+
+    private final AbstractAccount[] accounts;
+    private final int from;
+    private final int to;
+
+    long checkingAccounts;
+    long savingsAccounts;
+    BigDecimal checkingInterestCents = BigDecimal.ZERO;
+    BigDecimal savingsInterestCents = BigDecimal.ZERO;
+
+    /**
+     * Constructs a task for a slice of accounts.
+     * 
+     * @param accounts the accounts of the run
+     * @param from the index of the first account in the slice
+     * @param to the index just past the last account in the slice
+     */
+    InterestAccrualTask(AbstractAccount[] accounts, int from, int to) {
+        this.accounts = accounts;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void compute() {
+        if (to - from <= LEAF_SIZE) {
+            accrue();
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        InterestAccrualTask left = new InterestAccrualTask(accounts, from, middle);
+        InterestAccrualTask right = new InterestAccrualTask(accounts, middle, to);
+        invokeAll(left, right);
+        merge(left);
+        merge(right);
+    }
+
+    /**
+     * Accrues interest on every account in the slice.
+     */
+    private void accrue() {
+        for (int i = from; i < to; i++) {
+            AbstractAccount account = accounts[i];
+            BigDecimal interestCents = account.accrueInterest();
+            if (account instanceof CheckingAccount) {
+                checkingAccounts++;
+                checkingInterestCents = checkingInterestCents.add(interestCents);
+            } else {
+                savingsAccounts++;
+                savingsInterestCents = savingsInterestCents.add(interestCents);
+            }
+        }
+    }
+
+    /**
+     * Adds the totals of a finished subtask to this task.
+     * 
+     * @param other the finished subtask
+     */
+    private void merge(InterestAccrualTask other) {
+        checkingAccounts += other.checkingAccounts;
+        savingsAccounts += other.savingsAccounts;
+        checkingInterestCents = checkingInterestCents.add(other.checkingInterestCents);
+        savingsInterestCents = savingsInterestCents.add(other.savingsInterestCents);
+    }
+}
@@ -0,0 +1,97 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Aggregate result of a bank-wide interest run.
+ * Interest totals are exact, including fractions of a cent.
+ */
+public class InterestSummary {
+    private final long checkingAccounts;
+    private final long savingsAccounts;
+    private final BigDecimal checkingInterest;
+    private final BigDecimal savingsInterest;
+    private final long elapsedNanos;
+
+    /**
+     * Constructs an interest run summary.
+     * 
+     * @param checkingAccounts the number of checking accounts credited
+     * @param savingsAccounts the number of savings accounts credited
+     * @param checkingInterest the total interest added to checking accounts
+     * @param savingsInterest the total interest added to savings accounts
+     * @param elapsedNanos the wall-clock duration of the run in nanoseconds
+     */
+    InterestSummary(long checkingAccounts, long savingsAccounts, BigDecimal checkingInterest,
+            BigDecimal savingsInterest, long elapsedNanos) {
+        this.checkingAccounts = checkingAccounts;
+        this.savingsAccounts = savingsAccounts;
+        this.checkingInterest = checkingInterest;
+        this.savingsInterest = savingsInterest;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of checking accounts credited.
+     * 
+     * @return the number of checking accounts
+     */
+    public long getCheckingAccounts() {
+        return checkingAccounts;
+    }
+
+    /**
+     * Returns the number of savings accounts credited.
+     * 
+     * @return the number of savings accounts
+     */
+    public long getSavingsAccounts() {
+        return savingsAccounts;
+    }
+
+    /**
+     * Returns the total interest added to checking accounts.
+     * 
+     * @return the exact checking interest
+     */
+    public BigDecimal getCheckingInterest() {
+        return checkingInterest;
+    }
+
+    /**
+     * Returns the total interest added to savings accounts.
+     * 
+     * @return the exact savings interest
+     */
+    public BigDecimal getSavingsInterest() {
+        return savingsInterest;
+    }
+
+    /**
+     * Returns the total interest added to all accounts.
+     * 
+     * @return the exact total interest
+     */
+    public BigDecimal getTotalInterest() {
+        return checkingInterest.add(savingsInterest);
+    }
+
+    /**
+     * Returns the wall-clock duration of the run.
+     * 
+     * @return the duration in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("Accrued interest on %d accounts in %.3f s: checking %d accounts $%s, savings %d accounts $%s",
+                checkingAccounts + savingsAccounts, elapsedNanos / 1e9,
+                checkingAccounts, checkingInterest.setScale(Money.SCALE, RoundingMode.HALF_UP),
+                savingsAccounts, savingsInterest.setScale(Money.SCALE, RoundingMode.HALF_UP));
+    }
+}
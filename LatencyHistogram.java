@@ -0,0 +1,106 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds with bounded relative error.
+ * 
+ * Values below 16 get a bucket each. Larger values are grouped by power of two, and each
+ * power of two is split into 8 linear sub-buckets, so a bucket is never wider than 1/8 of
+ * its lower bound. Each bucket is a LongAdder, so recording from many threads does not
+ * contend on a single counter. Values above about 18 minutes share the last bucket.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BITS) * SUB_COUNT + 2 * SUB_COUNT;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+    /**
+     * Constructs an empty histogram.
+     */
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one latency.
+     * 
+     * @param nanos the latency in nanoseconds; negative values are recorded as zero
+     */
+    void record(long nanos) {
+        buckets[bucketOf(Math.max(nanos, 0))].increment();
+    }
+
+    /**
+     * Estimates a percentile of the recorded latencies.
+     * 
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, or 0 if nothing was recorded
+     */
+    long percentile(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Discards all recorded latencies.
+     */
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+    }
+
+    /**
+     * Returns the bucket holding a latency.
+     * 
+     * @param nanos the latency, not negative
+     * @return the bucket index
+     */
+    private static int bucketOf(long nanos) {
+        if (nanos < 2 * SUB_COUNT) {
+            return (int) nanos;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXPONENT);
+        int sub = exponent == MAX_EXPONENT && nanos >>> MAX_EXPONENT > 1
+                ? SUB_COUNT - 1
+                : (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS) * SUB_COUNT + SUB_COUNT + sub;
+    }
+
+    /**
+     * Returns the largest latency that falls into a bucket.
+     * 
+     * @param bucket the bucket index
+     * @return the upper bound of the bucket in nanoseconds
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+        long sub = (bucket - SUB_COUNT) % SUB_COUNT;
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Bank and account operations measured by {@link Metrics}.
+ */
+public enum MeteredOperation {
+    /** Bank.createAccount. */
+    CREATE_ACCOUNT("createAccount"),
+    /** Bank.getAccount, by username or by AccountId. */
+    GET_ACCOUNT("getAccount"),
+    /** Account.deposit and depositCents. */
+    DEPOSIT("deposit"),
+    /** Account.withdraw and withdrawCents. */
+    WITHDRAW("withdraw"),
+    /** Account.calculateInterest. */
+    CALCULATE_INTEREST("calculateInterest"),
+    /** CheckingAccount.depositCheck and depositCheckCents. */
+    DEPOSIT_CHECK("depositCheck"),
+    /** CheckingAccount.cashCheck and cashCheckCents. */
+    CASH_CHECK("cashCheck");
+
+    private final String methodName;
+
+    /**
+     * Constructs an operation.
+     * 
+     * @param methodName the name of the measured method
+     */
+    MeteredOperation(String methodName) {
+        this.methodName = methodName;
+    }
+
+    /**
+     * Returns the name of the measured method, used in reports and MBean names.
+     * 
+     * @return the method name
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+}
@@ -0,0 +1,227 @@
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility class for converting monetary amounts to and from fixed-point minor units (cents).
+ * Balances are kept as primitive longs so the transaction hot path does not allocate.
+ * 
+ * Amounts given as text are best parsed with {@link #parseCents(CharSequence)} or
+ * {@link #parseCents(byte[], int, int)}, which convert decimal digits straight to cents
+ * without going through double, and reject more than two significant decimal places exactly.
+ */
+public final class Money {
+    /** Number of minor units (cents) in one major unit. */
+    public static final int CENTS_PER_UNIT = 100;
+
+    /** Number of decimal places used for monetary amounts. */
+    public static final int SCALE = 2;
+
+    private static final double MAX_SHIFTED = 9.2e18;
+    private static final int NO_DECIMAL_POINT = -1;
+
+    private Money() {
+    }
+
+    /**
+     * Converts an amount with at most two decimal places to cents.
+     * 
+     * @param amount the amount to convert
+     * @return the amount in cents
+     * @throws ArithmeticException if the amount does not fit into a long number of cents
+     */
+    public static long toCents(double amount) {
+        double shifted = amount * CENTS_PER_UNIT;
+        if (!(Math.abs(shifted) < MAX_SHIFTED)) {
+            throw new ArithmeticException("Amount out of range: " + amount);
+        }
+        return Math.round(shifted);
+    }
+
+    /**
+     * Converts an amount in cents to a BigDecimal with two decimal places.
+     * 
+     * @param cents the amount in cents
+     * @return the amount as a BigDecimal
+     */
+    public static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    /**
+     * Checks if an amount has more than two decimal places.
+     * An amount has at most two decimal places if it is the double closest to some whole
+     * number of cents, which is what parsing such a number from text yields. Multiplying by
+     * 100 alone is not enough: 1.15 * 100 is 114.99999999999999.
+     * 
+     * @param amount the amount to check
+     * @return true if the amount has more than two decimal places, false otherwise
+     */
+    public static boolean hasMoreThanTwoDecimalPlaces(double amount) {
+        double cents = Math.rint(amount * CENTS_PER_UNIT);
+        return cents / CENTS_PER_UNIT != amount;
+    }
+
+    /**
+     * Parses a decimal amount such as "12", "12.5", "-0.25" or "+3.10" into cents.
+     * Surrounding whitespace is ignored and trailing zeros after the second decimal place
+     * are accepted. Nothing is allocated unless the text is invalid.
+     * 
+     * @param text the amount as text
+     * @return the amount in cents
+     * @throws NumberFormatException if the text is not a plain decimal number
+     * @throws IllegalArgumentException if the amount has more than two decimal places
+     * @throws ArithmeticException if the amount does not fit into a long number of cents
+     */
+    public static long parseCents(CharSequence text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+
+        boolean negative = false;
+        if (start < end && (text.charAt(start) == '-' || text.charAt(start) == '+')) {
+            negative = text.charAt(start) == '-';
+            start++;
+        }
+
+        long units = 0;
+        int fractionDigits = NO_DECIMAL_POINT;
+        boolean hasDigits = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && fractionDigits == NO_DECIMAL_POINT) {
+                fractionDigits = 0;
+            } else if (c >= '0' && c <= '9') {
+                hasDigits = true;
+                if (fractionDigits < SCALE) {
+                    units = appendDigit(units, c - '0', negative);
+                    if (fractionDigits != NO_DECIMAL_POINT) {
+                        fractionDigits++;
+                    }
+                } else if (c != '0') {
+                    throw new IllegalArgumentException("Amount cannot have more than two decimal places");
+                }
+            } else {
+                throw new NumberFormatException("Invalid amount: " + text);
+            }
+        }
+        if (!hasDigits) {
+            throw new NumberFormatException("Invalid amount: " + text);
+        }
+        return scaleToCents(units, fractionDigits);
+    }
+
+    /**
+     * Parses an amount for an operation like {@link #parseCents(CharSequence)}, counting a
+     * BAD_SCALE rejection of the operation if the amount has more than two decimal places.
+     * 
+     * @param text the amount as text
+     * @param operation the operation the amount is for
+     * @return the amount in cents
+     * @throws NumberFormatException if the text is not a plain decimal number
+     * @throws IllegalArgumentException if the amount has more than two decimal places
+     * @throws ArithmeticException if the amount does not fit into a long number of cents
+     */
+    static long parseCents(CharSequence text, MeteredOperation operation) {
+        try {
+            return parseCents(text);
+        } catch (NumberFormatException e) {
+            throw e;
+        } catch (IllegalArgumentException e) {
+            Metrics.reject(operation, RejectionReason.BAD_SCALE);
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a decimal amount encoded as ASCII bytes into cents, with the same rules as
+     * {@link #parseCents(CharSequence)}.
+     * 
+     * @param bytes the buffer holding the amount
+     * @param offset the index of the first byte of the amount
+     * @param length the number of bytes in the amount
+     * @return the amount in cents
+     * @throws NumberFormatException if the bytes are not a plain decimal number
+     * @throws IllegalArgumentException if the amount has more than two decimal places
+     * @throws ArithmeticException if the amount does not fit into a long number of cents
+     */
+    public static long parseCents(byte[] bytes, int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && bytes[start] <= ' ') {
+            start++;
+        }
+        while (end > start && bytes[end - 1] <= ' ') {
+            end--;
+        }
+
+        boolean negative = false;
+        if (start < end && (bytes[start] == '-' || bytes[start] == '+')) {
+            negative = bytes[start] == '-';
+            start++;
+        }
+
+        long units = 0;
+        int fractionDigits = NO_DECIMAL_POINT;
+        boolean hasDigits = false;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b == '.' && fractionDigits == NO_DECIMAL_POINT) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9') {
+                hasDigits = true;
+                if (fractionDigits < SCALE) {
+                    units = appendDigit(units, b - '0', negative);
+                    if (fractionDigits != NO_DECIMAL_POINT) {
+                        fractionDigits++;
+                    }
+                } else if (b != '0') {
+                    throw new IllegalArgumentException("Amount cannot have more than two decimal places");
+                }
+            } else {
+                throw new NumberFormatException("Invalid amount: "
+                        + new String(bytes, offset, length, StandardCharsets.US_ASCII));
+            }
+        }
+        if (!hasDigits) {
+            throw new NumberFormatException("Invalid amount: "
+                    + new String(bytes, offset, length, StandardCharsets.US_ASCII));
+        }
+        return scaleToCents(units, fractionDigits);
+    }
+
+    /**
+     * Appends a decimal digit to a partially parsed amount. Negative amounts are accumulated
+     * downwards so that the most negative long is reachable.
+     * 
+     * @param units the digits parsed so far
+     * @param digit the next digit
+     * @param negative true if the amount is negative
+     * @return the amount with the digit appended
+     * @throws ArithmeticException if the amount does not fit into a long
+     */
+    private static long appendDigit(long units, int digit, boolean negative) {
+        long shifted = Math.multiplyExact(units, 10);
+        return negative ? Math.subtractExact(shifted, digit) : Math.addExact(shifted, digit);
+    }
+
+    /**
+     * Scales a parsed amount to cents.
+     * 
+     * @param units the parsed digits, up to two of them after the decimal point
+     * @param fractionDigits the number of digits after the decimal point, or NO_DECIMAL_POINT
+     * @return the amount in cents
+     * @throws ArithmeticException if the amount does not fit into a long number of cents
+     */
+    private static long scaleToCents(long units, int fractionDigits) {
+        int missingDigits = SCALE - Math.max(fractionDigits, 0);
+        for (int i = 0; i < missingDigits; i++) {
+            units = Math.multiplyExact(units, 10);
+        }
+        return units;
+    }
+}
@@ -0,0 +1,332 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Flyweight view of an account stored in an OffHeapBank.
+ * 
+ * The view holds only the bank and the account ID; the balance, account type and flags are
+ * read from and written to the bank's off-heap columns on every call. Views are cheap to
+ * create and any number of them may exist for the same account. Check operations are only
+ * available on checking accounts.
+ */
+public final class OffHeapAccount implements Account {
+    private final OffHeapBank bank;
+    private final int id;
+
+    /**
+     * Constructs a view of an account.
+     * 
+     * @param bank the bank storing the account
+     * @param id the account ID
+     */
+    OffHeapAccount(OffHeapBank bank, int id) {
+        this.bank = bank;
+        this.id = id;
+    }
+
+    /**
+     * Returns the ID of the account in its bank.
+     * 
+     * @return the dense account ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Checks if this is a checking account.
+     * 
+     * @return true for a checking account, false for a savings account
+     */
+    public boolean isChecking() {
+        return bank.isChecking(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deposit(double amount) throws IllegalArgumentException {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Deposit amount cannot be negative");
+        }
+
+        if (hasMoreThanTwoDecimalPlaces(amount)) {
+            throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
+        }
+
+        depositCents(Money.toCents(amount));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void depositCents(long cents) throws IllegalArgumentException {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Deposit amount cannot be negative");
+        }
+
+        bank.credit(id, cents);
+        TransactionEvents.publish(TransactionEventType.DEPOSITED, getAccountTypeName(), cents, 0, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void depositCents(long cents, String requestId) {
+        bank.getIdempotencyCache().execute(requestId, id, "deposit", () -> {
+            depositCents(cents);
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean withdraw(double amount) throws IllegalArgumentException {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Withdraw amount cannot be negative");
+        }
+
+        if (hasMoreThanTwoDecimalPlaces(amount)) {
+            throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
+        }
+
+        return withdrawCents(Money.toCents(amount));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean withdrawCents(long cents) throws IllegalArgumentException {
+        if (cents < 0) {
+            throw new IllegalArgumentException("Withdraw amount cannot be negative");
+        }
+
+        if (!bank.debit(id, cents)) {
+            TransactionEvents.publish(TransactionEventType.INSUFFICIENT_FUNDS, getAccountTypeName(), cents, 0, null);
+            return false;
+        }
+        TransactionEvents.publish(TransactionEventType.WITHDRAWN, getAccountTypeName(), cents, 0, null);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean withdrawCents(long cents, String requestId) {
+        return bank.getIdempotencyCache().execute(requestId, id, "withdraw", () -> withdrawCents(cents));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void calculateInterest(String requestId) {
+        bank.getIdempotencyCache().execute(requestId, id, "calculateInterest", () -> {
+            calculateInterest();
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void calculateInterest() {
+        BigDecimal rate = getInterestRate();
+        BigDecimal interestCents = bank.applyInterest(id, rate);
+        long roundedInterestCents = interestCents.setScale(0, RoundingMode.HALF_UP).longValueExact();
+        TransactionEvents.publish(TransactionEventType.INTEREST_ADDED, getAccountTypeName(), roundedInterestCents, 0, rate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BigDecimal getBalance() {
+        return Money.toBigDecimal(getBalanceCents());
+    }
+
+    /**
+     * Returns the current balance in cents, rounded half up like {@link #getBalance()}.
+     * 
+     * @return the current balance in cents
+     */
+    public long getBalanceCents() {
+        return bank.getBalanceCents(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasMoreThanTwoDecimalPlaces(double amount) {
+        return Money.hasMoreThanTwoDecimalPlaces(amount);
+    }
+
+    /**
+     * Deposits a check into the account.
+     * 
+     * @param amount the amount on the check
+     * @param checkNumber the unique identifier for the check
+     * @return true if check was deposited, false if it has already been processed
+     * @throws IllegalArgumentException if amount is negative or has more than two decimal places
+     * @throws IllegalStateException if this is not a checking account
+     */
+    public boolean depositCheck(double amount, int checkNumber) throws IllegalArgumentException {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Deposit amount cannot be negative");
+        }
+
+        if (hasMoreThanTwoDecimalPlaces(amount)) {
+            throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
+        }
+
+        return depositCheckCents(Money.toCents(amount), checkNumber);
+    }
+
+    /**
+     * Deposits a check for an exact amount of cents into the account.
+     * 
+     * @param depositCents the amount on the check in cents
+     * @param checkNumber the unique identifier for the check
+     * @return true if check was deposited, false if it has already been processed
+     * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if this is not a checking account
+     */
+    public boolean depositCheckCents(long depositCents, int checkNumber) throws IllegalArgumentException {
+        if (depositCents < 0) {
+            throw new IllegalArgumentException("Deposit amount cannot be negative");
+        }
+
+        requireChecking();
+        if (bank.processCheck(id, checkNumber, depositCents, true) < 0) {
+            TransactionEvents.publish(TransactionEventType.DUPLICATE_CHECK, getAccountTypeName(), depositCents, checkNumber, null);
+            return false;
+        }
+        TransactionEvents.publish(TransactionEventType.CHECK_DEPOSITED, getAccountTypeName(), depositCents, checkNumber, null);
+        return true;
+    }
+
+    /**
+     * Deposits a check for an exact amount of cents, at most once per request ID.
+     * 
+     * @param depositCents the amount on the check in cents
+     * @param checkNumber the unique identifier for the check
+     * @param requestId the client's request ID, unique within the bank, or null to deposit unconditionally
+     * @return true if check was deposited, false if it has already been processed; a retry returns the original result
+     * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if this is not a checking account
+     */
+    public boolean depositCheckCents(long depositCents, int checkNumber, String requestId) {
+        return bank.getIdempotencyCache().execute(requestId, id, "depositCheck", () -> depositCheckCents(depositCents, checkNumber));
+    }
+
+    /**
+     * Cashes a check from the account.
+     * 
+     * @param amount the amount on the check
+     * @param checkNumber the unique identifier for the check
+     * @return true if check was cashed successfully, false otherwise
+     * @throws IllegalArgumentException if amount is negative or has more than two decimal places
+     * @throws IllegalStateException if this is not a checking account
+     */
+    public boolean cashCheck(double amount, int checkNumber) throws IllegalArgumentException {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Withdraw amount cannot be negative");
+        }
+
+        if (hasMoreThanTwoDecimalPlaces(amount)) {
+            throw new IllegalArgumentException("Deposit amount cannot have more than two decimal places");
+        }
+
+        return cashCheckCents(Money.toCents(amount), checkNumber);
+    }
+
+    /**
+     * Cashes a check for an exact amount of cents from the account.
+     * 
+     * @param withdrawCents the amount on the check in cents
+     * @param checkNumber the unique identifier for the check
+     * @return true if check was cashed successfully, false otherwise
+     * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if this is not a checking account
+     */
+    public boolean cashCheckCents(long withdrawCents, int checkNumber) throws IllegalArgumentException {
+        if (withdrawCents < 0) {
+            throw new IllegalArgumentException("Withdraw amount cannot be negative");
+        }
+
+        requireChecking();
+        int result = bank.processCheck(id, checkNumber, withdrawCents, false);
+        if (result < 0) {
+            TransactionEvents.publish(TransactionEventType.DUPLICATE_CHECK, getAccountTypeName(), withdrawCents, checkNumber, null);
+            return false;
+        } else if (result == 0) {
+            TransactionEvents.publish(TransactionEventType.INSUFFICIENT_FUNDS, getAccountTypeName(), withdrawCents, checkNumber, null);
+            return false;
+        } else {
+            TransactionEvents.publish(TransactionEventType.CHECK_CASHED, getAccountTypeName(), withdrawCents, checkNumber, null);
+            return true;
+        }
+    }
+
+    /**
+     * Cashes a check for an exact amount of cents, at most once per request ID.
+     * 
+     * @param withdrawCents the amount on the check in cents
+     * @param checkNumber the unique identifier for the check
+     * @param requestId the client's request ID, unique within the bank, or null to cash unconditionally
+     * @return true if check was cashed successfully, false otherwise; a retry returns the original result
+     * @throws IllegalArgumentException if amount is negative
+     * @throws IllegalStateException if this is not a checking account
+     */
+    public boolean cashCheckCents(long withdrawCents, int checkNumber, String requestId) {
+        return bank.getIdempotencyCache().execute(requestId, id, "cashCheck", () -> cashCheckCents(withdrawCents, checkNumber));
+    }
+
+    /**
+     * Checks if a check number has already been deposited or cashed on this account.
+     * 
+     * @param checkNumber the unique identifier for the check
+     * @return true if the check has already been processed, false otherwise
+     */
+    public boolean hasProcessedCheck(int checkNumber) {
+        return bank.hasProcessedCheck(id, checkNumber);
+    }
+
+    /**
+     * Returns the display name of the account type, used in transaction messages.
+     * 
+     * @return the account type name
+     */
+    private String getAccountTypeName() {
+        return isChecking() ? "Checking Account" : "Savings Account";
+    }
+
+    /**
+     * Returns the interest rate of the account type.
+     * 
+     * @return the interest rate as a fraction
+     */
+    private BigDecimal getInterestRate() {
+        return isChecking() ? CheckingAccount.INTEREST_RATE : SavingsAccount.INTEREST_RATE;
+    }
+
+    /**
+     * Ensures that this is a checking account.
+     * 
+     * @throws IllegalStateException if this is a savings account
+     */
+    private void requireChecking() {
+        if (!isChecking()) {
+            throw new IllegalStateException("Checks can only be processed by a checking account");
+        }
+    }
+}
@@ -0,0 +1,448 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bank storage engine that keeps account state off the Java heap, for tens of millions of accounts.
+ * 
+ * Instead of one heap object per account, state is stored in columns of direct buffers
+ * indexed by the dense account ID: balance in whole cents, the fraction of a cent left by
+ * interest postings, an account type and flag byte, and a reference to the username. Usernames
+ * live in an off-heap byte heap and are found through an off-heap open-addressing hash index.
+ * Columns grow in fixed-size chunks, so adding accounts never copies existing state, and the
+ * heap only holds the chunk tables, which stay small as the account count grows.
+ * 
+ * {@link #getAccount(AccountId)} returns an OffHeapAccount, a flyweight holding only the bank
+ * and the ID; every operation reads and writes the columns directly. Account operations are
+ * synchronized on one of a fixed set of striped locks chosen by account ID. The set of processed
+ * check numbers is only kept, on the heap, for checking accounts that have processed checks.
+ * 
+ * Unlike AbstractAccount, which keeps the interest fraction exactly, the fraction of a cent is
+ * kept to {@value #FRACTION_DIGITS} decimal places, rounded half even. This engine is not journaled.
+ */
+public class OffHeapBank {
+    /** Largest number of accounts the engine can hold, limited by the size of the hash index. */
+    public static final int MAX_ACCOUNTS = 1 << 26;
+
+    static final int FRACTION_DIGITS = 15;
+    static final byte FLAG_CHECKING = 1;
+    static final byte FLAG_HAS_CHECKS = 2;
+
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_ACCOUNTS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_ACCOUNTS - 1;
+    private static final int NAME_CHUNK_BYTES = 1 << 24;
+    private static final int MAX_NAME_BYTES = Short.MAX_VALUE;
+    private static final int INITIAL_INDEX_SLOTS = 1 << 10;
+    private static final int LOCK_STRIPES = 1 << 10;
+    private static final long HALF_CENT = BigDecimal.valueOf(5, 1).movePointRight(FRACTION_DIGITS).longValueExact();
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ReentrantReadWriteLock registryLock = new ReentrantReadWriteLock();
+    private final Map<Integer, CheckNumberSet> processedChecks = new ConcurrentHashMap<>();
+    private final IdempotencyCache requestCache = new IdempotencyCache();
+
+    private volatile ByteBuffer[] balances = new ByteBuffer[0];
+    private volatile ByteBuffer[] fractions = new ByteBuffer[0];
+    private volatile ByteBuffer[] flags = new ByteBuffer[0];
+    private volatile int accountCount;
+
+    private ByteBuffer[] nameRefs = new ByteBuffer[0];
+    private ByteBuffer[] names = new ByteBuffer[0];
+    private ByteBuffer index = ByteBuffer.allocateDirect(INITIAL_INDEX_SLOTS * Long.BYTES);
+
+    /**
+     * Constructs an empty off-heap bank.
+     */
+    public OffHeapBank() {
+        for (int stripe = 0; stripe < LOCK_STRIPES; stripe++) {
+            locks[stripe] = new Object();
+        }
+    }
+
+    /**
+     * Creates a new account unless the username is already taken.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username to associate with the account
+     * @return true if account was created successfully, false if username already exists
+     * @throws IllegalArgumentException if the username is too long
+     * @throws IllegalStateException if the bank already holds {@link #MAX_ACCOUNTS} accounts
+     */
+    public boolean createAccount(boolean isChecking, String userName) {
+        byte[] key = userName.getBytes(StandardCharsets.UTF_8);
+        if (key.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Username is too long");
+        }
+        int hash = hash(key);
+
+        registryLock.writeLock().lock();
+        try {
+            if (find(key, hash) >= 0) {
+                return false;
+            }
+            int id = accountCount;
+            if (id == MAX_ACCOUNTS) {
+                throw new IllegalStateException("Off-heap bank is full");
+            }
+            if ((id & CHUNK_MASK) == 0) {
+                addChunk();
+            }
+            if ((long) (id + 1) * 2 > index.capacity() / Long.BYTES) {
+                resizeIndex();
+            }
+
+            int chunk = id >>> CHUNK_BITS;
+            int slot = id & CHUNK_MASK;
+            balances[chunk].putLong(slot * Long.BYTES, 0);
+            fractions[chunk].putLong(slot * Long.BYTES, 0);
+            flags[chunk].put(slot, isChecking ? FLAG_CHECKING : 0);
+            nameRefs[chunk].putLong(slot * Long.BYTES, storeName(key));
+            insert(hash, id);
+            accountCount = id + 1;
+            return true;
+        } finally {
+            registryLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the cache that deduplicates account mutations carrying a request ID.
+     * 
+     * @return the request cache
+     */
+    public IdempotencyCache getIdempotencyCache() {
+        return requestCache;
+    }
+
+    /**
+     * Resolves the ID of an account, for repeated lookups with {@link #getAccount(AccountId)}.
+     * 
+     * @param userName the username associated with the account
+     * @return the account ID if found, null otherwise
+     */
+    public AccountId getAccountId(String userName) {
+        byte[] key = userName.getBytes(StandardCharsets.UTF_8);
+        int id;
+        registryLock.readLock().lock();
+        try {
+            id = find(key, hash(key));
+        } finally {
+            registryLock.readLock().unlock();
+        }
+        if (id < 0) {
+            TransactionEvents.publish(TransactionEventType.ACCOUNT_NOT_FOUND, userName, 0, 0, null);
+            return null;
+        }
+        return new AccountId(id, userName);
+    }
+
+    /**
+     * Retrieves an account by username.
+     * 
+     * @param userName the username associated with the account
+     * @return a flyweight view of the account if found, null otherwise
+     */
+    public OffHeapAccount getAccount(String userName) {
+        AccountId accountId = getAccountId(userName);
+        return accountId == null ? null : new OffHeapAccount(this, accountId.getValue());
+    }
+
+    /**
+     * Retrieves an account by its ID.
+     * 
+     * @param accountId an ID previously resolved from this bank
+     * @return a flyweight view of the account
+     * @throws IllegalArgumentException if no account has the ID
+     */
+    public OffHeapAccount getAccount(AccountId accountId) {
+        int id = accountId.getValue();
+        if (id < 0 || id >= accountCount) {
+            throw new IllegalArgumentException("Unknown account ID " + accountId);
+        }
+        return new OffHeapAccount(this, id);
+    }
+
+    /**
+     * Returns the number of accounts in the bank.
+     * 
+     * @return the account count
+     */
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    /**
+     * Checks if an account is a checking account.
+     * 
+     * @param id the account ID
+     * @return true for a checking account, false for a savings account
+     */
+    boolean isChecking(int id) {
+        return (flags[id >>> CHUNK_BITS].get(id & CHUNK_MASK) & FLAG_CHECKING) != 0;
+    }
+
+    /**
+     * Returns the balance of an account in cents, rounded half up.
+     * 
+     * @param id the account ID
+     * @return the balance in cents
+     */
+    long getBalanceCents(int id) {
+        int chunk = id >>> CHUNK_BITS;
+        int offset = (id & CHUNK_MASK) * Long.BYTES;
+        synchronized (lockFor(id)) {
+            long wholeCents = balances[chunk].getLong(offset);
+            long fraction = fractions[chunk].getLong(offset);
+            boolean roundUp = wholeCents < 0 ? fraction > HALF_CENT : fraction >= HALF_CENT;
+            return roundUp ? wholeCents + 1 : wholeCents;
+        }
+    }
+
+    /**
+     * Adds cents to the balance of an account.
+     * 
+     * @param id the account ID
+     * @param cents the amount in cents
+     * @throws ArithmeticException if the balance would overflow
+     */
+    void credit(int id, long cents) {
+        ByteBuffer column = balances[id >>> CHUNK_BITS];
+        int offset = (id & CHUNK_MASK) * Long.BYTES;
+        synchronized (lockFor(id)) {
+            column.putLong(offset, Math.addExact(column.getLong(offset), cents));
+        }
+    }
+
+    /**
+     * Subtracts cents from the balance of an account if the balance covers them.
+     * 
+     * @param id the account ID
+     * @param cents the amount in cents
+     * @return true if the amount was subtracted, false if funds are insufficient
+     */
+    boolean debit(int id, long cents) {
+        ByteBuffer column = balances[id >>> CHUNK_BITS];
+        int offset = (id & CHUNK_MASK) * Long.BYTES;
+        synchronized (lockFor(id)) {
+            long balance = column.getLong(offset);
+            if (cents > balance) {
+                return false;
+            }
+            column.putLong(offset, balance - cents);
+            return true;
+        }
+    }
+
+    /**
+     * Adds interest at a rate to the balance of an account.
+     * 
+     * @param id the account ID
+     * @param rate the interest rate as a fraction
+     * @return the interest added, in cents
+     */
+    BigDecimal applyInterest(int id, BigDecimal rate) {
+        int chunk = id >>> CHUNK_BITS;
+        int offset = (id & CHUNK_MASK) * Long.BYTES;
+        synchronized (lockFor(id)) {
+            BigDecimal exactCents = BigDecimal.valueOf(balances[chunk].getLong(offset))
+                    .add(BigDecimal.valueOf(fractions[chunk].getLong(offset), FRACTION_DIGITS));
+            BigDecimal interestCents = exactCents.multiply(rate);
+            BigDecimal updated = exactCents.add(interestCents).setScale(FRACTION_DIGITS, RoundingMode.HALF_EVEN);
+            BigDecimal wholeCents = updated.setScale(0, RoundingMode.FLOOR);
+            balances[chunk].putLong(offset, wholeCents.longValueExact());
+            fractions[chunk].putLong(offset, updated.subtract(wholeCents).unscaledValue().longValueExact());
+            return interestCents;
+        }
+    }
+
+    /**
+     * Marks a check as processed on an account and then, if it was new, credits or debits the account.
+     * 
+     * @param id the account ID
+     * @param checkNumber the check number
+     * @param cents the amount on the check in cents
+     * @param deposit true to credit the amount, false to debit it if the balance covers it
+     * @return 1 if the check was applied, 0 if it was cashed with insufficient funds, -1 if it was already processed
+     */
+    int processCheck(int id, int checkNumber, long cents, boolean deposit) {
+        synchronized (lockFor(id)) {
+            ByteBuffer flagColumn = flags[id >>> CHUNK_BITS];
+            int slot = id & CHUNK_MASK;
+            byte accountFlags = flagColumn.get(slot);
+            CheckNumberSet checks;
+            if ((accountFlags & FLAG_HAS_CHECKS) == 0) {
+                checks = new CheckNumberSet();
+                processedChecks.put(id, checks);
+                flagColumn.put(slot, (byte) (accountFlags | FLAG_HAS_CHECKS));
+            } else {
+                checks = processedChecks.get(id);
+            }
+            if (!checks.add(checkNumber)) {
+                return -1;
+            }
+            if (deposit) {
+                credit(id, cents);
+                return 1;
+            }
+            return debit(id, cents) ? 1 : 0;
+        }
+    }
+
+    /**
+     * Checks if a check number has already been processed on an account.
+     * 
+     * @param id the account ID
+     * @param checkNumber the check number
+     * @return true if the check has been deposited or cashed, false otherwise
+     */
+    boolean hasProcessedCheck(int id, int checkNumber) {
+        synchronized (lockFor(id)) {
+            if ((flags[id >>> CHUNK_BITS].get(id & CHUNK_MASK) & FLAG_HAS_CHECKS) == 0) {
+                return false;
+            }
+            return processedChecks.get(id).contains(checkNumber);
+        }
+    }
+
+    /**
+     * Returns the lock guarding an account. Locks are reentrant, so an operation may call
+     * another one on the same account while holding it.
+     * 
+     * @param id the account ID
+     * @return the lock stripe of the account
+     */
+    private Object lockFor(int id) {
+        return locks[id & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Allocates the column chunks for the next block of account IDs. Must be called holding the write lock.
+     */
+    private void addChunk() {
+        nameRefs = append(nameRefs, ByteBuffer.allocateDirect(CHUNK_ACCOUNTS * Long.BYTES));
+        fractions = append(fractions, ByteBuffer.allocateDirect(CHUNK_ACCOUNTS * Long.BYTES));
+        flags = append(flags, ByteBuffer.allocateDirect(CHUNK_ACCOUNTS));
+        balances = append(balances, ByteBuffer.allocateDirect(CHUNK_ACCOUNTS * Long.BYTES));
+    }
+
+    /**
+     * Returns a copy of a chunk table with one more chunk.
+     * 
+     * @param chunks the chunk table
+     * @param chunk the chunk to append
+     * @return the new chunk table
+     */
+    private static ByteBuffer[] append(ByteBuffer[] chunks, ByteBuffer chunk) {
+        ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[chunks.length] = chunk;
+        return grown;
+    }
+
+    /**
+     * Stores a username in the name heap. Must be called holding the write lock.
+     * 
+     * @param key the UTF-8 bytes of the username
+     * @return a reference to the stored name: chunk index in the high 32 bits, offset in the low 32 bits
+     */
+    private long storeName(byte[] key) {
+        int last = names.length - 1;
+        if (last < 0 || names[last].remaining() < Short.BYTES + key.length) {
+            names = append(names, ByteBuffer.allocateDirect(NAME_CHUNK_BYTES));
+            last++;
+        }
+        ByteBuffer chunk = names[last];
+        int offset = chunk.position();
+        chunk.putShort((short) key.length).put(key);
+        return (long) last << 32 | offset;
+    }
+
+    /**
+     * Checks if a stored username equals a key. Must be called holding the read or write lock.
+     * 
+     * @param id the account ID
+     * @param key the UTF-8 bytes of the username to compare
+     * @return true if the stored username equals the key
+     */
+    private boolean nameEquals(int id, byte[] key) {
+        long ref = nameRefs[id >>> CHUNK_BITS].getLong((id & CHUNK_MASK) * Long.BYTES);
+        ByteBuffer chunk = names[(int) (ref >>> 32)];
+        int offset = (int) ref;
+        if ((chunk.getShort(offset) & 0xFFFF) != key.length) {
+            return false;
+        }
+        offset += Short.BYTES;
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks a username up in the hash index. Must be called holding the read or write lock.
+     * 
+     * @param key the UTF-8 bytes of the username
+     * @param hash the hash of the key
+     * @return the account ID, or -1 if the username is not registered
+     */
+    private int find(byte[] key, int hash) {
+        int mask = index.capacity() / Long.BYTES - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = index.getLong(slot * Long.BYTES);
+            if (entry == 0) {
+                return -1;
+            }
+            int id = (int) entry - 1;
+            if ((int) (entry >>> 32) == hash && nameEquals(id, key)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Inserts an account into the hash index. Must be called holding the write lock.
+     * 
+     * @param hash the hash of the username
+     * @param id the account ID
+     */
+    private void insert(int hash, int id) {
+        int mask = index.capacity() / Long.BYTES - 1;
+        int slot = hash & mask;
+        while (index.getLong(slot * Long.BYTES) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.putLong(slot * Long.BYTES, (long) hash << 32 | (id + 1L));
+    }
+
+    /**
+     * Rehashes the hash index into one twice as large. Must be called holding the write lock.
+     */
+    private void resizeIndex() {
+        ByteBuffer old = index;
+        index = ByteBuffer.allocateDirect(old.capacity() * 2);
+        for (int offset = 0; offset < old.capacity(); offset += Long.BYTES) {
+            long entry = old.getLong(offset);
+            if (entry != 0) {
+                insert((int) (entry >>> 32), (int) entry - 1);
+            }
+        }
+    }
+
+    /**
+     * Hashes the UTF-8 bytes of a username.
+     * 
+     * @param key the username bytes
+     * @return the hash
+     */
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
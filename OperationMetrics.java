@@ -0,0 +1,151 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histogram of one metered operation.
+ * All counters are striped adders, so threads recording at once do not contend.
+ */
+public final class OperationMetrics implements OperationMetricsMXBean {
+    private static final RejectionReason[] REASONS = RejectionReason.values();
+
+    private final MeteredOperation operation;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder[] rejections = new LongAdder[REASONS.length];
+
+    /**
+     * Constructs empty metrics for an operation.
+     * 
+     * @param operation the measured operation
+     */
+    OperationMetrics(MeteredOperation operation) {
+        this.operation = operation;
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one completed call.
+     * 
+     * @param nanos the latency of the call in nanoseconds
+     */
+    void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        // Only a new maximum writes, so the common call leaves the shared cell untouched.
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulate(nanos);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Records one rejected call.
+     * 
+     * @param reason why the call was rejected
+     */
+    void reject(RejectionReason reason) {
+        rejections[reason.ordinal()].increment();
+    }
+
+    /**
+     * Returns the number of calls rejected for a reason.
+     * 
+     * @param reason the rejection reason
+     * @return the rejection count
+     */
+    public long getRejections(RejectionReason reason) {
+        return rejections[reason.ordinal()].sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getOperation() {
+        return operation.getMethodName();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getMeanNanos() {
+        long calls = count.sum();
+        return calls == 0 ? 0 : (double) totalNanos.sum() / calls;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getP50Nanos() {
+        return histogram.percentile(50);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getP99Nanos() {
+        return histogram.percentile(99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getP999Nanos() {
+        return histogram.percentile(99.9);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getRejections() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (RejectionReason reason : REASONS) {
+            long rejected = rejections[reason.ordinal()].sum();
+            if (rejected != 0) {
+                counts.put(reason.name(), rejected);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        histogram.reset();
+        for (LongAdder rejected : rejections) {
+            rejected.reset();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.Map;
+
+/**
+ * Management interface exposing the metrics of one operation over JMX.
+ * Latencies are in nanoseconds; percentiles are accurate to within 1/8 of their value.
+ */
+public interface OperationMetricsMXBean {
+    /**
+     * Returns the name of the measured method.
+     * 
+     * @return the method name
+     */
+    String getOperation();
+
+    /**
+     * Returns the number of completed calls.
+     * 
+     * @return the call count
+     */
+    long getCount();
+
+    /**
+     * Returns the mean latency of completed calls.
+     * 
+     * @return the mean latency in nanoseconds, or 0 if there were no calls
+     */
+    double getMeanNanos();
+
+    /**
+     * Returns the median latency.
+     * 
+     * @return the 50th percentile latency in nanoseconds
+     */
+    long getP50Nanos();
+
+    /**
+     * Returns the 99th percentile latency.
+     * 
+     * @return the 99th percentile latency in nanoseconds
+     */
+    long getP99Nanos();
+
+    /**
+     * Returns the 99.9th percentile latency.
+     * 
+     * @return the 99.9th percentile latency in nanoseconds
+     */
+    long getP999Nanos();
+
+    /**
+     * Returns the largest latency seen.
+     * 
+     * @return the maximum latency in nanoseconds
+     */
+    long getMaxNanos();
+
+    /**
+     * Returns the number of rejected calls per rejection reason.
+     * 
+     * @return the rejection counts keyed by reason name, omitting reasons that never occurred
+     */
+    Map<String, Long> getRejections();
+
+    /**
+     * Discards all recorded counts and latencies.
+     */
+    void reset();
+}
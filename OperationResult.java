@@ -0,0 +1,87 @@
+import java.math.BigDecimal;
+
+/**
+ * The outcome of one operation run through {@link AsyncBank}: whether it was applied, why
+ * not if it was rejected, and the balance of the account it operated on right after it ran.
+ */
+public final class OperationResult {
+    private final RejectionReason rejectionReason;
+    private final long balanceCents;
+
+    /**
+     * Constructs a result.
+     * 
+     * @param rejectionReason why the operation was rejected, or null if it was applied
+     * @param balanceCents the balance of the account after the operation, in cents
+     */
+    private OperationResult(RejectionReason rejectionReason, long balanceCents) {
+        this.rejectionReason = rejectionReason;
+        this.balanceCents = balanceCents;
+    }
+
+    /**
+     * Returns the result of an applied operation.
+     * 
+     * @param balanceCents the balance of the account after the operation, in cents
+     * @return the result
+     */
+    static OperationResult applied(long balanceCents) {
+        return new OperationResult(null, balanceCents);
+    }
+
+    /**
+     * Returns the result of a rejected operation.
+     * 
+     * @param reason why the operation was rejected
+     * @param balanceCents the balance of the account, in cents, or 0 if it does not exist
+     * @return the result
+     */
+    static OperationResult rejected(RejectionReason reason, long balanceCents) {
+        return new OperationResult(reason, balanceCents);
+    }
+
+    /**
+     * Returns whether the operation was applied.
+     * 
+     * @return true if the operation was applied, false if it was rejected
+     */
+    public boolean isApplied() {
+        return rejectionReason == null;
+    }
+
+    /**
+     * Returns why the operation was rejected.
+     * 
+     * @return the reason, or null if the operation was applied
+     */
+    public RejectionReason getRejectionReason() {
+        return rejectionReason;
+    }
+
+    /**
+     * Returns the balance of the account right after the operation ran, before any
+     * operation queued after it.
+     * 
+     * @return the balance in whole cents, or 0 if the account does not exist
+     */
+    public long getBalanceCents() {
+        return balanceCents;
+    }
+
+    /**
+     * Returns the balance of the account right after the operation ran.
+     * 
+     * @return the balance, or zero if the account does not exist
+     */
+    public BigDecimal getBalance() {
+        return Money.toBigDecimal(balanceCents);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return (isApplied() ? "APPLIED" : rejectionReason) + ", balance=" + getBalance();
+    }
+}
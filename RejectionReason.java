@@ -0,0 +1,17 @@
+/**
+ * Reasons an operation measured by {@link Metrics} can be rejected.
+ */
+public enum RejectionReason {
+    /** The account balance does not cover the amount. */
+    INSUFFICIENT_FUNDS,
+    /** The check number has already been processed. */
+    DUPLICATE_CHECK,
+    /** The amount has more than two decimal places. */
+    BAD_SCALE,
+    /** The amount is negative. */
+    NEGATIVE_AMOUNT,
+    /** No account has the given username. */
+    ACCOUNT_NOT_FOUND,
+    /** An account with the given username already exists. */
+    ACCOUNT_EXISTS
+}
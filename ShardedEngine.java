@@ -0,0 +1,414 @@
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Single-writer execution mode for a Bank: accounts are partitioned by the hash of their
+ * username into shards, and every operation on an account is queued to the one thread
+ * that owns its shard.
+ * 
+ * Each shard has a lock-free queue that any number of callers append to, and its thread
+ * is the only consumer. The thread drains up to {@link #MAX_BATCH} commands per pass and
+ * only parks when its queue is empty, so under load one wakeup applies many commands and
+ * callers never wait for each other on a hot account. A caller only unparks the shard
+ * thread if it was parked.
+ * 
+ * Because only the owning thread ever mutates an account through the engine, the account
+ * locks it takes are never contended. They are still taken, so that the engine can be
+ * used alongside the direct Account API and multi-account operations such as
+ * Bank.transfer, which keep working through the usual ordered locking.
+ * 
+ * On a journaled bank the commands of a batch do not each wait for the journal: the
+ * shard waits once for the last journal record of the batch, then completes the batch's
+ * futures, so every future still completes only when its mutation is durable. Only the
+ * commands defer their wait this way: a synchronous Bank or Account call made on a shard
+ * thread outside a command, e.g. from a completion stage, waits for its own record.
+ * 
+ * Futures are completed on the shard thread. Dependent actions that do more than a little
+ * work should be attached with the *Async variants of CompletableFuture, so that they do
+ * not hold up the shard.
+ */
+public class ShardedEngine implements Closeable {
+    /** Maximum number of commands a shard applies before completing their futures. */
+    public static final int MAX_BATCH = 256;
+
+    private final Bank bank;
+    private final Shard[] shards;
+    private volatile boolean closed;
+
+    /**
+     * Starts an engine with one shard per available processor.
+     * 
+     * @param bank the bank whose accounts the engine operates on
+     */
+    public ShardedEngine(Bank bank) {
+        this(bank, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Starts an engine.
+     * 
+     * @param bank the bank whose accounts the engine operates on
+     * @param shardCount the number of shards, each owned by one thread
+     * @throws IllegalArgumentException if shardCount is not positive
+     */
+    public ShardedEngine(Bank bank, int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        this.bank = bank;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard("bank-shard-" + i);
+            shards[i].start();
+        }
+    }
+
+    /**
+     * Creates a new account on the shard that will own it.
+     * 
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username to associate with the account
+     * @return a future completed with true if the account was created, false if the username already exists
+     */
+    public CompletableFuture<Boolean> createAccount(boolean isChecking, String userName) {
+        return submit(userName, () -> bank.createAccount(isChecking, userName));
+    }
+
+    /**
+     * Deposits an amount of cents into an account.
+     * 
+     * @param userName the username associated with the account
+     * @param cents the amount to deposit, in cents
+     * @return a future completed when the deposit is applied, or completed exceptionally with
+     *         IllegalArgumentException if the account does not exist or the amount is not positive
+     */
+    public CompletableFuture<Void> depositCents(String userName, long cents) {
+        return submit(userName, () -> {
+            bank.requireAccount(userName).depositCents(cents);
+            return null;
+        });
+    }
+
+    /**
+     * Withdraws an amount of cents from an account.
+     * 
+     * @param userName the username associated with the account
+     * @param cents the amount to withdraw, in cents
+     * @return a future completed with true if the withdrawal succeeded, false if funds were
+     *         insufficient, or completed exceptionally with IllegalArgumentException if the
+     *         account does not exist or the amount is not positive
+     */
+    public CompletableFuture<Boolean> withdrawCents(String userName, long cents) {
+        return submit(userName, () -> bank.requireAccount(userName).withdrawCents(cents));
+    }
+
+    /**
+     * Deposits a check into a checking account.
+     * 
+     * @param userName the username associated with the checking account
+     * @param cents the amount of the check, in cents
+     * @param checkNumber the check number
+     * @return a future completed with true if the check was deposited, false if it was already
+     *         processed, or completed exceptionally with IllegalArgumentException if the account
+     *         does not exist or is not a checking account
+     */
+    public CompletableFuture<Boolean> depositCheckCents(String userName, long cents, int checkNumber) {
+        return submit(userName, () -> requireChecking(userName).depositCheckCents(cents, checkNumber));
+    }
+
+    /**
+     * Cashes a check from a checking account.
+     * 
+     * @param userName the username associated with the checking account
+     * @param cents the amount of the check, in cents
+     * @param checkNumber the check number
+     * @return a future completed with true if the check was cashed, false if it was already
+     *         processed or funds were insufficient, or completed exceptionally with
+     *         IllegalArgumentException if the account does not exist or is not a checking account
+     */
+    public CompletableFuture<Boolean> cashCheckCents(String userName, long cents, int checkNumber) {
+        return submit(userName, () -> requireChecking(userName).cashCheckCents(cents, checkNumber));
+    }
+
+    /**
+     * Adds one period of interest to an account.
+     * 
+     * @param userName the username associated with the account
+     * @return a future completed when the interest is added, or completed exceptionally with
+     *         IllegalArgumentException if the account does not exist
+     */
+    public CompletableFuture<Void> calculateInterest(String userName) {
+        return submit(userName, () -> {
+            bank.requireAccount(userName).calculateInterest();
+            return null;
+        });
+    }
+
+    /**
+     * Reads the balance of an account in order with the commands queued before it.
+     * 
+     * @param userName the username associated with the account
+     * @return a future completed with the balance in whole cents, or completed exceptionally
+     *         with IllegalArgumentException if the account does not exist
+     */
+    public CompletableFuture<Long> getBalanceCents(String userName) {
+        return submit(userName, () -> bank.requireAccount(userName).getBalanceCents());
+    }
+
+    /**
+     * Returns the number of commands the shards have applied.
+     * 
+     * @return the number of applied commands
+     */
+    public long getCommandCount() {
+        long count = 0;
+        for (Shard shard : shards) {
+            count += shard.commandCount;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of batches the shards have applied. Together with
+     * {@link #getCommandCount()}, this gives the average number of commands per wakeup.
+     * 
+     * @return the number of applied batches
+     */
+    public long getBatchCount() {
+        long count = 0;
+        for (Shard shard : shards) {
+            count += shard.batchCount;
+        }
+        return count;
+    }
+
+    /**
+     * Stops accepting commands, lets every shard apply the commands already queued, and
+     * waits for the shard threads to exit. Does not close the bank.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            shard.stopping = true;
+            LockSupport.unpark(shard);
+        }
+        boolean interrupted = false;
+        for (Shard shard : shards) {
+            while (shard.isAlive()) {
+                try {
+                    shard.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            // Commands queued by callers that raced with close are rejected.
+            Command<?> command;
+            while ((command = shard.queue.poll()) != null) {
+                command.completeExceptionally(new IllegalStateException("Engine is closed"));
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Looks up a checking account.
+     * 
+     * @param userName the username associated with the account
+     * @return the checking account
+     * @throws IllegalArgumentException if the account does not exist or is not a checking account
+     */
+    private CheckingAccount requireChecking(String userName) {
+        AbstractAccount account = bank.requireAccount(userName);
+        if (!(account instanceof CheckingAccount)) {
+            throw new IllegalArgumentException("Not a checking account: " + userName);
+        }
+        return (CheckingAccount) account;
+    }
+
+    /**
+     * Queues a command on the shard owning an account. Commands queued for the same
+     * username run one at a time, in the order they were queued.
+     * 
+     * @param <T> the type of the result
+     * @param userName the username the shard is chosen by
+     * @param operation the command, run on the shard thread
+     * @return a future completed with the result of the command
+     * @throws IllegalStateException if the engine is closed
+     */
+    <T> CompletableFuture<T> submit(String userName, Supplier<T> operation) {
+        if (closed) {
+            throw new IllegalStateException("Engine is closed");
+        }
+        int hash = userName.hashCode();
+        Shard shard = shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+        Command<T> command = new Command<>(operation);
+        shard.queue.offer(command);
+        if (closed && shard.queue.remove(command)) {
+            command.completeExceptionally(new IllegalStateException("Engine is closed"));
+        } else if (shard.parked) {
+            LockSupport.unpark(shard);
+        }
+        return command;
+    }
+
+    /**
+     * One queued operation and, once it has run, its outcome.
+     * 
+     * @param <T> the type of the result
+     */
+    private static final class Command<T> extends CompletableFuture<T> {
+        private final Supplier<T> operation;
+        private T result;
+        private Throwable failure;
+
+        /**
+         * Constructs a command.
+         * 
+         * @param operation the operation to run on the shard thread
+         */
+        Command(Supplier<T> operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * Runs the operation and keeps its outcome for {@link #finish(Throwable)}.
+         */
+        void execute() {
+            try {
+                result = operation.get();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Completes the future with the kept outcome.
+         * 
+         * @param batchFailure an exception that fails the whole batch, or null
+         */
+        void finish(Throwable batchFailure) {
+            if (failure != null) {
+                completeExceptionally(failure);
+            } else if (batchFailure != null) {
+                completeExceptionally(batchFailure);
+            } else {
+                complete(result);
+            }
+        }
+    }
+
+    /**
+     * The thread owning one shard, together with the shard's command queue.
+     */
+    static final class Shard extends Thread {
+        private final ConcurrentLinkedQueue<Command<?>> queue = new ConcurrentLinkedQueue<>();
+        private final Command<?>[] batch = new Command<?>[MAX_BATCH];
+        private volatile boolean parked;
+        private volatile boolean stopping;
+        private volatile long commandCount;
+        private volatile long batchCount;
+        private boolean executing;
+        private TransactionJournal deferredJournal;
+        private long deferredPosition;
+
+        /**
+         * Constructs a shard thread.
+         * 
+         * @param name the thread name
+         */
+        Shard(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        /**
+         * Records a journal position the current batch must wait for before its futures
+         * are completed, if a command of the batch is running. Called on this thread instead
+         * of waiting for each record.
+         * 
+         * @param journal the journal the record was appended to
+         * @param position the position returned when the record was appended
+         * @return true if the wait was deferred to the batch, false if no command is running
+         *         and the caller must wait itself
+         */
+        boolean deferDurability(TransactionJournal journal, long position) {
+            if (!executing) {
+                return false;
+            }
+            deferredJournal = journal;
+            deferredPosition = Math.max(deferredPosition, position);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            while (true) {
+                int size = 0;
+                Command<?> command;
+                while (size < MAX_BATCH && (command = queue.poll()) != null) {
+                    batch[size++] = command;
+                }
+                if (size == 0) {
+                    if (stopping) {
+                        return;
+                    }
+                    // Callers check the flag after queueing, so a command queued after the
+                    // emptiness check below finds it set and unparks the thread.
+                    parked = true;
+                    if (queue.isEmpty() && !stopping) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                    continue;
+                }
+                applyBatch(size);
+            }
+        }
+
+        /**
+         * Runs the commands of a batch, waits for their journal records if there are any,
+         * and completes their futures.
+         * 
+         * @param size the number of commands in the batch
+         */
+        private void applyBatch(int size) {
+            // Only the commands themselves defer durability. Completion stages run below,
+            // after the wait, and must not have their records charged to a later batch.
+            executing = true;
+            try {
+                for (int i = 0; i < size; i++) {
+                    batch[i].execute();
+                }
+            } finally {
+                executing = false;
+            }
+
+            Throwable batchFailure = null;
+            if (deferredPosition != 0) {
+                try {
+                    deferredJournal.awaitDurable(deferredPosition);
+                } catch (RuntimeException e) {
+                    batchFailure = e;
+                }
+                deferredJournal = null;
+                deferredPosition = 0;
+            }
+
+            for (int i = 0; i < size; i++) {
+                batch[i].finish(batchFailure);
+                batch[i] = null;
+            }
+            commandCount += size;
+            batchCount++;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of an account statement: the history entries of a time range, oldest first.
+ * 
+ * The next page is requested with the same time range and {@link #getNextSequence()}.
+ */
+public final class StatementPage {
+    private final List<HistoryEntry> entries;
+    private final boolean hasMore;
+    private final long nextSequence;
+
+    /**
+     * Constructs a statement page.
+     * 
+     * @param entries the entries of the page, oldest first
+     * @param hasMore true if further entries fall into the requested time range
+     * @param nextSequence the sequence number to continue from
+     */
+    StatementPage(List<HistoryEntry> entries, boolean hasMore, long nextSequence) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.hasMore = hasMore;
+        this.nextSequence = nextSequence;
+    }
+
+    /**
+     * Returns the entries of the page.
+     * 
+     * @return the entries, oldest first
+     */
+    public List<HistoryEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Checks if further entries fall into the requested time range.
+     * 
+     * @return true if there is a next page
+     */
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    /**
+     * Returns the sequence number to request the next page from.
+     * 
+     * @return the sequence number following the last entry of this page
+     */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+}
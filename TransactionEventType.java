@@ -0,0 +1,25 @@
+/**
+ * Kinds of events published by account and bank operations.
+ */
+public enum TransactionEventType {
+    /** An amount was deposited; the amount is set. */
+    DEPOSITED,
+    /** An amount was withdrawn; the amount is set. */
+    WITHDRAWN,
+    /** A withdrawal or cashed check was rejected for insufficient funds; the amount is set. */
+    INSUFFICIENT_FUNDS,
+    /** A check was deposited; the amount and check number are set. */
+    CHECK_DEPOSITED,
+    /** A check was cashed; the amount and check number are set. */
+    CHECK_CASHED,
+    /** A check was rejected because it had already been processed; the check number is set. */
+    DUPLICATE_CHECK,
+    /** Interest was added; the amount is the interest rounded to cents and the detail is the rate. */
+    INTEREST_ADDED,
+    /** A bank lookup found no account; the subject is the username that was looked up. */
+    ACCOUNT_NOT_FOUND,
+    /** A transfer debited an account; the amount is set. */
+    TRANSFERRED_OUT,
+    /** A transfer credited an account; the amount is set. */
+    TRANSFERRED_IN
+}
@@ -0,0 +1,48 @@
+import java.math.BigDecimal;
+
+/**
+ * Process-wide access point for transaction events.
+ * Operations publish here, and the installed sink decides what happens to the events.
+ * The default sink discards them, so account operations do no I/O unless a sink is installed.
+ */
+public final class TransactionEvents {
+    private static volatile EventSink sink = EventSink.NO_OP;
+
+    private TransactionEvents() {
+    }
+
+    /**
+     * Installs the sink that receives all subsequent events.
+     * 
+     * @param newSink the sink to install
+     * @throws IllegalArgumentException if newSink is null
+     */
+    public static void setSink(EventSink newSink) {
+        if (newSink == null) {
+            throw new IllegalArgumentException("Event sink cannot be null");
+        }
+        sink = newSink;
+    }
+
+    /**
+     * Returns the installed sink.
+     * 
+     * @return the current sink
+     */
+    public static EventSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Publishes an event to the installed sink.
+     * 
+     * @param type the kind of event
+     * @param subject the account type name, or the username for bank lookups
+     * @param amountCents the amount involved in cents, or 0 if none
+     * @param checkNumber the check number, or 0 if none
+     * @param detail additional data such as the interest rate, or null if none
+     */
+    static void publish(TransactionEventType type, String subject, long amountCents, int checkNumber, BigDecimal detail) {
+        sink.onEvent(type, subject, amountCents, checkNumber, detail);
+    }
+}
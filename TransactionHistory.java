@@ -0,0 +1,321 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded transaction history of one account.
+ * 
+ * The most recent entries are kept in a ring buffer of parallel primitive arrays, which
+ * starts small and grows up to {@link #RING_CAPACITY} entries. When the ring is full, its
+ * oldest {@link #BLOCK_ENTRIES} entries are evicted as one block: handed to the bank's
+ * HistorySpillFile if there is one, or dropped otherwise. The account keeps only the
+ * offset and first timestamp of each spilled block, so the heap cost of old history is a
+ * few bytes per block. The spill file is bounded too; blocks it no longer retains are
+ * dropped from the start of the history.
+ * 
+ * Entries are numbered with consecutive sequence numbers and their timestamps never
+ * decrease, so a statement query finds its first entry with a binary search over the
+ * block index and the ring, reads at most one block per {@link #BLOCK_ENTRIES} entries of
+ * the page, and costs the same however long the history is.
+ * 
+ * Not thread-safe; every method must be called while holding the owning account's lock.
+ */
+final class TransactionHistory {
+    /** Maximum number of entries kept in memory. */
+    static final int RING_CAPACITY = 64;
+    /** Number of entries evicted and spilled together. */
+    static final int BLOCK_ENTRIES = 32;
+
+    private static final int INITIAL_RING_CAPACITY = 8;
+    private static final int TIME_OFFSET = 0;
+    private static final int AMOUNT_OFFSET = TIME_OFFSET + Long.BYTES;
+    private static final int CHECK_NUMBER_OFFSET = AMOUNT_OFFSET + Long.BYTES;
+    private static final int TYPE_OFFSET = CHECK_NUMBER_OFFSET + Integer.BYTES;
+    private static final int ENTRY_BYTES = TYPE_OFFSET + Byte.BYTES;
+    private static final int BLOCK_BYTES = BLOCK_ENTRIES * ENTRY_BYTES;
+    private static final TransactionEventType[] TYPES = TransactionEventType.values();
+
+    private HistorySpillFile spill;
+    private long[] times;
+    private long[] amounts;
+    private int[] checkNumbers;
+    private byte[] types;
+    private int ringStart;
+    private int ringSize;
+    private long firstRingSequence;
+    private long lastTimeMillis;
+
+    private long[] blockOffsets;
+    private long[] blockFirstTimes;
+    private int blockCount;
+    private long firstSpilledSequence;
+
+    /**
+     * Sets the file that evicted entries are spilled to. Entries evicted before are lost.
+     * 
+     * @param spill the spill file, or null to drop evicted entries
+     */
+    void bindSpill(HistorySpillFile spill) {
+        this.spill = spill;
+    }
+
+    /**
+     * Appends an entry stamped with the current time.
+     * 
+     * @param type what happened
+     * @param amountCents the amount in cents
+     * @param checkNumber the check number, or 0 if the transaction did not involve a check
+     */
+    void record(TransactionEventType type, long amountCents, int checkNumber) {
+        if (times == null) {
+            allocateRing(INITIAL_RING_CAPACITY);
+        } else if (ringSize == times.length) {
+            if (times.length < RING_CAPACITY) {
+                allocateRing(times.length * 2);
+            } else {
+                evictBlock();
+            }
+        }
+
+        lastTimeMillis = Math.max(System.currentTimeMillis(), lastTimeMillis);
+        int slot = (ringStart + ringSize) & (times.length - 1);
+        times[slot] = lastTimeMillis;
+        amounts[slot] = amountCents;
+        checkNumbers[slot] = checkNumber;
+        types[slot] = (byte) type.ordinal();
+        ringSize++;
+    }
+
+    /**
+     * Returns the sequence number the next entry will get.
+     * 
+     * @return the number of entries ever recorded
+     */
+    long getNextSequence() {
+        return firstRingSequence + ringSize;
+    }
+
+    /**
+     * Returns one page of the entries in a time range.
+     * 
+     * @param fromMillis the start of the range, inclusive
+     * @param toMillis the end of the range, inclusive
+     * @param fromSequence the sequence number to start from, 0 for the first page
+     * @param pageSize the maximum number of entries to return
+     * @return the page
+     */
+    StatementPage query(long fromMillis, long toMillis, long fromSequence, int pageSize) {
+        while (true) {
+            dropExpiredBlocks();
+            Reader reader = new Reader();
+            StatementPage page = query(reader, fromMillis, toMillis, fromSequence, pageSize);
+            // Blocks of other accounts may overwrite a block while it is read; start over without it.
+            if (!reader.expired) {
+                return page;
+            }
+        }
+    }
+
+    /**
+     * Returns one page of the entries in a time range, reading spilled blocks with a reader.
+     * The page is incomplete if the reader finds a block expired.
+     * 
+     * @param reader the reader to load spilled blocks with
+     * @param fromMillis the start of the range, inclusive
+     * @param toMillis the end of the range, inclusive
+     * @param fromSequence the sequence number to start from, 0 for the first page
+     * @param pageSize the maximum number of entries to return
+     * @return the page
+     */
+    private StatementPage query(Reader reader, long fromMillis, long toMillis, long fromSequence, int pageSize) {
+        long end = getNextSequence();
+        long sequence = Math.max(fromSequence, firstSequenceAtOrAfter(fromMillis, reader));
+        List<HistoryEntry> entries = new ArrayList<>(Math.min(pageSize, RING_CAPACITY));
+        while (sequence < end && entries.size() < pageSize) {
+            if (reader.seek(sequence) > toMillis) {
+                return new StatementPage(entries, false, sequence);
+            }
+            entries.add(reader.entry(sequence));
+            sequence++;
+        }
+        boolean hasMore = sequence < end && reader.seek(sequence) <= toMillis;
+        return new StatementPage(entries, hasMore, sequence);
+    }
+
+    /**
+     * Finds the first retained entry at or after a point in time.
+     * 
+     * @param fromMillis the point in time
+     * @param reader a reader to load spilled blocks with
+     * @return the sequence number of the entry, or the next sequence if there is none
+     */
+    private long firstSequenceAtOrAfter(long fromMillis, Reader reader) {
+        if (ringSize > 0 && fromMillis > times[ringStart]) {
+            int low = 0;
+            int high = ringSize;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (times[(ringStart + middle) & (times.length - 1)] < fromMillis) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return firstRingSequence + low;
+        }
+        if (blockCount == 0) {
+            return firstRingSequence;
+        }
+
+        // The last block starting before fromMillis holds the first entry at or after it,
+        // unless all of its entries are earlier, in which case the next block or the ring does.
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blockFirstTimes[middle] < fromMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == 0) {
+            return firstSpilledSequence;
+        }
+        long sequence = firstSpilledSequence + (long) (low - 1) * BLOCK_ENTRIES;
+        long blockEnd = sequence + BLOCK_ENTRIES;
+        while (sequence < blockEnd && reader.seek(sequence) < fromMillis) {
+            sequence++;
+        }
+        return sequence;
+    }
+
+    /**
+     * Replaces the ring arrays with larger ones, moving the entries to the start.
+     * 
+     * @param capacity the new capacity, a power of two
+     */
+    private void allocateRing(int capacity) {
+        long[] newTimes = new long[capacity];
+        long[] newAmounts = new long[capacity];
+        int[] newCheckNumbers = new int[capacity];
+        byte[] newTypes = new byte[capacity];
+        for (int i = 0; i < ringSize; i++) {
+            int slot = (ringStart + i) & (times.length - 1);
+            newTimes[i] = times[slot];
+            newAmounts[i] = amounts[slot];
+            newCheckNumbers[i] = checkNumbers[slot];
+            newTypes[i] = types[slot];
+        }
+        times = newTimes;
+        amounts = newAmounts;
+        checkNumbers = newCheckNumbers;
+        types = newTypes;
+        ringStart = 0;
+    }
+
+    /**
+     * Forgets the oldest spilled blocks that the spill file no longer retains.
+     */
+    private void dropExpiredBlocks() {
+        int expired = 0;
+        while (expired < blockCount && !spill.isRetained(blockOffsets[expired])) {
+            expired++;
+        }
+        if (expired == 0) {
+            return;
+        }
+        blockCount -= expired;
+        System.arraycopy(blockOffsets, expired, blockOffsets, 0, blockCount);
+        System.arraycopy(blockFirstTimes, expired, blockFirstTimes, 0, blockCount);
+        firstSpilledSequence += (long) expired * BLOCK_ENTRIES;
+    }
+
+    /**
+     * Removes the oldest block of entries from the ring, spilling it if there is a spill file.
+     */
+    private void evictBlock() {
+        if (spill != null) {
+            dropExpiredBlocks();
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES);
+            for (int i = 0; i < BLOCK_ENTRIES; i++) {
+                int slot = (ringStart + i) & (times.length - 1);
+                block.putLong(times[slot]).putLong(amounts[slot]).putInt(checkNumbers[slot]).put(types[slot]);
+            }
+            block.flip();
+            long offset = spill.write(block);
+
+            if (blockCount == 0) {
+                firstSpilledSequence = firstRingSequence;
+                blockOffsets = new long[4];
+                blockFirstTimes = new long[4];
+            } else if (blockCount == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+                blockFirstTimes = Arrays.copyOf(blockFirstTimes, blockCount * 2);
+            }
+            blockOffsets[blockCount] = offset;
+            blockFirstTimes[blockCount] = times[ringStart];
+            blockCount++;
+        }
+
+        ringStart = (ringStart + BLOCK_ENTRIES) & (times.length - 1);
+        ringSize -= BLOCK_ENTRIES;
+        firstRingSequence += BLOCK_ENTRIES;
+    }
+
+    /**
+     * Reads entries by sequence number from the ring or the spilled blocks, keeping the
+     * most recently loaded block so that consecutive entries are read with one I/O per block.
+     */
+    private final class Reader {
+        private final ByteBuffer block = ByteBuffer.allocate(BLOCK_BYTES);
+        private int loadedBlock = -1;
+        private boolean expired;
+        private boolean inRing;
+        private int position;
+
+        /**
+         * Positions the reader on an entry and returns its timestamp.
+         * 
+         * @param sequence the sequence number of a retained entry
+         * @return the time of the entry in milliseconds since the epoch, or Long.MAX_VALUE
+         *         if its block expired, which ends the query
+         */
+        long seek(long sequence) {
+            inRing = sequence >= firstRingSequence;
+            if (inRing) {
+                position = (ringStart + (int) (sequence - firstRingSequence)) & (times.length - 1);
+                return times[position];
+            }
+
+            int blockIndex = (int) ((sequence - firstSpilledSequence) / BLOCK_ENTRIES);
+            if (blockIndex != loadedBlock) {
+                block.clear();
+                if (!spill.read(blockOffsets[blockIndex], block)) {
+                    expired = true;
+                    loadedBlock = -1;
+                    return Long.MAX_VALUE;
+                }
+                loadedBlock = blockIndex;
+            }
+            position = (int) ((sequence - firstSpilledSequence) % BLOCK_ENTRIES) * ENTRY_BYTES;
+            return block.getLong(position + TIME_OFFSET);
+        }
+
+        /**
+         * Builds the entry the reader was last positioned on.
+         * 
+         * @param sequence the sequence number passed to {@link #seek(long)}
+         * @return the entry
+         */
+        HistoryEntry entry(long sequence) {
+            if (inRing) {
+                return new HistoryEntry(sequence, times[position], TYPES[types[position]],
+                        amounts[position], checkNumbers[position]);
+            }
+            return new HistoryEntry(sequence, block.getLong(position + TIME_OFFSET), TYPES[block.get(position + TYPE_OFFSET)],
+                    block.getLong(position + AMOUNT_OFFSET), block.getInt(position + CHECK_NUMBER_OFFSET));
+        }
+    }
+}
@@ -0,0 +1,656 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary write-ahead journal of bank mutations.
+ * 
+ * Every record is framed as [length:int][crc32:int][payload], and the payload starts with
+ * a one-byte record type and the ordinal of the account it applies to. Accounts get their
+ * ordinal from the order of their creation records, so later records only need four bytes
+ * to name an account.
+ * 
+ * Appends only copy the record into an in-memory buffer and return the journal position
+ * just past it. A caller that needs the record to be durable calls {@link #awaitDurable(long)}.
+ * The first waiter becomes the leader: it writes everything appended so far and forces it
+ * to disk with a single fsync, while the other waiters block until their position is
+ * covered. This group commit amortizes one fsync over all concurrent writers.
+ * 
+ * Transfers touch several accounts and are written as a single record listing every leg,
+ * so a crash can never leave half of a transfer in the journal.
+ * 
+ * A failed write or fsync leaves the journal failed; every later append or wait throws.
+ */
+public class TransactionJournal implements Closeable {
+    static final byte CREATE_CHECKING = 1;
+    static final byte CREATE_SAVINGS = 2;
+    static final byte DEPOSIT = 3;
+    static final byte WITHDRAW = 4;
+    static final byte DEPOSIT_CHECK = 5;
+    static final byte CASH_CHECK = 6;
+    static final byte REJECT_CHECK = 7;
+    static final byte INTEREST = 8;
+    static final byte TRANSFER = 9;
+    static final byte DAILY_INTEREST = 10;
+    static final byte HOLD_CHECK = 11;
+    static final byte RELEASE_HOLDS = 12;
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int MAX_RECORD_BYTES = 1 << 16;
+    private static final int TRANSFER_LEG_BYTES = 2 * Integer.BYTES + Long.BYTES;
+
+    /** Largest number of legs a transfer record can hold. */
+    static final int MAX_TRANSFER_LEGS = (MAX_RECORD_BYTES - Byte.BYTES - 2 * Integer.BYTES) / TRANSFER_LEG_BYTES;
+
+    /** Account ordinal written in records that touch more than one account. */
+    private static final int NO_ORDINAL = -1;
+    private static final int MAX_KEY_BYTES = Short.MAX_VALUE;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final boolean forceOnCommit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final CRC32 crc = new CRC32();
+
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private long appendedPosition;
+    private long durablePosition;
+    private boolean flushing;
+    private int recordStart;
+    private final List<AbstractAccount> accountsByOrdinal;
+    private final List<String> userNamesByOrdinal;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Opens a journal for appending, positioned at the end of the valid records in the file.
+     * 
+     * @param channel the journal file, opened for reading and writing
+     * @param validLength the length of the valid prefix of the file
+     * @param accounts the restored accounts, indexed by ordinal
+     * @param userNames the usernames of the restored accounts, indexed by ordinal
+     * @param forceOnCommit true to fsync on every group commit
+     * @throws IOException if the file cannot be truncated to its valid prefix
+     */
+    private TransactionJournal(FileChannel channel, long validLength, List<AbstractAccount> accounts,
+            List<String> userNames, boolean forceOnCommit) throws IOException {
+        this.channel = channel;
+        this.forceOnCommit = forceOnCommit;
+        this.pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        this.spare = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        this.accountsByOrdinal = accounts;
+        this.userNamesByOrdinal = userNames;
+        channel.truncate(validLength);
+        channel.position(validLength);
+        this.appendedPosition = validLength;
+        this.durablePosition = validLength;
+    }
+
+    /**
+     * Opens a journal file, creating it if needed, and replays its records into a bank.
+     * A torn or corrupt record at the end of the file, left by a crash during a write,
+     * is discarded together with everything after it.
+     * 
+     * If a snapshot is given, its accounts are restored first and replay starts at the
+     * journal position the snapshot was cut at, skipping records the snapshot already covers.
+     * A snapshot that is ahead of the journal file is ignored.
+     * 
+     * @param path the journal file
+     * @param bank the bank to rebuild from the journal
+     * @param snapshot the latest snapshot of the bank, or null to replay the whole journal
+     * @param forceOnCommit true to fsync on every group commit, false to only write to the OS
+     * @return the opened journal, ready for appending
+     * @throws IOException if the journal cannot be read or opened
+     */
+    static TransactionJournal open(Path path, Bank bank, BankSnapshot snapshot, boolean forceOnCommit) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            List<AbstractAccount> accounts = new ArrayList<>();
+            List<String> userNames = new ArrayList<>();
+            long startPosition = 0;
+            long[] capturedPositions = new long[0];
+            if (snapshot != null && snapshot.getJournalPosition() <= channel.size()) {
+                startPosition = snapshot.getJournalPosition();
+                capturedPositions = snapshot.getCapturedPositions();
+                for (int ordinal = 0; ordinal < snapshot.getAccountCount(); ordinal++) {
+                    bank.restoreAccount(snapshot.getUserName(ordinal), snapshot.getAccount(ordinal));
+                    accounts.add(snapshot.getAccount(ordinal));
+                    userNames.add(snapshot.getUserName(ordinal));
+                }
+            }
+
+            long validLength = replay(channel, startPosition, capturedPositions, bank, accounts, userNames);
+            TransactionJournal journal = new TransactionJournal(channel, validLength, accounts, userNames, forceOnCommit);
+            for (int ordinal = 0; ordinal < accounts.size(); ordinal++) {
+                accounts.get(ordinal).bindJournal(journal, ordinal);
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the creation record of a new account and binds the account to this journal.
+     * 
+     * @param account the new account
+     * @param isChecking true for checking account, false for savings account
+     * @param userName the username the account is registered under
+     * @return the journal position just past the record
+     * @throws IllegalArgumentException if the username is too long to be journaled
+     */
+    long appendCreate(AbstractAccount account, boolean isChecking, String userName) {
+        byte[] key = userName.getBytes(StandardCharsets.UTF_8);
+        if (key.length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Username is too long");
+        }
+        lock.lock();
+        try {
+            int ordinal = accountsByOrdinal.size();
+            ByteBuffer buffer = beginRecord(isChecking ? CREATE_CHECKING : CREATE_SAVINGS, ordinal,
+                    Short.BYTES + key.length);
+            buffer.putShort((short) key.length).put(key);
+            long position = endRecord(buffer);
+            account.bindJournal(this, ordinal);
+            accountsByOrdinal.add(account);
+            userNamesByOrdinal.add(userName);
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a balance mutation record.
+     * 
+     * @param type the record type
+     * @param ordinal the account ordinal
+     * @param cents the amount in cents
+     * @return the journal position just past the record
+     */
+    long append(byte type, int ordinal, long cents) {
+        lock.lock();
+        try {
+            ByteBuffer buffer = beginRecord(type, ordinal, Long.BYTES);
+            buffer.putLong(cents);
+            return endRecord(buffer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a check record.
+     * 
+     * @param type the record type
+     * @param ordinal the account ordinal
+     * @param cents the amount on the check in cents
+     * @param checkNumber the check number
+     * @return the journal position just past the record
+     */
+    long appendCheck(byte type, int ordinal, long cents, int checkNumber) {
+        lock.lock();
+        try {
+            ByteBuffer buffer = beginRecord(type, ordinal, Long.BYTES + Integer.BYTES);
+            buffer.putLong(cents).putInt(checkNumber);
+            return endRecord(buffer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a transfer record covering every leg of the transfer.
+     * 
+     * @param fromOrdinals the ordinals of the accounts debited, one per leg
+     * @param toOrdinals the ordinals of the accounts credited, one per leg
+     * @param cents the amount of each leg in cents
+     * @return the journal position just past the record
+     */
+    long appendTransfer(int[] fromOrdinals, int[] toOrdinals, long[] cents) {
+        int legs = cents.length;
+        int bodyBytes = Integer.BYTES + legs * TRANSFER_LEG_BYTES;
+        lock.lock();
+        try {
+            ByteBuffer buffer = beginRecord(TRANSFER, NO_ORDINAL, bodyBytes);
+            buffer.putInt(legs);
+            for (int leg = 0; leg < legs; leg++) {
+                buffer.putInt(fromOrdinals[leg]).putInt(toOrdinals[leg]).putLong(cents[leg]);
+            }
+            return endRecord(buffer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends an interest posting record. The interest itself is recomputed on replay.
+     * 
+     * @param ordinal the account ordinal
+     * @return the journal position just past the record
+     */
+    long appendInterest(int ordinal) {
+        lock.lock();
+        try {
+            return endRecord(beginRecord(INTEREST, ordinal, 0));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a daily interest accrual record. The interest itself is recomputed on replay,
+     * from the account's previous accrual day and the rate in the record.
+     * 
+     * @param ordinal the account ordinal
+     * @param dailyRateUnscaled the unscaled value of the daily rate, at DailyInterest.RATE_SCALE
+     * @param day the day the account accrued up to
+     * @return the journal position just past the record
+     */
+    long appendDailyInterest(int ordinal, long dailyRateUnscaled, long day) {
+        lock.lock();
+        try {
+            ByteBuffer buffer = beginRecord(DAILY_INTEREST, ordinal, 2 * Long.BYTES);
+            buffer.putLong(dailyRateUnscaled).putLong(day);
+            return endRecord(buffer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the position just past the last appended record.
+     * 
+     * @return the appended position
+     */
+    long getAppendedPosition() {
+        lock.lock();
+        try {
+            return appendedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a snapshot by copying every account created so far, in ordinal order.
+     * Creation records of all copied accounts lie at or before the returned position,
+     * and accounts created later are only found by replaying past it.
+     * 
+     * @param accounts receives the accounts, indexed by ordinal
+     * @param userNames receives the usernames of the accounts, indexed by ordinal
+     * @return the journal position the snapshot is cut at
+     */
+    long beginSnapshot(List<AbstractAccount> accounts, List<String> userNames) {
+        lock.lock();
+        try {
+            accounts.addAll(accountsByOrdinal);
+            userNames.addAll(userNamesByOrdinal);
+            return appendedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every record up to a position is durable, leading a group commit if no
+     * other thread is already writing.
+     * 
+     * @param position a position returned by an append
+     * @throws UncheckedIOException if the journal failed to write or force its records
+     */
+    void awaitDurable(long position) {
+        lock.lock();
+        try {
+            while (durablePosition < position) {
+                checkUsable();
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                } else {
+                    flushPending();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until a position is durable, unless called from a command running on a
+     * ShardedEngine shard thread, which waits once for its whole batch of commands instead.
+     * Anything else on a shard thread, such as a completion stage, waits here.
+     * 
+     * @param position a position returned by an append
+     * @throws UncheckedIOException if the journal failed to write or force its records
+     */
+    void awaitDurableOrDefer(long position) {
+        Thread current = Thread.currentThread();
+        if (!(current instanceof ShardedEngine.Shard) || !((ShardedEngine.Shard) current).deferDurability(this, position)) {
+            awaitDurable(position);
+        }
+    }
+
+    /**
+     * Makes every appended record durable and closes the journal file.
+     * 
+     * @throws IOException if the final write or close fails
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (failure == null) {
+                try {
+                    awaitDurable(appendedPosition);
+                } catch (UncheckedIOException e) {
+                    // The failure is already recorded; still close the file.
+                }
+            }
+            closed = true;
+            channel.close();
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes and forces the pending buffer as the group commit leader.
+     * Called with the lock held; releases it while doing I/O.
+     */
+    private void flushPending() {
+        flushing = true;
+        ByteBuffer batch = pending;
+        pending = spare;
+        spare = null;
+        long target = appendedPosition;
+
+        IOException error = null;
+        lock.unlock();
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            if (forceOnCommit) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+        }
+
+        batch.clear();
+        spare = batch;
+        flushing = false;
+        if (error != null) {
+            failure = error;
+        } else {
+            durablePosition = target;
+        }
+        flushed.signalAll();
+    }
+
+    /**
+     * Starts a record in the pending buffer, growing the buffer if needed.
+     * Called with the lock held.
+     * 
+     * @param type the record type
+     * @param ordinal the account ordinal
+     * @param bodyBytes the number of bytes following the type and ordinal
+     * @return the pending buffer, positioned after the type and ordinal
+     */
+    private ByteBuffer beginRecord(byte type, int ordinal, int bodyBytes) {
+        checkUsable();
+        int recordBytes = HEADER_BYTES + Byte.BYTES + Integer.BYTES + bodyBytes;
+        if (pending.remaining() < recordBytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + recordBytes));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        recordStart = pending.position();
+        pending.position(recordStart + HEADER_BYTES);
+        return pending.put(type).putInt(ordinal);
+    }
+
+    /**
+     * Fills in the header of the record started by {@link #beginRecord}.
+     * Called with the lock held.
+     * 
+     * @param buffer the pending buffer, positioned after the record
+     * @return the journal position just past the record
+     */
+    private long endRecord(ByteBuffer buffer) {
+        int end = buffer.position();
+        int start = recordStart;
+        int payloadBytes = end - start - HEADER_BYTES;
+        crc.reset();
+        crc.update(buffer.array(), start + HEADER_BYTES, payloadBytes);
+        buffer.putInt(start, payloadBytes);
+        buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+        appendedPosition += end - start;
+        return appendedPosition;
+    }
+
+    /**
+     * Throws if the journal can no longer be used.
+     * 
+     * @throws UncheckedIOException if an earlier write failed
+     * @throws IllegalStateException if the journal is closed
+     */
+    private void checkUsable() {
+        if (failure != null) {
+            throw new UncheckedIOException("Transaction journal failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Transaction journal is closed");
+        }
+    }
+
+    /**
+     * Reads every valid record from a start position and applies it to the bank.
+     * 
+     * @param channel the journal file
+     * @param startPosition the position to start reading at
+     * @param capturedPositions for each account restored from a snapshot, the position up to
+     *        which its records are already included in the snapshot
+     * @param bank the bank to rebuild
+     * @param accounts the restored accounts, indexed by ordinal; receives new accounts
+     * @param userNames the usernames of the restored accounts; receives new usernames
+     * @return the length of the valid prefix of the file
+     * @throws IOException if the file cannot be read
+     */
+    private static long replay(FileChannel channel, long startPosition, long[] capturedPositions, Bank bank,
+            List<AbstractAccount> accounts, List<String> userNames) throws IOException {
+        channel.position(startPosition);
+        InputStream stream = new BufferedInputStream(Channels.newInputStream(channel), INITIAL_BUFFER_BYTES);
+        DataInputStream input = new DataInputStream(stream);
+        CRC32 checksum = new CRC32();
+        byte[] payload = new byte[256];
+        long validLength = startPosition;
+
+        while (true) {
+            int payloadBytes;
+            int expectedCrc;
+            try {
+                payloadBytes = input.readInt();
+                expectedCrc = input.readInt();
+                if (payloadBytes < Byte.BYTES + Integer.BYTES || payloadBytes > MAX_RECORD_BYTES) {
+                    break;
+                }
+                if (payload.length < payloadBytes) {
+                    payload = new byte[payloadBytes];
+                }
+                input.readFully(payload, 0, payloadBytes);
+            } catch (EOFException e) {
+                break;
+            }
+
+            checksum.reset();
+            checksum.update(payload, 0, payloadBytes);
+            if ((int) checksum.getValue() != expectedCrc) {
+                break;
+            }
+            long recordEnd = validLength + HEADER_BYTES + payloadBytes;
+            ByteBuffer record = ByteBuffer.wrap(payload, 0, payloadBytes);
+            int ordinal = record.getInt(Byte.BYTES);
+            boolean applied;
+            if (record.get(0) == TRANSFER) {
+                applied = applyTransfer(record, recordEnd, capturedPositions, accounts);
+            } else if (isCoveredBySnapshot(ordinal, recordEnd, capturedPositions)) {
+                applied = true;
+            } else {
+                applied = applyRecord(record, bank, accounts, userNames);
+            }
+            if (!applied) {
+                break;
+            }
+            validLength = recordEnd;
+        }
+        return validLength;
+    }
+
+    /**
+     * Checks if a snapshot already includes the effect of a record on an account.
+     * 
+     * @param ordinal the account ordinal
+     * @param recordEnd the journal position just past the record
+     * @param capturedPositions the positions captured by the snapshot, indexed by ordinal
+     * @return true if the record must not be applied to the account again
+     */
+    private static boolean isCoveredBySnapshot(int ordinal, long recordEnd, long[] capturedPositions) {
+        return ordinal >= 0 && ordinal < capturedPositions.length && recordEnd <= capturedPositions[ordinal];
+    }
+
+    /**
+     * Applies a decoded transfer record, skipping legs whose accounts a snapshot already covers.
+     * 
+     * @param record the record payload
+     * @param recordEnd the journal position just past the record
+     * @param capturedPositions the positions captured by the snapshot, indexed by ordinal
+     * @param accounts the restored accounts, indexed by ordinal
+     * @return true if the record was applied, false if it is not valid
+     */
+    private static boolean applyTransfer(ByteBuffer record, long recordEnd, long[] capturedPositions,
+            List<AbstractAccount> accounts) {
+        record.position(Byte.BYTES + Integer.BYTES);
+        int legs = record.getInt();
+        if (legs < 0 || record.remaining() != (long) legs * TRANSFER_LEG_BYTES) {
+            return false;
+        }
+        for (int leg = 0; leg < legs; leg++) {
+            int from = record.getInt();
+            int to = record.getInt();
+            record.getLong();
+            if (from < 0 || from >= accounts.size() || to < 0 || to >= accounts.size()) {
+                return false;
+            }
+        }
+
+        record.position(Byte.BYTES + 2 * Integer.BYTES);
+        for (int leg = 0; leg < legs; leg++) {
+            int from = record.getInt();
+            int to = record.getInt();
+            long cents = record.getLong();
+            if (!isCoveredBySnapshot(from, recordEnd, capturedPositions)) {
+                accounts.get(from).replayDebit(cents);
+            }
+            if (!isCoveredBySnapshot(to, recordEnd, capturedPositions)) {
+                accounts.get(to).replayCredit(cents);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies one decoded record.
+     * 
+     * @param record the record payload
+     * @param bank the bank to rebuild
+     * @param accounts the restored accounts, indexed by ordinal
+     * @param userNames the usernames of the restored accounts, indexed by ordinal
+     * @return true if the record was applied, false if it is not valid
+     */
+    private static boolean applyRecord(ByteBuffer record, Bank bank, List<AbstractAccount> accounts,
+            List<String> userNames) {
+        byte type = record.get();
+        int ordinal = record.getInt();
+
+        if (type == CREATE_CHECKING || type == CREATE_SAVINGS) {
+            if (ordinal != accounts.size()) {
+                return false;
+            }
+            byte[] key = new byte[record.getShort() & 0xFFFF];
+            record.get(key);
+            String userName = new String(key, StandardCharsets.UTF_8);
+            AbstractAccount account = Bank.newAccount(type == CREATE_CHECKING);
+            bank.restoreAccount(userName, account);
+            accounts.add(account);
+            userNames.add(userName);
+            return true;
+        }
+
+        if (ordinal < 0 || ordinal >= accounts.size()) {
+            return false;
+        }
+        AbstractAccount account = accounts.get(ordinal);
+        switch (type) {
+            case DEPOSIT:
+                account.replayCredit(record.getLong());
+                return true;
+            case WITHDRAW:
+                account.replayDebit(record.getLong());
+                return true;
+            case INTEREST:
+                account.replayInterest();
+                return true;
+            case DAILY_INTEREST:
+                account.replayDailyInterest(BigDecimal.valueOf(record.getLong(), DailyInterest.RATE_SCALE), record.getLong());
+                return true;
+            case DEPOSIT_CHECK:
+            case CASH_CHECK:
+            case REJECT_CHECK:
+            case HOLD_CHECK:
+                if (!(account instanceof CheckingAccount)) {
+                    return false;
+                }
+                ((CheckingAccount) account).replayCheck(type, record.getLong(), record.getInt());
+                return true;
+            case RELEASE_HOLDS:
+                if (!(account instanceof CheckingAccount)) {
+                    return false;
+                }
+                ((CheckingAccount) account).replayReleaseHolds(record.getLong());
+                return true;
+            default:
+                return false;
+        }
+    }
+}
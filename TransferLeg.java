@@ -0,0 +1,103 @@
+/**
+ * One movement of money from one account to another, as part of a Bank transfer.
+ * Accounts are named by the keys they are registered under in the bank.
+ */
+public final class TransferLeg {
+    private final String fromUserName;
+    private final String toUserName;
+    private final long amountCents;
+
+    /**
+     * Constructs a transfer leg.
+     * 
+     * @param fromUserName the username of the account to debit
+     * @param toUserName the username of the account to credit
+     * @param amount the amount to move
+     * @throws IllegalArgumentException if the amount is negative or has more than two decimal
+     *         places, or both usernames are the same
+     */
+    public TransferLeg(String fromUserName, String toUserName, double amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Transfer amount cannot be negative");
+        }
+
+        if (Money.hasMoreThanTwoDecimalPlaces(amount)) {
+            throw new IllegalArgumentException("Transfer amount cannot have more than two decimal places");
+        }
+
+        this.amountCents = Money.toCents(amount);
+        this.fromUserName = fromUserName;
+        this.toUserName = requireOtherAccount(fromUserName, toUserName);
+    }
+
+    /**
+     * Constructs a transfer leg for an exact amount of cents.
+     * 
+     * @param amountCents the amount to move in cents
+     * @param fromUserName the username of the account to debit
+     * @param toUserName the username of the account to credit
+     */
+    private TransferLeg(long amountCents, String fromUserName, String toUserName) {
+        this.amountCents = amountCents;
+        this.fromUserName = fromUserName;
+        this.toUserName = requireOtherAccount(fromUserName, toUserName);
+    }
+
+    /**
+     * Creates a transfer leg for an exact amount of cents.
+     * 
+     * @param fromUserName the username of the account to debit
+     * @param toUserName the username of the account to credit
+     * @param amountCents the amount to move in cents
+     * @return the transfer leg
+     * @throws IllegalArgumentException if the amount is negative or both usernames are the same
+     */
+    public static TransferLeg ofCents(String fromUserName, String toUserName, long amountCents) {
+        if (amountCents < 0) {
+            throw new IllegalArgumentException("Transfer amount cannot be negative");
+        }
+        return new TransferLeg(amountCents, fromUserName, toUserName);
+    }
+
+    /**
+     * Returns the username of the account to debit.
+     * 
+     * @return the source username
+     */
+    public String getFromUserName() {
+        return fromUserName;
+    }
+
+    /**
+     * Returns the username of the account to credit.
+     * 
+     * @return the target username
+     */
+    public String getToUserName() {
+        return toUserName;
+    }
+
+    /**
+     * Returns the amount to move in cents.
+     * 
+     * @return the amount in cents
+     */
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    /**
+     * Checks that a transfer names two different accounts.
+     * 
+     * @param fromUserName the username of the account to debit
+     * @param toUserName the username of the account to credit
+     * @return the username of the account to credit
+     * @throws IllegalArgumentException if both usernames are the same
+     */
+    private static String requireOtherAccount(String fromUserName, String toUserName) {
+        if (fromUserName.equals(toUserName)) {
+            throw new IllegalArgumentException("Cannot transfer to the same account");
+        }
+        return toUserName;
+    }
+}
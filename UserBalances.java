@@ -0,0 +1,64 @@
+import java.math.BigDecimal;
+
+/**
+ * The balances of one user's checking and savings accounts, read as of one point in time
+ * by {@link Bank#getUserBalances(String)}.
+ */
+public final class UserBalances {
+    private final BigDecimal checking;
+    private final BigDecimal savings;
+
+    /**
+     * Constructs a user's balances.
+     * 
+     * @param checking the checking balance, or null if the user has no checking account
+     * @param savings the savings balance, or null if the user has no savings account
+     */
+    UserBalances(BigDecimal checking, BigDecimal savings) {
+        this.checking = checking;
+        this.savings = savings;
+    }
+
+    /**
+     * Returns the balance of the checking account.
+     * 
+     * @return the balance, or null if the user has no checking account
+     */
+    public BigDecimal getChecking() {
+        return checking;
+    }
+
+    /**
+     * Returns the balance of the savings account.
+     * 
+     * @return the balance, or null if the user has no savings account
+     */
+    public BigDecimal getSavings() {
+        return savings;
+    }
+
+    /**
+     * Returns the sum of both balances. Money moving between the two accounts is counted
+     * exactly once.
+     * 
+     * @return the total balance of the user's accounts
+     */
+    public BigDecimal getTotal() {
+        BigDecimal total = BigDecimal.ZERO.setScale(Money.SCALE);
+        if (checking != null) {
+            total = total.add(checking);
+        }
+        if (savings != null) {
+            total = total.add(savings);
+        }
+        return total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "checking=" + checking + ", savings=" + savings + ", total=" + getTotal();
+    }
+}
@@ -0,0 +1,399 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Synthetic workload generator for sizing hardware for a Bank.
+ * 
+ * The simulator creates a checking and a savings account for each of a number of users
+ * through {@link Bank#createAccount(boolean, String)}, funds them, and then lets a number
+ * of threads apply a configurable mix of deposits, withdrawals, check deposits, check
+ * cashing and interest postings. The user each operation touches is drawn from a Zipf
+ * distribution, so a few hot accounts receive most of the traffic, as in real banks;
+ * an exponent of 0 spreads the load uniformly. Which users are hot is shuffled, so hot
+ * accounts are not neighbours in the registry; "--seed" chooses the shuffle.
+ * 
+ * At the end the simulator reports throughput and latency percentiles per operation, and
+ * checks that the sum of all balances equals the expected ledger: the initial funding plus
+ * every deposit and interest posting, minus every withdrawal and check that was paid out.
+ * 
+ * Usage: java WorkloadSimulator [--users 100000] [--threads 4] [--operations 1000000]
+ *        [--mix deposit=40,withdraw=35,depositCheck=12,cashCheck=12,interest=1]
+ *        [--zipf 0.99] [--initial 1000.00] [--seed 1]
+ */
+public class WorkloadSimulator {
+    /** Operations the simulator can apply, in the order of the mix. */
+    private enum Operation {
+        DEPOSIT("deposit"),
+        WITHDRAW("withdraw"),
+        DEPOSIT_CHECK("depositCheck"),
+        CASH_CHECK("cashCheck"),
+        INTEREST("interest");
+
+        private final String optionName;
+
+        /**
+         * Constructs an operation.
+         * 
+         * @param optionName the name of the operation in the "--mix" option
+         */
+        Operation(String optionName) {
+            this.optionName = optionName;
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final long MAX_AMOUNT_CENTS = 100_00;
+
+    private int userCount = 100_000;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private long operationCount = 1_000_000;
+    private int[] mix = {40, 35, 12, 12, 1};
+    private double zipfExponent = 0.99;
+    private long initialCents = 1000_00;
+    private long seed = 1;
+
+    private Bank bank;
+    private CheckingAccount[] checkingAccounts;
+    private SavingsAccount[] savingsAccounts;
+    private int[] hotness;
+    private double[] zipfCumulative;
+    private final AtomicInteger nextCheckNumber = new AtomicInteger(1);
+    private final LongAdder expectedCents = new LongAdder();
+    private final LongAdder[] counts = new LongAdder[OPERATIONS.length];
+    private final LongAdder[] rejections = new LongAdder[OPERATIONS.length];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+
+    /**
+     * Constructs a simulator with the default options.
+     */
+    private WorkloadSimulator() {
+        for (Operation operation : OPERATIONS) {
+            counts[operation.ordinal()] = new LongAdder();
+            rejections[operation.ordinal()] = new LongAdder();
+            latencies[operation.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Runs the simulation. Exits with status 1 if the balances do not match the ledger.
+     * 
+     * @param args simulator options, see the class documentation
+     * @throws InterruptedException if interrupted while waiting for the worker threads
+     * @throws IOException if the bank cannot be closed
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        WorkloadSimulator simulator = new WorkloadSimulator();
+        simulator.parseOptions(args);
+        simulator.setUp();
+        long elapsedNanos = simulator.run();
+        simulator.printResults(elapsedNanos);
+        boolean ledgerMatches = simulator.checkLedger();
+        simulator.bank.close();
+        if (!ledgerMatches) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parses command line options.
+     * 
+     * @param args the command line arguments
+     * @throws IllegalArgumentException if an option is unknown, has no value or is out of range
+     */
+    private void parseOptions(String[] args) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--users":
+                    userCount = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threadCount = Integer.parseInt(value);
+                    break;
+                case "--operations":
+                    operationCount = Long.parseLong(value);
+                    break;
+                case "--mix":
+                    mix = parseMix(value);
+                    break;
+                case "--zipf":
+                    zipfExponent = Double.parseDouble(value);
+                    break;
+                case "--initial":
+                    initialCents = Money.parseCents(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (userCount <= 0 || threadCount <= 0 || operationCount < 0 || zipfExponent < 0 || initialCents < 0) {
+            throw new IllegalArgumentException("Users and threads must be positive, other options non-negative");
+        }
+    }
+
+    /**
+     * Parses an operation mix such as "deposit=40,withdraw=60". Operations not mentioned get weight 0.
+     * 
+     * @param value the mix
+     * @return the weight of each operation
+     * @throws IllegalArgumentException if an operation is unknown or no weight is positive
+     */
+    private static int[] parseMix(String value) {
+        int[] weights = new int[OPERATIONS.length];
+        for (String part : value.split(",")) {
+            String[] nameAndWeight = part.split("=");
+            if (nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight but found " + part);
+            }
+            Operation operation = null;
+            for (Operation candidate : OPERATIONS) {
+                if (candidate.optionName.equals(nameAndWeight[0].trim())) {
+                    operation = candidate;
+                }
+            }
+            if (operation == null) {
+                throw new IllegalArgumentException("Unknown operation " + nameAndWeight[0]);
+            }
+            weights[operation.ordinal()] = Integer.parseInt(nameAndWeight[1].trim());
+        }
+        if (Arrays.stream(weights).sum() <= 0 || Arrays.stream(weights).anyMatch(weight -> weight < 0)) {
+            throw new IllegalArgumentException("Mix weights must be non-negative with a positive total");
+        }
+        return weights;
+    }
+
+    /**
+     * Creates and funds the accounts and builds the hotness distribution.
+     */
+    private void setUp() {
+        bank = new Bank();
+        checkingAccounts = new CheckingAccount[userCount];
+        savingsAccounts = new SavingsAccount[userCount];
+        long startNanos = System.nanoTime();
+        for (int user = 0; user < userCount; user++) {
+            String userName = "sim" + user;
+            bank.createAccount(true, userName + Bank.CHECKING);
+            bank.createAccount(false, userName + Bank.SAVING);
+            checkingAccounts[user] = (CheckingAccount) bank.getAccount(userName + Bank.CHECKING);
+            savingsAccounts[user] = (SavingsAccount) bank.getAccount(userName + Bank.SAVING);
+            checkingAccounts[user].depositCents(initialCents);
+            savingsAccounts[user].depositCents(initialCents);
+            expectedCents.add(2 * initialCents);
+        }
+        double setUpSeconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("Created and funded %d accounts in %.3f s%n", 2L * userCount, setUpSeconds);
+
+        Random random = new Random(seed);
+        hotness = new int[userCount];
+        for (int rank = 0; rank < userCount; rank++) {
+            hotness[rank] = rank;
+        }
+        for (int rank = userCount - 1; rank > 0; rank--) {
+            int other = random.nextInt(rank + 1);
+            int swapped = hotness[rank];
+            hotness[rank] = hotness[other];
+            hotness[other] = swapped;
+        }
+
+        if (zipfExponent > 0) {
+            zipfCumulative = new double[userCount];
+            double total = 0;
+            for (int rank = 0; rank < userCount; rank++) {
+                total += 1 / Math.pow(rank + 1, zipfExponent);
+                zipfCumulative[rank] = total;
+            }
+            for (int rank = 0; rank < userCount; rank++) {
+                zipfCumulative[rank] /= total;
+            }
+        }
+    }
+
+    /**
+     * Runs the operations on all threads.
+     * 
+     * @return the wall-clock duration of the run in nanoseconds
+     * @throws InterruptedException if interrupted while waiting for the worker threads
+     */
+    private long run() throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threadCount];
+        for (int thread = 0; thread < threadCount; thread++) {
+            long operations = operationCount / threadCount + (thread < operationCount % threadCount ? 1 : 0);
+            workers[thread] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                work(operations);
+            }, "simulator-" + thread);
+            workers[thread].start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Applies a number of randomly chosen operations.
+     * 
+     * @param operations the number of operations to apply
+     */
+    private void work(long operations) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int totalWeight = Arrays.stream(mix).sum();
+        long ledgerCents = 0;
+        for (long i = 0; i < operations; i++) {
+            Operation operation = chooseOperation(random.nextInt(totalWeight));
+            int user = hotness[chooseRank(random)];
+            long cents = 1 + random.nextLong(MAX_AMOUNT_CENTS);
+
+            long startNanos = System.nanoTime();
+            long deltaCents;
+            try {
+                deltaCents = apply(operation, user, cents, random);
+            } catch (ArithmeticException e) {
+                // The balance would overflow; the account rejected the operation unchanged.
+                deltaCents = Long.MIN_VALUE;
+            }
+            latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+            counts[operation.ordinal()].increment();
+            if (deltaCents == Long.MIN_VALUE) {
+                rejections[operation.ordinal()].increment();
+            } else {
+                ledgerCents += deltaCents;
+            }
+        }
+        expectedCents.add(ledgerCents);
+    }
+
+    /**
+     * Applies one operation.
+     * 
+     * @param operation the operation
+     * @param user the user whose account is used
+     * @param cents the amount in cents
+     * @param random the calling thread's random source
+     * @return the change of the balance in cents, or Long.MIN_VALUE if the operation was rejected
+     */
+    private long apply(Operation operation, int user, long cents, ThreadLocalRandom random) {
+        switch (operation) {
+            case DEPOSIT:
+                account(user, random).depositCents(cents);
+                return cents;
+            case WITHDRAW:
+                return account(user, random).withdrawCents(cents) ? -cents : Long.MIN_VALUE;
+            case DEPOSIT_CHECK:
+                return checkingAccounts[user].depositCheckCents(cents, nextCheckNumber.getAndIncrement())
+                        ? cents : Long.MIN_VALUE;
+            case CASH_CHECK:
+                return checkingAccounts[user].cashCheckCents(cents, nextCheckNumber.getAndIncrement())
+                        ? -cents : Long.MIN_VALUE;
+            default:
+                // Interest is not returned by the account, so the change of the rounded balance is
+                // measured while holding the account lock. Integer-cent operations shift the rounded
+                // balance by exactly their amount, so the ledger stays exact.
+                AbstractAccount account = account(user, random);
+                synchronized (account) {
+                    long before = account.getBalanceCents();
+                    account.calculateInterest();
+                    return account.getBalanceCents() - before;
+                }
+        }
+    }
+
+    /**
+     * Picks the checking or the savings account of a user at random.
+     * 
+     * @param user the user
+     * @param random the calling thread's random source
+     * @return the account
+     */
+    private AbstractAccount account(int user, ThreadLocalRandom random) {
+        return random.nextBoolean() ? checkingAccounts[user] : savingsAccounts[user];
+    }
+
+    /**
+     * Maps a number below the total mix weight to an operation.
+     * 
+     * @param draw the number
+     * @return the operation
+     */
+    private Operation chooseOperation(int draw) {
+        for (Operation operation : OPERATIONS) {
+            draw -= mix[operation.ordinal()];
+            if (draw < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("Draw exceeds the total mix weight");
+    }
+
+    /**
+     * Draws a hotness rank, 0 being the hottest.
+     * 
+     * @param random the calling thread's random source
+     * @return the rank
+     */
+    private int chooseRank(ThreadLocalRandom random) {
+        if (zipfCumulative == null) {
+            return random.nextInt(userCount);
+        }
+        int rank = Arrays.binarySearch(zipfCumulative, random.nextDouble());
+        return Math.min(rank < 0 ? -rank - 1 : rank, userCount - 1);
+    }
+
+    /**
+     * Prints throughput and latency percentiles per operation and in total.
+     * 
+     * @param elapsedNanos the wall-clock duration of the run in nanoseconds
+     */
+    private void printResults(long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        System.out.printf("%-14s %12s %10s %12s %10s %10s %10s%n",
+                "Operation", "Count", "Rejected", "ops/s", "p50 ns", "p99 ns", "p99.9 ns");
+        long total = 0;
+        for (Operation operation : OPERATIONS) {
+            long count = counts[operation.ordinal()].sum();
+            total += count;
+            LatencyHistogram histogram = latencies[operation.ordinal()];
+            System.out.printf("%-14s %12d %10d %12.0f %10d %10d %10d%n",
+                    operation.optionName, count, rejections[operation.ordinal()].sum(), count / seconds,
+                    histogram.percentile(50), histogram.percentile(99), histogram.percentile(99.9));
+        }
+        System.out.printf("%d operations on %d threads over %d users (zipf %.2f) in %.3f s, %.0f ops/s%n",
+                total, threadCount, userCount, zipfExponent, seconds, total / seconds);
+    }
+
+    /**
+     * Compares the sum of all balances with the expected ledger and prints the outcome.
+     * 
+     * @return true if they match
+     */
+    private boolean checkLedger() {
+        long actualCents = 0;
+        for (int user = 0; user < userCount; user++) {
+            actualCents += checkingAccounts[user].getBalanceCents() + savingsAccounts[user].getBalanceCents();
+        }
+        long expected = expectedCents.sum();
+        boolean matches = actualCents == expected;
+        System.out.printf("Ledger %s: total balance %s, expected %s%n", matches ? "OK" : "MISMATCH",
+                Money.toBigDecimal(actualCents).toPlainString(), Money.toBigDecimal(expected).toPlainString());
+        return matches;
+    }
+}